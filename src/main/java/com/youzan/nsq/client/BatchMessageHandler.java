@@ -0,0 +1,25 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.NSQMessage;
+
+import java.util.List;
+
+/**
+ * Callback for client processing messages in batch, e.g. bulk insert into database. Messages in one batch come from
+ * the same nsqd connection, and batch is passed when it reaches {@link com.youzan.nsq.client.entity.NSQConfig#getConsumeBatchSize()}
+ * or {@link com.youzan.nsq.client.entity.NSQConfig#getConsumeBatchMaxWaitInMillisecond()} elapses.
+ * With auto finish, messages marked failed in {@link BatchResult} are requeued, and others are finished by SDK.
+ * Exception raised by handler fails the whole batch, and {@link com.youzan.nsq.client.exception.RetryBusinessException}
+ * makes SDK process the batch once more.
+ */
+public interface BatchMessageHandler {
+
+    /**
+     * Business Processing.
+     *
+     * @param messages messages exposing to the client, skipped and filtered messages are not in
+     * @param result   result of messages, index of which is the same as in messages
+     */
+    void process(List<NSQMessage> messages, BatchResult result);
+
+}
@@ -0,0 +1,49 @@
+package com.youzan.nsq.client;
+
+import java.util.BitSet;
+
+/**
+ * Per message result of one batch passed to {@link BatchMessageHandler}, all messages succeed unless marked failed.
+ */
+public class BatchResult {
+    private final int size;
+    private final BitSet failed;
+
+    BatchResult(int size) {
+        this.size = size;
+        this.failed = new BitSet(size);
+    }
+
+    /**
+     * mark message at passin index failed, it is requeued with its next consuming in second.
+     */
+    public void fail(int idx) {
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException("Index: " + idx + ", Size: " + size);
+        }
+        failed.set(idx);
+    }
+
+    void failAll() {
+        failed.set(0, size);
+    }
+
+    void reset() {
+        failed.clear();
+    }
+
+    public boolean isFailed(int idx) {
+        return failed.get(idx);
+    }
+
+    public int getFailedCount() {
+        return failed.cardinality();
+    }
+
+    /**
+     * @return number of messages in batch
+     */
+    public int size() {
+        return size;
+    }
+}
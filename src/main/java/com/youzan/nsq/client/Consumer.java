@@ -79,6 +79,26 @@ public interface Consumer extends Client, Closeable {
      */
     void setMessageHandler(final MessageHandler handler);
 
+    /**
+     * set batch message handler for current consumer, which takes place of message handler. Use this function to set
+     * up batch message handler BEFORE consumer starts. Invoking of current throws exception after consumer starts.
+     * @param handler
+     *              batch message handler to set up.
+     */
+    void setBatchMessageHandler(final BatchMessageHandler handler);
+
+    /**
+     * set message key extractor for current consumer, which turns on key ordered consumption. Messages of one connection
+     * are hashed by key onto {@link NSQConfig#getConsumerKeyOrderedLanes()} lanes, messages in one lane are handled and
+     * acknowledged one by one in the order they are received, and lanes are handled in parallel. It works with
+     * {@link MessageHandler} and subscription NOT ordered. Note that message requeued is delivered again after
+     * messages of the same key received later. Use this function BEFORE consumer starts, invoking of current throws
+     * exception after consumer starts.
+     * @param extractor
+     *              extractor of message key, see {@link MessageKeyExtractors}
+     */
+    void setMessageKeyExtractor(final MessageKeyExtractor extractor);
+
     /**
      * Perform the action quietly. No exceptions.
      */
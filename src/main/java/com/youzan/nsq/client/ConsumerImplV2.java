@@ -8,14 +8,13 @@ import com.youzan.nsq.client.exception.*;
 import com.youzan.nsq.client.network.frame.*;
 import com.youzan.nsq.client.network.frame.NSQFrame.FrameType;
 import com.youzan.nsq.client.network.netty.NSQClientInitializer;
+import com.youzan.nsq.client.network.netty.NettyTransports;
 import com.youzan.util.HostUtil;
 import com.youzan.util.IOUtil;
 import com.youzan.util.NamedThreadFactory;
 import com.youzan.util.ThreadSafe;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,7 +62,7 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
     private final AtomicLong skipped = new AtomicLong(0);
 
     //connection manager
-    protected ConnectionManager conMgr = new ConnectionManager(this);
+    protected ConnectionManager conMgr;
 
     //netty component for consumer
     private final Bootstrap bootstrap = new Bootstrap();
@@ -76,20 +75,42 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
      * nsqd address to connection map in effect.
      */
     protected final ConcurrentHashMap<Address, NSQConnection> address_2_conn = new ConcurrentHashMap<>();
+    /*
+     * bounded message queue of each connection in effect, drained by message handler executor
+     */
+    private final ConcurrentHashMap<NSQConnection, DispatchQueue> conn_2_dispatchQueue = new ConcurrentHashMap<>();
 
     /*
      * schedule executor for updating nsqd connections in effect
      */
-    private ScheduledExecutorService scheduler;
+    private final ScheduledExecutorService scheduler;
+    private volatile ScheduledFuture<?> keepConnectingFuture;
+    private volatile ScheduledFuture<?> adaptRdyFuture;
+    /*
+     * controller of expected rdy per connection
+     */
+    private final RdyController rdyController;
     /*
      * message handler
      */
     private volatile MessageHandler handler;
+    /*
+     * batch message handler, which takes place of message handler if set
+     */
+    private volatile BatchMessageHandler batchHandler;
+    /*
+     * extractor of message key in key ordered consumption, null otherwise
+     */
+    private volatile MessageKeyExtractor keyExtractor;
 
     /*
      * message handler executor
      */
     private final ExecutorService executor;
+    /*
+     * shared runtime which netty event loop group and executors belong to, null if they are owned by consumer
+     */
+    private final ClientRuntime runtime;
 
     /*
      * auto finish flag
@@ -112,15 +133,19 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
     public ConsumerImplV2(NSQConfig config) {
         this.config = config;
         this.simpleClient = new NSQSimpleClient(Role.Consumer, this.config.getUserSpecifiedLookupAddress(), this.config);
+        this.conMgr = new ConnectionManager(this, this.config);
+        this.rdyController = new RdyController(this.config);
+        this.runtime = this.config.isUseSharedRuntime() ? ClientRuntime.acquire(this.config) : null;
 
         //initialize netty component
-        EventLoopGroup eventLoopGroup = new NioEventLoopGroup(config.getNettyPoolSize());
-        bootstrap.option(ChannelOption.SO_KEEPALIVE, true);
-        bootstrap.option(ChannelOption.TCP_NODELAY, true);
-        bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getConnectTimeoutInMillisecond());
-        bootstrap.group(eventLoopGroup);
-        bootstrap.channel(NioSocketChannel.class);
+        EventLoopGroup eventLoopGroup = null != runtime ? runtime.getEventLoopGroup() : NettyTransports.newEventLoopGroup(config, config.getNettyPoolSize(), null);
+        NettyTransports.configure(bootstrap, eventLoopGroup, config);
         bootstrap.handler(new NSQClientInitializer());
+        if (null != runtime) {
+            executor = runtime.getWorkerExecutor();
+            scheduler = runtime.getScheduler();
+            return;
+        }
         //initialize consumer worker size
         executor = Executors.newFixedThreadPool(this.config.getConsumerWorkerPoolSize(),
                 new NamedThreadFactory(this.getClass().getSimpleName() + "-ClientBusiness-" + this.config.getConsumerName(), Thread.MAX_PRIORITY));
@@ -142,6 +167,18 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
         this.handler = handler;
     }
 
+    /**
+     * Consumer constructor, with {@link NSQConfig}, and {@link BatchMessageHandler}
+     * @param config
+     *                NSQConfig config to initialize consumer
+     * @param batchHandler
+     *                the client batch message handler code sets it
+     */
+    public ConsumerImplV2(NSQConfig config, BatchMessageHandler batchHandler) {
+        this(config);
+        this.batchHandler = batchHandler;
+    }
+
     public void setMessageHandler(final MessageHandler handler) {
         if(this.started.get()) {
             throw new IllegalStateException("Consumer has started.");
@@ -149,6 +186,20 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
         this.handler = handler;
     }
 
+    public void setBatchMessageHandler(final BatchMessageHandler batchHandler) {
+        if(this.started.get()) {
+            throw new IllegalStateException("Consumer has started.");
+        }
+        this.batchHandler = batchHandler;
+    }
+
+    public void setMessageKeyExtractor(final MessageKeyExtractor keyExtractor) {
+        if(this.started.get()) {
+            throw new IllegalStateException("Consumer has started.");
+        }
+        this.keyExtractor = keyExtractor;
+    }
+
     @Override
     public NSQConfig getConfig() {
         return this.config;
@@ -223,9 +274,16 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
             throw new IllegalArgumentException("Consumer Name is blank! Please check it!");
         }
         //validate message not null
-        if (null == this.handler) {
+        if (null == this.handler && null == this.batchHandler) {
             throw new IllegalArgumentException("Message handler is null");
         }
+        //validate key ordered consumption
+        if (null != this.keyExtractor && (null != this.batchHandler || this.config.isOrdered())) {
+            throw new IllegalArgumentException("Key ordered consumption does not work with batch message handler, or ordered subscription.");
+        }
+        if (this.config.getRdy() > this.config.getConsumerDispatchQueueSize()) {
+            logger.warn("RDY {} is capped by consumer dispatch queue size {}.", this.config.getRdy(), this.config.getConsumerDispatchQueueSize());
+        }
         //validate there is topics for subscribe
         if (this.topics2Partitions.isEmpty()) {
             logger.warn("No topic subscribed.");
@@ -245,6 +303,7 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
                 this.simpleClient.start();
 
                 keepConnecting();
+                keepAdaptingRdy();
                 //start connection manager
                 conMgr.start();
                 logger.info("The consumer {} has been started.", this);
@@ -255,15 +314,50 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
     }
 
     public boolean isConsumptionEstimateElapseTimeout() {
-//        return consumptionRate * queue4Consume.get() *1000 >= this.config.getMsgTimeoutInMillisecond();
-        return false;
+        return rdyController.estimateWaitInMillisecond(queue4Consume.get()) >= this.config.getMsgTimeoutInMillisecond();
+    }
+
+    private boolean isRdyAdaptive() {
+        return this.config.isAdaptiveRdy() && !this.config.isRdyOverride() && !this.config.isOrdered();
+    }
+
+    /**
+     * keep sampling message handler latency and worker utilization with {@link RdyController}, for
+     * {@link #getLoadFactor()} and {@link #isConsumptionEstimateElapseTimeout()}. With adaptive rdy, expected rdy
+     * ceiling per connection is adapted too, expected rdy of connection above new ceiling is lowered and sent to nsqd
+     * at once.
+     */
+    private void keepAdaptingRdy() {
+        adaptRdyFuture = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final int ceiling = rdyController.adjust(calculateExpectedRdyPerConn(), address_2_conn.size(), queue4Consume.get(), System.currentTimeMillis());
+                    if (!isRdyAdaptive()) {
+                        return;
+                    }
+                    if (ceiling != expectedRdyPerConn) {
+                        logger.info("Expected rdy per connection adapts from {} to {}. Handler latency {} milliSec, worker utilization {}, queue4Consume {}.", expectedRdyPerConn, ceiling, rdyController.getLatencyInMillisecond(), rdyController.getUtilization(), queue4Consume);
+                    }
+                    expectedRdyPerConn = ceiling;
+                    for (NSQConnection conn : address_2_conn.values()) {
+                        if (conn.getExpectedRdy() > ceiling) {
+                            conn.setExpectedRdy(ceiling);
+                            conMgr.updateRdy(conn);
+                        }
+                    }
+                } catch (Throwable e) {
+                    logger.error("Throwable in adapting rdy:", e);
+                }
+            }
+        }, 0, RdyController.INTERVAL_IN_MILLISECOND, TimeUnit.MILLISECONDS);
     }
 
     /**
      * keep updating topics' connections according to simple clients' topics to partitions selectors
      */
     private void keepConnecting() {
-        scheduler.scheduleWithFixedDelay(new Runnable() {
+        keepConnectingFuture = scheduler.scheduleWithFixedDelay(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -313,8 +407,10 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
                 if (!c.isConnected()) {
                     //close it directly, as it is broken
                     NSQConnection conn2Close = address_2_conn.remove(c.getAddress());
-                    if(null != conn2Close)
+                    if(null != conn2Close) {
                         conns2ClsSet.add(conn2Close);
+                        conn_2_dispatchQueue.remove(conn2Close);
+                    }
                 }
             } catch (Exception e) {
                 logger.error("While detecting broken connections, Exception:", e);
@@ -429,10 +525,12 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
         except2.clear();
         oldAddresses.clear();
         targetAddresses.clear();
-        expectedRdyPerConn = calculateExpectedRdyPerConn();
+        //adaptive ceiling follows connections in next adjustment
+        if (!isRdyAdaptive())
+            expectedRdyPerConn = calculateExpectedRdyPerConn();
     }
 
-    private int expectedRdyPerConn = NSQConfig.DEFAULT_RDY;
+    private volatile int expectedRdyPerConn = NSQConfig.DEFAULT_RDY;
 
     private int calculateExpectedRdyPerConn() {
         int computedExpectedRdy = NSQConfig.DEFAULT_RDY;
@@ -443,6 +541,9 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
             if(computedExpectedRdyTmp > computedExpectedRdy)
                 computedExpectedRdy = computedExpectedRdyTmp;
         }
+        //room for one batch, capped by dispatch queue size in connection
+        if(null != this.batchHandler && computedExpectedRdy < this.config.getConsumeBatchSize())
+            computedExpectedRdy = this.config.getConsumeBatchSize();
         assert computedExpectedRdy > 0;
         return computedExpectedRdy;
     }
@@ -548,6 +649,7 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
         final NSQConnection conn = address_2_conn.get(address);
         address_2_conn.remove(address);
         if (conn != null) {
+            conn_2_dispatchQueue.remove(conn);
             try {
                 backoff(conn);
             } catch (Exception e) {
@@ -629,30 +731,89 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
             logger.debug(message.toString());
         }
 
-        if (handler == null) {
+        if (handler == null && batchHandler == null) {
             logger.error("No MessageHandler then drop the message {}", message);
             return;
         }
-        try {
-             executor.execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        consume(message, connection);
-                        success.incrementAndGet();
-                    } catch (Exception e) {
-                        IOUtil.closeQuietly(connection);
-                        logger.error("Exception", e);
-                    } finally {
-                        queue4Consume.decrementAndGet();
+        final DispatchQueue queue = dispatchQueueOf(connection);
+        queue4Consume.incrementAndGet();
+        if (!queue.offer(message)) {
+            queue4Consume.decrementAndGet();
+            logger.warn("Message handler queue of connection {} is full, or consumer is closed. Message {} is requeued.", connection.getAddress(), message.getMessageID());
+            //requeue at once, rather than leaving message to time out in nsqd
+            if (connection.isConnected()) {
+                connection.acknowledge(new ReQueue(message.getMessageID(), 0));
+            }
+            if (connection.declineExpectedRdy()) {
+                this.conMgr.updateRdy(connection);
+            }
+            return;
+        }
+        //handlers fall behind, nsqd pushes less
+        if (!this.config.isOrdered() && queue.getFreeCapacity() == 0 && connection.declineExpectedRdy()) {
+            this.conMgr.updateRdy(connection);
+        }
+    }
+
+    private DispatchQueue dispatchQueueOf(final NSQConnection connection) {
+        DispatchQueue queue = conn_2_dispatchQueue.get(connection);
+        if (null == queue) {
+            final DispatchQueue newQueue;
+            if (null != batchHandler) {
+                //one batch of a connection at a time, so that batch is not split among workers
+                newQueue = new DispatchQueue(this.config.getConsumerDispatchQueueSize(), 1, executor, new DispatchQueue.BatchHandler() {
+                    @Override
+                    public void handle(List<NSQMessage> messages) {
+                        try {
+                            consumeBatch(messages, connection);
+                            success.addAndGet(messages.size());
+                        } catch (Exception e) {
+                            IOUtil.closeQuietly(connection);
+                            logger.error("Exception", e);
+                        } finally {
+                            queue4Consume.addAndGet(-messages.size());
+                        }
+                    }
+                }, this.config.getConsumeBatchSize(), this.config.getConsumeBatchMaxWaitInMillisecond(), scheduler);
+            } else {
+                final DispatchQueue.Handler messageHandler = new DispatchQueue.Handler() {
+                    @Override
+                    public void handle(NSQMessage message) {
+                        try {
+                            consume(message, connection);
+                            success.incrementAndGet();
+                        } catch (Exception e) {
+                            IOUtil.closeQuietly(connection);
+                            logger.error("Exception", e);
+                        } finally {
+                            queue4Consume.decrementAndGet();
+                        }
                     }
+                };
+                if (null != keyExtractor) {
+                    //messages of one key are handled one by one, in one lane
+                    newQueue = new DispatchQueue(this.config.getConsumerDispatchQueueSize(), this.config.getConsumerKeyOrderedLanes(), executor, messageHandler, keyExtractor);
+                } else {
+                    //messages of ordered connection are handled one by one
+                    int parallelism = this.config.isOrdered() ? 1 : this.config.getConsumerWorkerPoolSize();
+                    newQueue = new DispatchQueue(this.config.getConsumerDispatchQueueSize(), parallelism, executor, messageHandler);
                 }
-            });
-            queue4Consume.incrementAndGet();
-        } catch (RejectedExecutionException re) {
-            logger.error("message handler task rejected as task queue is full.");
-            connection.declineExpectedRdy();
+            }
+            queue = conn_2_dispatchQueue.putIfAbsent(connection, newQueue);
+            if (null == queue) {
+                queue = newQueue;
+            }
         }
+        return queue;
+    }
+
+    /**
+     * @return {@link Boolean#TRUE} if less than half of dispatch queue of connection is taken, which means message
+     * handlers keep up with nsqd.
+     */
+    private boolean isDispatchQueueAvailable(final NSQConnection connection) {
+        final DispatchQueue queue = conn_2_dispatchQueue.get(connection);
+        return null == queue || queue.getFreeCapacity() * 2 >= queue.getCapacity();
     }
 
     boolean needSkip4MsgKV(final NSQMessage msg) {
@@ -691,6 +852,7 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
         skip = skip || !checkExtFilter(message, connection);
 
         long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
         try {
             if(!skip)
                 handler.process(message);
@@ -726,11 +888,92 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
             }
         }
         long end = System.currentTimeMillis() - start;
+        if(!skip)
+            rdyController.record(System.nanoTime() - startNanos, 1);
         if(PERF_LOG.isDebugEnabled())
             PERF_LOG.debug("Message handler took {} milliSec to finish consuming message for connection {}. Success:{}, Retry:{}", end, connection.getAddress(), ok, retry);
         if(end > this.config.getMsgTimeoutInMillisecond())
             PERF_LOG.warn("Message handler took {} milliSec to finish consuming message. Limitation is {}", end, this.config.getMsgTimeoutInMillisecond());
+        afterConsume(message, connection, ok, skip, end, !explicitRequeue);
+    }
+
+    /**
+     * Consume messages of one batch from connection with {@link BatchMessageHandler}. Skip and filter apply to each
+     * message as in {@link #consume(NSQMessage, NSQConnection)}, and messages left are finished or requeued according
+     * to their results in {@link BatchResult}.
+     * @param messages   messages of one batch
+     * @param connection a NSQConnection
+     */
+    private void consumeBatch(final List<NSQMessage> messages, final NSQConnection connection) {
+        final List<NSQMessage> toProcess = new ArrayList<>(messages.size());
+        for (NSQMessage message : messages) {
+            if (needSkip4MsgKV(message) || !checkExtFilter(message, connection)) {
+                skipped.incrementAndGet();
+                afterConsume(message, connection, true, true, 0L, false);
+            } else {
+                toProcess.add(message);
+            }
+        }
+        if (toProcess.isEmpty()) {
+            return;
+        }
+        final BatchResult result = new BatchResult(toProcess.size());
+        boolean retry;
+        boolean explicitRequeue = false;
+        long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        try {
+            batchHandler.process(toProcess, result);
+            retry = false;
+        } catch (ExplicitRequeueException e) {
+            retry = false;
+            explicitRequeue = true;
+            result.failAll();
+            logger.info("Batch of {} messages explicit requeue by client business. {}", toProcess.size(), e.getMessage());
+            if(!e.isWarnLogDepressed()) {
+                logger.warn("Client business has one error in batch of {} messages. Exception:", toProcess.size(), e);
+            }
+        } catch (RetryBusinessException e) {
+            retry = true;
+        } catch (Exception e) {
+            retry = false;
+            result.failAll();
+            logger.error("Client business has one error in batch of {} messages. Exception:", toProcess.size(), e);
+        }
+        if (retry) {
+            logger.info("Client has told SDK to do batch of {} messages again.", toProcess.size());
+            result.reset();
+            try {
+                batchHandler.process(toProcess, result);
+            } catch (Exception e) {
+                result.failAll();
+                logger.error("Client business retry fail in batch of {} messages. Exception:", toProcess.size(), e);
+            }
+        }
+        long end = System.currentTimeMillis() - start;
+        rdyController.record(System.nanoTime() - startNanos, toProcess.size());
+        if(PERF_LOG.isDebugEnabled())
+            PERF_LOG.debug("Batch message handler took {} milliSec to finish consuming {} messages for connection {}. Failed:{}, Retry:{}", end, toProcess.size(), connection.getAddress(), result.getFailedCount(), retry);
+        if(end > this.config.getMsgTimeoutInMillisecond())
+            PERF_LOG.warn("Batch message handler took {} milliSec to finish consuming {} messages. Limitation is {}", end, toProcess.size(), this.config.getMsgTimeoutInMillisecond());
+        for (int i = 0; i < toProcess.size(); i++) {
+            afterConsume(toProcess.get(i), connection, !result.isFailed(i), false, end, false);
+        }
+        //decline once for one failed batch
+        if (autoFinish && !explicitRequeue && result.getFailedCount() > 0) {
+            connection.declineExpectedRdy();
+        }
+    }
 
+    /**
+     * Finish or requeue consumed message, according to auto finish and consumption result, and log attempts of failed
+     * message.
+     * @param ok {@link Boolean#TRUE} if message is consumed or skipped
+     * @param skip {@link Boolean#TRUE} if message is skipped, instead of passed to handler
+     * @param end milliseconds message handler took
+     * @param declineRdy {@link Boolean#TRUE} to decline expected rdy of connection, if message fails
+     */
+    private void afterConsume(final NSQMessage message, final NSQConnection connection, boolean ok, boolean skip, long end, boolean declineRdy) {
         // The client commands ReQueue into NSQd.
         final Integer nextConsumingWaiting = message.getNextConsumingInSecond();
         // It is too complex.
@@ -758,7 +1001,7 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
                         logger.info("Do a Finish by SDK, given that client process handler has failed and next consuming time elapse not specified. MessageID: {} , Hex: {}", id, message.newHexString(id));
                     }
                 }
-                if(!explicitRequeue)
+                if(declineRdy)
                     connection.declineExpectedRdy();
             }
         } else {
@@ -782,7 +1025,7 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
         if (cmd != null) {
             final String cmdStr = cmd.toString();
             if (!closing.get()) {
-                ChannelFuture future = connection.command(cmd);
+                ChannelFuture future = connection.acknowledge(cmd);
                 if (null != future) {
                     future.addListener(new ChannelFutureListener() {
                         @Override
@@ -824,7 +1067,7 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
             }
             //TODO: connection.setMessageConsumptionFailed(start);
 //            logger.warn("Exception occurs in message handler. Please check it right now {} , Original message: {}.", message, message.getReadableContent());
-        } else if (!this.config.isOrdered()){
+        } else if (!this.config.isOrdered() && isDispatchQueueAvailable(connection)){
             connection.increaseExpectedRdy(this.expectedRdyPerConn);
         }
     }
@@ -854,24 +1097,64 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
                 //stop & clear topic to partition mapping
                 IOUtil.closeQuietly(simpleClient);
                 //stop connect new NSQConnections
-                scheduler.shutdownNow();
+                if (null != runtime) {
+                    if (null != keepConnectingFuture) {
+                        keepConnectingFuture.cancel(true);
+                    }
+                    if (null != adaptRdyFuture) {
+                        adaptRdyFuture.cancel(true);
+                    }
+                } else {
+                    scheduler.shutdownNow();
+                }
                 this.conMgr.close();
                 //backoff existing connections
                 final Set<NSQConnection> connections = cleanClose();
-                executor.shutdown();
-                try {
-                    if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
-                        logger.warn("Message workers handles messages over 10 sec.");
-                        executor.shutdownNow();
+                if (null != runtime) {
+                    awaitHandlers(10, TimeUnit.SECONDS);
+                } else {
+                    executor.shutdown();
+                    try {
+                        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                            logger.warn("Message workers handles messages over 10 sec.");
+                            executor.shutdownNow();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
                     }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
                 }
                 close(connections);
+                if (null != runtime) {
+                    runtime.release();
+                }
                 logger.info("The consumer has been closed.");
             } finally {
                 cLock.writeLock().unlock();
             }
+        } else if (null != runtime && !started.get() && closing.compareAndSet(Boolean.FALSE, Boolean.TRUE)) {
+            //consumer never started releases shared runtime acquired in constructor
+            IOUtil.closeQuietly(simpleClient);
+            this.conMgr.close();
+            runtime.release();
+        }
+    }
+
+    /**
+     * wait for message handlers of current consumer running in shared worker executor, which is not shut down with
+     * consumer.
+     */
+    private void awaitHandlers(long timeout, TimeUnit unit) {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            while (queue4Consume.get() > 0) {
+                if (System.nanoTime() - deadline >= 0) {
+                    logger.warn("Message workers handles messages over {} {}.", timeout, unit);
+                    return;
+                }
+                Thread.sleep(10L);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -1037,7 +1320,7 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
         if (conn != null) {
             if (conn.getId() == message.getConnectionID().intValue()) {
                 if (conn.isConnected()) {
-                    ChannelFuture future = conn.command(new ReQueue(message.getMessageID(), message.getNextConsumingInSecond().intValue()));
+                    ChannelFuture future = conn.acknowledge(new ReQueue(message.getMessageID(), message.getNextConsumingInSecond().intValue()));
                     future.addListener(new ChannelFutureListener() {
                         @Override
                         public void operationComplete(ChannelFuture future) throws Exception {
@@ -1064,7 +1347,7 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
         if (conn != null) {
             if (conn.getId() == message.getConnectionID().intValue()) {
                 if (conn.isConnected()) {
-                    ChannelFuture future = conn.command(new Finish(message.getMessageID()));
+                    ChannelFuture future = conn.acknowledge(new Finish(message.getMessageID()));
                     future.addListener(new ChannelFutureListener() {
                         @Override
                         public void operationComplete(ChannelFuture future) throws Exception {
@@ -1100,7 +1383,7 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
         if (conn != null) {
             if (conn.getId() == message.getConnectionID().intValue()) {
                 if (conn.isConnected()) {
-                    ChannelFuture future = conn.command(new Touch(message.getMessageID()));
+                    ChannelFuture future = conn.acknowledge(new Touch(message.getMessageID()));
                     future.addListener(new ChannelFutureListener() {
                         @Override
                         public void operationComplete(ChannelFuture future) throws Exception {
@@ -1159,7 +1442,7 @@ public class ConsumerImplV2 implements Consumer, IConsumeInfo {
 
     @Override
     public float getLoadFactor() {
-        return 0f;
+        return (float) rdyController.getUtilization();
     }
 
     @Override
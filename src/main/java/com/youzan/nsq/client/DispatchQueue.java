@@ -0,0 +1,297 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.NSQMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded queue of messages received from one nsqd connection, drained by consumer worker executor.
+ * RDY of connection is capped by queue capacity, as nsqd sends no more than RDY messages in flight, so that a slow
+ * message handler backs pressure up to nsqd, instead of piling messages up in consumer.
+ * Messages of one queue are handled by at most parallelism workers at a time, and each worker hands over to other
+ * connections after one message, or one batch in batch mode. In batch mode, worker is scheduled once batch size of
+ * messages are queued, or a flush timer fires max wait after first message of batch is queued, and it takes messages
+ * queued up to batch size without waiting, so that no worker is parked for a partial batch.
+ * In key ordered mode, messages are hashed by key onto serial lanes, each of which is a queue handled by one worker at
+ * a time, so that messages of one key are handled, and then finished or requeued, in the order they are offered.
+ */
+class DispatchQueue {
+    private static final Logger logger = LoggerFactory.getLogger(DispatchQueue.class);
+
+    interface Handler {
+        void handle(NSQMessage message);
+    }
+
+    interface BatchHandler {
+        void handle(List<NSQMessage> messages);
+    }
+
+    private final BlockingQueue<NSQMessage> queue;
+    private final int capacity;
+    private final int parallelism;
+    private final Executor executor;
+    private final Handler handler;
+    private final BatchHandler batchHandler;
+    private final int batchSize;
+    private final long batchMaxWaitInMillisecond;
+    //scheduler of flush timer in batch mode, null otherwise
+    private final ScheduledExecutorService flushScheduler;
+    //flush timer is pending
+    private final AtomicBoolean flushArmed = new AtomicBoolean(false);
+    //partial batch is due to be handled
+    private volatile boolean flushDue = false;
+    //serial lanes in key ordered mode, null otherwise
+    private final DispatchQueue[] lanes;
+    private final MessageKeyExtractor keyExtractor;
+    //drain tasks submitted or running
+    private final AtomicInteger drainers = new AtomicInteger(0);
+    //messages polled from queue and not handled yet
+    private final AtomicInteger handling = new AtomicInteger(0);
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                if (!handleNext()) {
+                    drainers.decrementAndGet();
+                    //message offered, or batch turned due, after check finds no drainer to take it
+                    if (hasWork()) {
+                        try {
+                            schedule();
+                        } catch (RejectedExecutionException e) {
+                            //executor is shut down, messages left are delivered again by nsqd after timeout
+                        }
+                    }
+                    return;
+                }
+                try {
+                    executor.execute(this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    //executor is shut down, messages left are handled in current worker
+                }
+            }
+        }
+    };
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flushArmed.set(false);
+            flushDue = true;
+            try {
+                schedule();
+            } catch (RejectedExecutionException e) {
+                //executor is shut down, messages left are delivered again by nsqd after timeout
+            }
+        }
+    };
+
+    DispatchQueue(int capacity, int parallelism, final Executor executor, final Handler handler) {
+        this(capacity, parallelism, executor, handler, null, 1, 0L, null);
+    }
+
+    DispatchQueue(int capacity, int parallelism, final Executor executor, final BatchHandler batchHandler, int batchSize,
+                  long batchMaxWaitInMillisecond, final ScheduledExecutorService flushScheduler) {
+        this(capacity, parallelism, executor, null, batchHandler, batchSize, batchMaxWaitInMillisecond, flushScheduler);
+    }
+
+    /**
+     * key ordered dispatch queue, with capacity shared by lanes.
+     */
+    DispatchQueue(int capacity, int lanes, final Executor executor, final Handler handler, final MessageKeyExtractor keyExtractor) {
+        this.queue = null;
+        this.capacity = capacity;
+        this.parallelism = lanes;
+        this.executor = executor;
+        this.handler = handler;
+        this.batchHandler = null;
+        this.batchSize = 1;
+        this.batchMaxWaitInMillisecond = 0L;
+        this.flushScheduler = null;
+        this.lanes = new DispatchQueue[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = new DispatchQueue(capacity, 1, executor, handler);
+        }
+        this.keyExtractor = keyExtractor;
+    }
+
+    private DispatchQueue(int capacity, int parallelism, final Executor executor, final Handler handler, final BatchHandler batchHandler,
+                          int batchSize, long batchMaxWaitInMillisecond, final ScheduledExecutorService flushScheduler) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.capacity = capacity;
+        this.parallelism = parallelism;
+        this.executor = executor;
+        this.handler = handler;
+        this.batchHandler = batchHandler;
+        this.batchSize = batchSize;
+        this.batchMaxWaitInMillisecond = batchMaxWaitInMillisecond;
+        this.flushScheduler = flushScheduler;
+        this.lanes = null;
+        this.keyExtractor = null;
+    }
+
+    private DispatchQueue laneOf(final NSQMessage message) {
+        Object key;
+        try {
+            key = keyExtractor.extract(message);
+        } catch (RuntimeException e) {
+            logger.error("Fail to extract key of message {}, it is handled as message without key.", message.getMessageID(), e);
+            key = null;
+        }
+        int hash = null == key ? Arrays.hashCode(message.getMessageID()) : key.hashCode();
+        hash ^= (hash >>> 16);
+        return lanes[(hash & Integer.MAX_VALUE) % lanes.length];
+    }
+
+    /**
+     * handle next message, or next batch in batch mode.
+     * @return {@link Boolean#FALSE} if there is no message, or no batch full or due.
+     */
+    private boolean handleNext() {
+        if (null == batchHandler) {
+            final NSQMessage message = queue.poll();
+            if (null == message) {
+                return false;
+            }
+            handling.incrementAndGet();
+            try {
+                handler.handle(message);
+            } finally {
+                handling.decrementAndGet();
+            }
+            return true;
+        }
+        if (!isBatchReady()) {
+            return false;
+        }
+        flushDue = false;
+        final List<NSQMessage> batch = collect();
+        if (batch.isEmpty()) {
+            return false;
+        }
+        try {
+            batchHandler.handle(batch);
+        } finally {
+            handling.addAndGet(-batch.size());
+        }
+        //wait of messages left starts over
+        armFlush();
+        return true;
+    }
+
+    private boolean hasWork() {
+        return !queue.isEmpty() && (null == batchHandler || isBatchReady());
+    }
+
+    private boolean isBatchReady() {
+        return flushDue || queue.size() >= batchSize || batchMaxWaitInMillisecond <= 0L;
+    }
+
+    /**
+     * collect messages queued up to batch size, messages in batch are counted as handling once polled from queue.
+     */
+    private List<NSQMessage> collect() {
+        final List<NSQMessage> batch = new ArrayList<>(Math.min(batchSize, capacity));
+        NSQMessage message;
+        while (batch.size() < batchSize && null != (message = queue.poll())) {
+            batch.add(message);
+            handling.incrementAndGet();
+        }
+        return batch;
+    }
+
+    /**
+     * start flush timer of partial batch queued, if there is not one pending.
+     */
+    private void armFlush() {
+        if (batchMaxWaitInMillisecond <= 0L || queue.isEmpty() || !flushArmed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            flushScheduler.schedule(flush, batchMaxWaitInMillisecond, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //scheduler is shut down, partial batch goes at once
+            flushArmed.set(false);
+            flushDue = true;
+        }
+    }
+
+    /**
+     * @param message message to handle
+     * @return {@link Boolean#FALSE} if queue is full, or worker executor rejects message.
+     */
+    boolean offer(final NSQMessage message) {
+        if (null != lanes) {
+            //messages of one connection are offered in its event loop, no other offer in between
+            return depth() < capacity && laneOf(message).offer(message);
+        }
+        if (!queue.offer(message)) {
+            return false;
+        }
+        if (null != batchHandler && !isBatchReady()) {
+            armFlush();
+            if (!isBatchReady()) {
+                return true;
+            }
+        }
+        try {
+            schedule();
+        } catch (RejectedExecutionException e) {
+            return !queue.remove(message);
+        }
+        return true;
+    }
+
+    private void schedule() {
+        while (true) {
+            int cnt = drainers.get();
+            if (cnt >= parallelism) {
+                return;
+            }
+            if (drainers.compareAndSet(cnt, cnt + 1)) {
+                break;
+            }
+        }
+        try {
+            executor.execute(drain);
+        } catch (RejectedExecutionException e) {
+            drainers.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of messages queued or being handled
+     */
+    int depth() {
+        if (null != lanes) {
+            int depth = 0;
+            for (DispatchQueue lane : lanes) {
+                depth += lane.depth();
+            }
+            return depth;
+        }
+        return queue.size() + handling.get();
+    }
+
+    int getFreeCapacity() {
+        return Math.max(0, capacity - depth());
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+}
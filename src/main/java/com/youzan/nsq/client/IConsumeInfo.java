@@ -5,7 +5,8 @@ package com.youzan.nsq.client;
  */
 public interface IConsumeInfo {
     /**
-     * load factor of consumer, (total size in queue)/(active messages in queue)
+     * load factor of consumer, share of time consumer workers spend in message handler in last sampling interval, 1
+     * means workers are fully utilized
      * @return load factor
      */
     float getLoadFactor();
@@ -16,5 +17,9 @@ public interface IConsumeInfo {
      */
     int getRdyPerConnection();
 
+    /**
+     * @return {@link Boolean#TRUE} if messages queued in consumer are estimated to be handled after msg timeout, with
+     * measured message handler latency
+     */
     boolean isConsumptionEstimateElapseTimeout();
 }
@@ -0,0 +1,18 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.NSQMessage;
+
+/**
+ * Extracts business key of message, like order ID or user ID, for key ordered consumption. Messages of one connection
+ * with equal keys are handled one by one in the order they are received, while messages of other keys are handled in
+ * parallel. See {@link MessageKeyExtractors} for common extractors.
+ */
+public interface MessageKeyExtractor {
+
+    /**
+     * @param message message received
+     * @return key of message, or null if message has no key and is free to be handled in any order
+     */
+    Object extract(NSQMessage message);
+
+}
@@ -0,0 +1,28 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.NSQMessage;
+
+/**
+ * Common {@link MessageKeyExtractor}s.
+ */
+public final class MessageKeyExtractors {
+
+    private MessageKeyExtractors() {
+    }
+
+    /**
+     * @param name name of key in json extension header of message
+     * @return extractor of value of passin name in json extension header
+     */
+    public static MessageKeyExtractor jsonExtHeader(final String name) {
+        if (null == name || name.isEmpty()) {
+            throw new IllegalArgumentException("Name of key in json extension header should not be blank.");
+        }
+        return new MessageKeyExtractor() {
+            @Override
+            public Object extract(NSQMessage message) {
+                return message.getExtByName(name);
+            }
+        };
+    }
+}
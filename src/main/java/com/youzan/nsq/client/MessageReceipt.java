@@ -21,6 +21,8 @@ public class MessageReceipt implements MessageMetadata {
     private String topicName;
     private int partition;
     private String nsqdAddr;
+    //message is appended to local spill journal, rather than published to nsqd
+    private boolean spilled = false;
 
     public String getTopicName() {
         return topicName;
@@ -50,6 +52,18 @@ public class MessageReceipt implements MessageMetadata {
 
     }
 
+    /**
+     * @return {@link Boolean#TRUE} if message is appended to local spill journal and to be replayed to nsqd later, so
+     * there is no nsqd address or partition info in receipt.
+     */
+    public boolean isSpilled() {
+        return spilled;
+    }
+
+    public void setSpilled(boolean spilled) {
+        this.spilled = spilled;
+    }
+
     public void setInternalID(long internalID) {
         this.internalID = internalID;
     }
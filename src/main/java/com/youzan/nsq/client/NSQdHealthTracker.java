@@ -0,0 +1,202 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.Address;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Health of nsqd nodes producer publishes to, keyed by host and port so it is shared by all topics on one nsqd. Each
+ * node has EWMA of publish latency and error rate, and a circuit breaker which opens after consecutive failures.
+ * Once open interval passes, circuit is half open and one publish is let through as probe, success of which closes
+ * circuit. Latency and error rate decay by half every {@link #DECAY_HALF_LIFE_IN_MILLISECOND} without samples, so a
+ * node which is not chosen for its past statistics gets chosen and sampled again. Statistics are updated without
+ * lock, concurrent updates may be lost, which is fine for node choice.
+ */
+class NSQdHealthTracker {
+    enum CircuitState {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    //weight of latest sample in EWMA
+    static final double ALPHA = 0.2;
+    //consecutive failures which open circuit
+    static final int FAILURE_THRESHOLD = 3;
+    static final long OPEN_INTERVAL_IN_MILLISECOND = 1000L;
+    //latency and error rate halve in this interval without samples
+    static final long DECAY_HALF_LIFE_IN_MILLISECOND = 10000L;
+    //how much error rate weighs in score, error rate 0.1 doubles latency
+    private static final double ERROR_PENALTY = 10d;
+
+    private final ConcurrentHashMap<String, NodeHealth> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * Choose one from passin nodes with power of two choices: two nodes are picked at random, and the one with lower
+     * latency and error rate wins. Node with open circuit is skipped, unless circuits of all nodes are open. Probe of
+     * half open node is taken only when the node is chosen.
+     *
+     * @param addrs nodes to choose from, more than one
+     * @return index of node chosen
+     */
+    int choose(final Address[] addrs) {
+        return choose(addrs, System.currentTimeMillis());
+    }
+
+    int choose(final Address[] addrs, long now) {
+        final int size = addrs.length;
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int a = random.nextInt(size);
+        final int b = (a + 1 + random.nextInt(size - 1)) % size;
+        final NodeHealth ha = health(addrs[a]);
+        final NodeHealth hb = health(addrs[b]);
+        final boolean preferB = hb.state(now) != CircuitState.OPEN
+                && (ha.state(now) == CircuitState.OPEN || hb.score(now) < ha.score(now));
+        final int first = preferB ? b : a;
+        final int second = preferB ? a : b;
+        if ((preferB ? hb : ha).tryPass(now)) {
+            return first;
+        } else if ((preferB ? ha : hb).tryPass(now)) {
+            return second;
+        }
+        for (int i = 1; i < size; i++) {
+            int idx = (second + i) % size;
+            if (idx != first && health(addrs[idx]).tryPass(now)) {
+                return idx;
+            }
+        }
+        //all circuits are open, try anyway
+        return first;
+    }
+
+    void onSuccess(final Address addr, long latencyInNano) {
+        onSuccess(addr, latencyInNano, System.currentTimeMillis());
+    }
+
+    void onSuccess(final Address addr, long latencyInNano, long now) {
+        health(addr).onSuccess(latencyInNano, now);
+    }
+
+    void onFailure(final Address addr) {
+        onFailure(addr, System.currentTimeMillis());
+    }
+
+    void onFailure(final Address addr, long now) {
+        health(addr).onFailure(now);
+    }
+
+    CircuitState getCircuitState(final Address addr) {
+        return getCircuitState(addr, System.currentTimeMillis());
+    }
+
+    CircuitState getCircuitState(final Address addr, long now) {
+        return health(addr).state(now);
+    }
+
+    double getLatencyInNano(final Address addr) {
+        return getLatencyInNano(addr, System.currentTimeMillis());
+    }
+
+    double getLatencyInNano(final Address addr, long now) {
+        final NodeHealth health = health(addr);
+        return health.latency * health.decay(now);
+    }
+
+    double getErrorRate(final Address addr) {
+        return getErrorRate(addr, System.currentTimeMillis());
+    }
+
+    double getErrorRate(final Address addr, long now) {
+        final NodeHealth health = health(addr);
+        return health.errorRate * health.decay(now);
+    }
+
+    private NodeHealth health(final Address addr) {
+        final String key = addr.getHostAndPort();
+        NodeHealth health = nodes.get(key);
+        if (null == health) {
+            NodeHealth newHealth = new NodeHealth();
+            health = nodes.putIfAbsent(key, newHealth);
+            if (null == health) {
+                health = newHealth;
+            }
+        }
+        return health;
+    }
+
+    private static final class NodeHealth {
+        volatile double latency = 0d;
+        volatile double errorRate = 0d;
+        //time of last sample
+        volatile long updatedAt = 0L;
+        final AtomicInteger consecutiveFailures = new AtomicInteger(0);
+        //0 when circuit is closed
+        final AtomicLong openUntil = new AtomicLong(0L);
+
+        /**
+         * @return factor latency and error rate decay by since last sample
+         */
+        double decay(long now) {
+            final long elapsed = now - updatedAt;
+            return elapsed <= 0L ? 1d : Math.pow(0.5d, (double) elapsed / DECAY_HALF_LIFE_IN_MILLISECOND);
+        }
+
+        double score(long now) {
+            final double decay = decay(now);
+            return latency * decay * (1d + ERROR_PENALTY * errorRate * decay);
+        }
+
+        private void decayTo(long now) {
+            final double decay = decay(now);
+            if (decay < 1d) {
+                latency = latency * decay;
+                errorRate = errorRate * decay;
+            }
+            updatedAt = now;
+        }
+
+        /**
+         * @return {@link Boolean#TRUE} if circuit is closed, or it is half open and current caller takes the probe.
+         */
+        boolean tryPass(long now) {
+            final long until = openUntil.get();
+            if (until == 0L) {
+                return true;
+            }
+            if (now < until) {
+                return false;
+            }
+            //half open, one probe goes and others wait for another interval
+            return openUntil.compareAndSet(until, now + OPEN_INTERVAL_IN_MILLISECOND);
+        }
+
+        void onSuccess(long latencyInNano, long now) {
+            decayTo(now);
+            latency = latency == 0d ? latencyInNano : latency + ALPHA * (latencyInNano - latency);
+            errorRate = errorRate * (1d - ALPHA);
+            if (consecutiveFailures.get() != 0) {
+                consecutiveFailures.set(0);
+            }
+            if (openUntil.get() != 0L) {
+                openUntil.set(0L);
+            }
+        }
+
+        void onFailure(long now) {
+            decayTo(now);
+            errorRate = errorRate + ALPHA * (1d - errorRate);
+            if (consecutiveFailures.incrementAndGet() >= FAILURE_THRESHOLD) {
+                openUntil.set(now + OPEN_INTERVAL_IN_MILLISECOND);
+            }
+        }
+
+        CircuitState state(long now) {
+            final long until = openUntil.get();
+            if (until == 0L) {
+                return CircuitState.CLOSED;
+            }
+            return now < until ? CircuitState.OPEN : CircuitState.HALF_OPEN;
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.youzan.nsq.client.entity.NSQConfig;
 import com.youzan.nsq.client.entity.Topic;
 import com.youzan.nsq.client.exception.NSQException;
 import com.youzan.util.IOUtil;
+import io.netty.util.concurrent.Future;
 
 import java.io.Closeable;
 import java.util.List;
@@ -27,6 +28,8 @@ public interface Producer extends Client, Closeable {
     /**
      * start producer with specified topics for initializing associated nsq connection for later publish. the number of
      * nsq connection decided by min idle connection number, refer to {@link NSQConfig#getMinIdleConnectionForProducer()}
+     * Topics are looked up and connections initialized concurrently, refer to {@link NSQConfig#setWarmUpParallelism(int)}
+     * and {@link NSQConfig#setWarmUpTimeoutInMillisecond(long)}.
      * @param topics topics for initialize
      * @throws NSQException
      */
@@ -56,6 +59,17 @@ public interface Producer extends Client, Closeable {
      */
     MessageReceipt publishAndGetReceipt(Message message) throws NSQException;
 
+    /**
+     * publish message asynchronously. Caller thread is blocked only when acquiring nsqd connection, returned future
+     * completes with receipt as {@link #publishAndGetReceipt(Message)} returns, or fails with the {@link NSQException}
+     * it throws. Retries happen in publish worker pool, refer to {@link NSQConfig#setPublishWorkerPoolSize(int)}.
+     * Callbacks could be added via {@link Future#addListener(io.netty.util.concurrent.GenericFutureListener)}, which
+     * are invoked in netty IO thread or publish worker thread, so do not block in callbacks.
+     * @param message message to publish
+     * @return future of receipt
+     */
+    Future<MessageReceipt> publishAsync(Message message);
+
     /**
      * Use it to produce only one 'message' sending to MQ.
      * partition info is not specified in this function,
@@ -87,6 +101,20 @@ public interface Producer extends Client, Closeable {
      */
     List<byte[]> publishMulti(List<byte[]> messages, Topic topic, int batchSize) throws NSQException;
 
+    /**
+     * Publish batch messages to nsqd, and get result of each message. Messages are grouped by topic partition, which is
+     * located by sharding ID of message, if any, and split into MPUB batches of at most batchSize messages, and at most
+     * {@link NSQConfig#getPublishBatchBytes()} bytes of MPUB body. Batches are published concurrently, and each message
+     * gets receipt, or exception of batch it is published in. Blank message, or message published while producer is
+     * closing, gets its own exception, and is left out of batches.
+     * @param messages messages to publish, messages with json header extension, desired tag, or trace are published
+     *                 one by one.
+     * @param batchSize max number of messages in one MPUB
+     * @throws NSQException {@link NSQException} if interrupted
+     * @return result which maps index of each message passin to its receipt or exception
+     */
+    PublishMultiResult publishMultiAndGetResult(List<Message> messages, int batchSize) throws NSQException;
+
     /**
      * publish batch messages to nsqd. This function publish ALL messages to one target nsqd
      * in one MPUB command.
@@ -107,6 +135,15 @@ public interface Producer extends Client, Closeable {
      */
     void publishMulti(List<byte[]> messages, Topic topic) throws NSQException;
 
+    /**
+     * publish batch messages to nsqd asynchronously in one MPUB command, refer to {@link #publishAsync(Message)}.
+     *
+     * @param messages the client sets it that is be published
+     * @param topic    the specified topic name
+     * @return future of receipt
+     */
+    Future<MessageReceipt> publishMultiAsync(List<byte[]> messages, Topic topic);
+
     /**
      * Perform the action quietly. No exceptions.
      */
@@ -1,10 +1,13 @@
 package com.youzan.nsq.client;
 
 import com.youzan.nsq.client.configs.ConfigAccessAgent;
+import com.youzan.nsq.client.core.ClientRuntime;
+import com.youzan.nsq.client.core.ImmediatePromise;
 import com.youzan.nsq.client.core.LookupAddressUpdate;
 import com.youzan.nsq.client.core.NSQConnection;
 import com.youzan.nsq.client.core.NSQSimpleClient;
 import com.youzan.nsq.client.core.command.Pub;
+import com.youzan.nsq.client.core.pool.producer.ConnectionRing;
 import com.youzan.nsq.client.core.pool.producer.KeyedPooledConnectionFactory;
 import com.youzan.nsq.client.entity.*;
 import com.youzan.nsq.client.exception.*;
@@ -15,6 +18,10 @@ import com.youzan.util.HostUtil;
 import com.youzan.util.IOUtil;
 import com.youzan.util.NamedThreadFactory;
 import com.youzan.util.ProducerWorkerThreadFactory;
+import com.youzan.util.StripedCounter;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
 import org.slf4j.Logger;
@@ -24,7 +31,6 @@ import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -41,24 +47,46 @@ public class ProducerImplV2 implements Producer {
     private static final Logger PERF_LOG = LoggerFactory.getLogger(ProducerImplV2.class.getName() + ".perf");
 
     private static final int MAX_MSG_OUTPUT_LEN = 100;
-    private static final int NSQ_LEADER_NOT_READY_TIMEOUT = 100;
+    //context shared by publishes when performance logging is off, trace ID stays 0
+    private static final Context NO_TRACE_CONTEXT = new Context();
 
     private AtomicBoolean started = new AtomicBoolean(Boolean.FALSE);
     private AtomicBoolean closing = new AtomicBoolean(Boolean.FALSE);
+    //set in close after batches in accumulator are sent, asynchronous publish attempts afterwards fail
+    private volatile boolean drained = false;
+    //asynchronous publishes waiting in scheduler or publish worker pool for retry, failed when producer closes
+    private final Set<AsyncPub> retrying = Collections.newSetFromMap(new ConcurrentHashMap<AsyncPub, Boolean>());
 
-    private volatile int offset = 0;
     private final GenericKeyedObjectPoolConfig poolConfig;
     private final KeyedPooledConnectionFactory factory;
     private GenericKeyedObjectPool<Address, NSQConnection> bigPool = null;
-    private final ScheduledExecutorService scheduler = Executors
-            .newSingleThreadScheduledExecutor(new ProducerWorkerThreadFactory(this.getClass().getName(), Thread.NORM_PRIORITY));
+    //connections shared by publishers when connection is pipelined, in place of bigPool
+    private ConnectionRing ring = null;
+    private final ScheduledExecutorService scheduler;
+    private volatile ScheduledFuture<?> cleanerFuture;
 
     private final ExecutorService pubExec;
+    //shared runtime which scheduler and publish executor belong to, null if they are owned by producer
+    private final ClientRuntime runtime;
+    private final PubAccumulator accumulator;
+    private final RetryBackoff retryBackoff;
+    private final NSQdHealthTracker nodeHealth = new NSQdHealthTracker();
+    //journal of failed publishes, null if spill is off
+    private PubSpillJournal spillJournal = null;
+    private volatile WarmUpReport warmUpReport = null;
+    //bound of messages held in asynchronous and batched publish, null if unbounded
+    private final SendBuffer sendBuffer;
+
+    //message size and body size in MPUB
+    private static final int MPUB_MSG_OVERHEAD = 4;
 
     private final ConcurrentHashMap<String, Long> topic_2_lastActiveTime = new ConcurrentHashMap<>();
+    //topic activity stamp is refreshed at most once in granularity, which is far less than topic expiration
+    private static final long ACTIVITY_STAMP_GRANULARITY_IN_MILLISECOND = 1000L;
 
-    private final AtomicInteger success = new AtomicInteger(0);
-    private final AtomicInteger total = new AtomicInteger(0);
+    //striped counters, which publishers of one topic do not contend on
+    private final StripedCounter success = new StripedCounter();
+    private final StripedCounter total = new StripedCounter();
     private final AtomicLong pubTraceIdGen = new AtomicLong(0);
 
     private final NSQConfig config;
@@ -72,7 +100,23 @@ public class ProducerImplV2 implements Producer {
 
         this.poolConfig = new GenericKeyedObjectPoolConfig();
         this.factory = new KeyedPooledConnectionFactory(this.config, this);
-        this.pubExec = Executors.newFixedThreadPool(this.config.getPublishWorkerPoolSize(), new NamedThreadFactory(this.getClass().getName() + "-pubExec", Thread.NORM_PRIORITY));
+        this.retryBackoff = new RetryBackoff(this.config);
+        if (this.config.isUseSharedRuntime()) {
+            this.runtime = ClientRuntime.acquire(this.config);
+            this.scheduler = this.runtime.getScheduler();
+            this.pubExec = this.runtime.getJobExecutor();
+        } else {
+            this.runtime = null;
+            this.scheduler = Executors
+                    .newSingleThreadScheduledExecutor(new ProducerWorkerThreadFactory(this.getClass().getName(), Thread.NORM_PRIORITY));
+            this.pubExec = Executors.newFixedThreadPool(this.config.getPublishWorkerPoolSize(), new NamedThreadFactory(this.getClass().getName() + "-pubExec", Thread.NORM_PRIORITY));
+        }
+        if (this.config.isPublishBatchEnabled()) {
+            this.accumulator = new PubAccumulator(this, this.config, this.scheduler, this.pubExec);
+        } else {
+            this.accumulator = null;
+        }
+        this.sendBuffer = this.config.isPublishSendBufferEnabled() ? new SendBuffer(this.config, this.factory.getEventLoopGroup()) : null;
     }
 
     public NSQConfig getConfig() {
@@ -128,7 +172,7 @@ public class ProducerImplV2 implements Producer {
                     long now = System.currentTimeMillis();
                     simpleClient.removeTopics(expiredTopicsMap.keySet());
                     logger.info("Expired {} topic resource cleaner exits in {} milliSec.", expiredTopicsMap.size(), System.currentTimeMillis() - now);
-                    logger.info("Publish. Total: {} , Success: {}.", total.get(), success.get());
+                    logger.info("Publish. Total: {} , Success: {}, Send buffer messages: {}, bytes: {}.", total.value(), success.value(), getSendBufferCount(), getSendBufferBytes());
                 } finally {
                     for (Map.Entry<String, Long> pair : expiredTopicsMap.entrySet()) {
                         topic_2_lastActiveTime.remove(pair.getKey(), pair.getValue());
@@ -143,6 +187,17 @@ public class ProducerImplV2 implements Producer {
 
     private final ExpiredTopicCleaner EXPIRED_TOPIC_CLEANER = new ExpiredTopicCleaner();
 
+    /**
+     * mark topic active at pass in time. Stamp is written only when it is older than granularity, so that publishers
+     * of one topic mostly read the stamp, instead of writing it on every publish.
+     */
+    private void touchTopic(final String topic, long now) {
+        final Long last = topic_2_lastActiveTime.get(topic);
+        if (null == last || now - last >= ACTIVITY_STAMP_GRANULARITY_IN_MILLISECOND) {
+            topic_2_lastActiveTime.put(topic, now);
+        }
+    }
+
     public ExpiredTopicCleaner getTopicExpirationCleaner() {
         return this.EXPIRED_TOPIC_CLEANER;
     }
@@ -151,32 +206,137 @@ public class ProducerImplV2 implements Producer {
     public void start(String... topics) throws NSQException {
         this.start();
         if(null != topics && topics.length > 0) {
-            Set<Address> nsqdAddrs = new HashSet<>();
-            Object[] noSharding = new Object[]{Message.NO_SHARDING};
-            logger.info("start initializing connections for {}", topics);
-            for (String topic : topics) {
-                try {
-                    this.simpleClient.putTopic(topic);
-                    nsqdAddrs.addAll(
-                            Arrays.asList(
-                                    this.simpleClient.getPartitionNodes(new Topic(topic), noSharding, true)
-                            )
-                    );
-                } catch (InterruptedException e) {
-                    logger.error("error waiting for topic 2 partition info updating.");
-                    Thread.currentThread().interrupt();
-                }
-            }
-            logger.info("total {} addresses to initialize");
-            for(Address addr : nsqdAddrs)
-                try {
-                    this.bigPool.preparePool(addr);
-                } catch (Exception e) {
-                    logger.error("fail to initialize connection to {}", addr);
+            warmUp(topics);
+        }
+    }
+
+    /**
+     * look up topics and prepare connections to nsqd of them, concurrently in at most
+     * {@link NSQConfig#getWarmUpParallelism()} threads, or in job pool of shared runtime, till
+     * {@link NSQConfig#getWarmUpTimeoutInMillisecond()} passes.
+     * Lookup exception of topic is thrown after warm up, as it was when topics were looked up one by one.
+     */
+    private void warmUp(final String[] topics) throws NSQException {
+        final WarmUpReport report = new WarmUpReport();
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.config.getWarmUpTimeoutInMillisecond());
+        final int connectionsBefore = this.factory.getConnectionsCreated();
+        final long connectNanosBefore = this.factory.getConnectNanos();
+        final long identifyNanosBefore = this.factory.getIdentifyNanos();
+        final Set<Address> nsqdAddrs = Collections.newSetFromMap(new ConcurrentHashMap<Address, Boolean>());
+        final Object[] noSharding = new Object[]{Message.NO_SHARDING};
+        final ExecutorService warmUpExec = null != this.runtime ? this.runtime.getJobExecutor() : Executors.newFixedThreadPool(this.config.getWarmUpParallelism(),
+                new NamedThreadFactory(this.getClass().getName() + "-warmUp", Thread.NORM_PRIORITY));
+        NSQException lookupException = null;
+        logger.info("start initializing connections for {} topics", topics.length);
+        try {
+            final List<Future<?>> lookups = new ArrayList<>(topics.length);
+            for (final String topic : topics) {
+                lookups.add(warmUpExec.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        simpleClient.putTopic(topic);
+                        nsqdAddrs.addAll(Arrays.asList(simpleClient.getPartitionNodes(new Topic(topic), noSharding, true)));
+                        return null;
+                    }
+                }));
+            }
+            final Throwable[] lookupFailures = awaitWarmUp(lookups, deadline);
+            int topicsFailed = 0;
+            for (int i = 0; i < topics.length; i++) {
+                if (null == lookupFailures[i]) {
+                    continue;
+                }
+                topicsFailed++;
+                logger.error("fail to look up topic {} in warm up. {}", topics[i], lookupFailures[i].toString());
+                if (null == lookupException && lookupFailures[i] instanceof NSQException) {
+                    lookupException = (NSQException) lookupFailures[i];
                 }
+                report.setTimedOut(report.isTimedOut() || lookupFailures[i] instanceof TimeoutException);
+            }
+            report.setTopics(topics.length);
+            report.setTopicsFailed(topicsFailed);
+            final long prepareStart = System.nanoTime();
+            report.setLookupMillis(TimeUnit.NANOSECONDS.toMillis(prepareStart - start));
+
+            final List<Address> addrs = new ArrayList<>(nsqdAddrs);
+            logger.info("total {} addresses to initialize", addrs.size());
+            final List<Future<?>> prepares = new ArrayList<>(addrs.size());
+            for (final Address addr : addrs) {
+                prepares.add(warmUpExec.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        if (null != ring) {
+                            ring.prepare(addr);
+                        } else {
+                            bigPool.preparePool(addr);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            final Throwable[] prepareFailures = awaitWarmUp(prepares, deadline);
+            int addressesFailed = 0;
+            for (int i = 0; i < addrs.size(); i++) {
+                if (null == prepareFailures[i]) {
+                    continue;
+                }
+                addressesFailed++;
+                logger.error("fail to initialize connection to {}. {}", addrs.get(i), prepareFailures[i].toString());
+                report.setTimedOut(report.isTimedOut() || prepareFailures[i] instanceof TimeoutException);
+            }
+            report.setAddresses(addrs.size());
+            report.setAddressesFailed(addressesFailed);
+            report.setPrepareMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - prepareStart));
+        } finally {
+            if (null == this.runtime) {
+                warmUpExec.shutdownNow();
+            }
+        }
+        report.setConnections(this.factory.getConnectionsCreated() - connectionsBefore);
+        report.setConnectMillis(TimeUnit.NANOSECONDS.toMillis(this.factory.getConnectNanos() - connectNanosBefore));
+        report.setIdentifyMillis(TimeUnit.NANOSECONDS.toMillis(this.factory.getIdentifyNanos() - identifyNanosBefore));
+        report.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        this.warmUpReport = report;
+        logger.info("Producer warm up done. {}", report);
+        if (null != lookupException) {
+            throw lookupException;
         }
     }
 
+    /**
+     * wait for warm up tasks till deadline.
+     *
+     * @return failure of each task, null if task succeeds, {@link TimeoutException} if it does not complete before
+     * deadline.
+     */
+    private static Throwable[] awaitWarmUp(final List<Future<?>> futures, long deadline) {
+        final Throwable[] failures = new Throwable[futures.size()];
+        for (int i = 0; i < futures.size(); i++) {
+            final Future<?> future = futures.get(i);
+            try {
+                future.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                failures[i] = e.getCause();
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                failures[i] = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                failures[i] = e;
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * @return report of warm up in last {@link #start(String...)}, or null if producer is started without topics.
+     */
+    public WarmUpReport getWarmUpReport() {
+        return this.warmUpReport;
+    }
+
     @Override
     public void start() throws NSQException {
         if (started.compareAndSet(Boolean.FALSE, Boolean.TRUE)) {
@@ -186,47 +346,74 @@ public class ProducerImplV2 implements Producer {
                 throw new IllegalArgumentException("Producer could not start with invalid lookupd address sources.");
             }
 
-            // setting all of the configs
-            this.offset = _r.nextInt(100);
-
-            this.poolConfig.setLifo(false);
-            //set fairness true, for blocked thread try borrowing connection
-            this.poolConfig.setFairness(true);
-            this.poolConfig.setTestOnBorrow(false);
-            this.poolConfig.setTestOnReturn(false);
-            //If testWhileIdle is true, during idle eviction, examined objects are validated when visited (and removed if invalid);
-            //otherwise only objects that have been idle for more than minEvicableIdleTimeMillis are removed.
-            this.poolConfig.setTestWhileIdle(true);
-            this.poolConfig.setJmxEnabled(true);
-            //connection need being validated after idle time, default to 60 * heartbeat interval in millisec
-            this.poolConfig.setMinEvictableIdleTimeMillis(30 * config.getHeartbeatIntervalInMillisecond());
-            //number of milliseconds to sleep between runs of the idle object evictor thread
-            this.poolConfig.setTimeBetweenEvictionRunsMillis(config.getProducerConnectionEvictIntervalInMillSec());
-            this.poolConfig.setMinIdlePerKey(this.config.getMinIdleConnectionForProducer());
-            this.poolConfig.setMaxIdlePerKey(this.config.getConnectionSize());
-            this.poolConfig.setMaxTotalPerKey(this.config.getConnectionSize());
-            // acquire connection waiting time
-            this.poolConfig.setBlockWhenExhausted(this.config.getBlockWhenBorrowConn4Producer());
-            this.poolConfig.setMaxWaitMillis(this.config.getConnWaitTimeoutForProducerInMilliSec());
-            // new instance without performing to connect
-            this.bigPool = new GenericKeyedObjectPool<>(this.factory, this.poolConfig);
+            if (this.config.isPublishSpillEnabled()) {
+                try {
+                    this.spillJournal = new PubSpillJournal(this, this.config, null != this.runtime ? this.scheduler : null);
+                } catch (IOException e) {
+                    started.set(Boolean.FALSE);
+                    throw new NSQException("Fail to open publish spill journal in " + this.config.getPublishSpillDirectory(), e);
+                }
+            }
+            if (this.config.isPipelined()) {
+                //connections are shared in ring, pool is not created
+                this.ring = new ConnectionRing(this.factory, this.config, null != this.runtime ? this.scheduler : null);
+            } else {
+                this.bigPool = createPool();
+            }
             if (this.config.getUserSpecifiedLookupAddress()) {
                 LookupAddressUpdate.getInstance().setUpDefaultSeedLookupConfig(this.simpleClient.getLookupLocalID(), this.config.getLookupAddresses());
             }
             //simple client starts and LookupAddressUpdate instance initialized there.
             this.simpleClient.start();
-            scheduler.scheduleAtFixedRate(EXPIRED_TOPIC_CLEANER, 30, 30, TimeUnit.MINUTES);
+            cleanerFuture = scheduler.scheduleAtFixedRate(EXPIRED_TOPIC_CLEANER, 30, 30, TimeUnit.MINUTES);
             logger.info("The producer {} has been started.", this);
         }
     }
 
+    private GenericKeyedObjectPool<Address, NSQConnection> createPool() {
+        // setting all of the configs
+        this.poolConfig.setLifo(false);
+        //set fairness true, for blocked thread try borrowing connection
+        this.poolConfig.setFairness(true);
+        this.poolConfig.setTestOnBorrow(false);
+        this.poolConfig.setTestOnReturn(false);
+        //If testWhileIdle is true, during idle eviction, examined objects are validated when visited (and removed if invalid);
+        //otherwise only objects that have been idle for more than minEvicableIdleTimeMillis are removed.
+        this.poolConfig.setTestWhileIdle(true);
+        this.poolConfig.setJmxEnabled(true);
+        //connection need being validated after idle time, default to 60 * heartbeat interval in millisec
+        this.poolConfig.setMinEvictableIdleTimeMillis(30 * config.getHeartbeatIntervalInMillisecond());
+        //number of milliseconds to sleep between runs of the idle object evictor thread
+        this.poolConfig.setTimeBetweenEvictionRunsMillis(config.getProducerConnectionEvictIntervalInMillSec());
+        this.poolConfig.setMinIdlePerKey(this.config.getMinIdleConnectionForProducer());
+        this.poolConfig.setMaxIdlePerKey(this.config.getConnectionSize());
+        this.poolConfig.setMaxTotalPerKey(this.config.getConnectionSize());
+        // acquire connection waiting time
+        this.poolConfig.setBlockWhenExhausted(this.config.getBlockWhenBorrowConn4Producer());
+        this.poolConfig.setMaxWaitMillis(this.config.getConnWaitTimeoutForProducerInMilliSec());
+        // new instance without performing to connect
+        return new GenericKeyedObjectPool<>(this.factory, this.poolConfig);
+    }
+
+    /**
+     * @return pool of connections of producer, null if connections are pipelined in {@link #getConnectionRing()}.
+     */
     public GenericKeyedObjectPool<Address, NSQConnection> getConnectionPool() {
         return this.bigPool;
     }
 
+    /**
+     * @return connection ring of producer with pipelined connections, null if connections are pooled.
+     */
+    public ConnectionRing getConnectionRing() {
+        return this.ring;
+    }
+
     /**
      * Get a nsqd connection for passin topic. This function first queries simple client with passin topic for partition
-     * info or nsqd producer info, then borrows nsqd connection from connection pool.
+     * info or nsqd producer info, then borrows nsqd connection from connection pool, or picks a shared one from
+     * connection ring when connection is pipelined. When message could go to more than one nsqd, first nsqd to try is
+     * chosen by health of nsqd, and the others are tried in turn if connection fails.
      *
      * @param topic a topic name
      * @param topicShardingID topic sharding ID
@@ -237,7 +424,7 @@ public class ProducerImplV2 implements Producer {
     protected NSQConnection getNSQConnection(Topic topic, Object topicShardingID, final Context cxt) throws NSQException {
         Address[] partitonAddrs;
         try {
-            partitonAddrs = simpleClient.getPartitionNodes(topic, new Object[]{topicShardingID}, true);
+            partitonAddrs = simpleClient.getPartitionNodesToWrite(topic, topicShardingID);
         } catch (InterruptedException e) {
             logger.warn("Thread interrupted waiting for partition selector update, Topic {}. Ignore if SDK is shutting down.", topic.getTopicText());
             Thread.currentThread().interrupt();
@@ -247,15 +434,16 @@ public class ProducerImplV2 implements Producer {
             return null;
         }
         final int size = partitonAddrs.length;
-        int c = 0, index = (this.offset++);
+        int c = 0, index = size > 1 ? nodeHealth.choose(partitonAddrs) : 0;
         while (c < size) {
             // current broker | next broker when have a try again
             final int effectedIndex = (index++ & Integer.MAX_VALUE) % size;
             final Address address = partitonAddrs[effectedIndex];
             long borrowConnStart = System.currentTimeMillis();
             try {
-                return bigPool.borrowObject(address);
+                return null != ring ? ring.acquire(address) : bigPool.borrowObject(address);
             } catch (NSQNoConnectionException badConn){
+                nodeHealth.onFailure(address);
                 logger.error("Fail to create connection. DataNode Size: {} , CurrentRetries: {} , Address: {} , Exception:", size, c, address, badConn);
                 if (c >= size) {
                     logger.info("Connection pool tries out of nsqd addresses.");
@@ -300,13 +488,21 @@ public class ProducerImplV2 implements Producer {
         this.publishAndGetReceipt(message);
     }
 
-    @Override
-    public MessageReceipt publishAndGetReceipt(final Message message) throws NSQException {
-        final Context cxt = new Context();
-        if(PERF_LOG.isDebugEnabled()) {
-            cxt.setTraceID(pubTraceIdGen.getAndIncrement());
+    /**
+     * @return context with trace ID for performance logging, or shared context without trace ID when performance
+     * logging is off.
+     */
+    private Context newContext() {
+        if(!PERF_LOG.isDebugEnabled()) {
+            return NO_TRACE_CONTEXT;
         }
-        if (message == null || message.getMessageBody().isEmpty()) {
+        final Context cxt = new Context();
+        cxt.setTraceID(pubTraceIdGen.getAndIncrement());
+        return cxt;
+    }
+
+    private void checkPublishable(final Message message) {
+        if (message == null || isBlank(message)) {
             throw new IllegalArgumentException("Your input message is blank! Please check it!");
         }
         Topic topic = message.getTopic();
@@ -316,17 +512,224 @@ public class ProducerImplV2 implements Producer {
         if (!started.get() || closing.get()) {
             throw new IllegalStateException("Producer must be started before producing messages!");
         }
-        total.incrementAndGet();
+    }
 
-        try{
-            //TODO: poll before timeout
-            return sendPUB(message, cxt);
-        }catch (NSQPubException pubE){
-            logger.error(pubE.getLocalizedMessage());
-            pubE.punchExceptions(logger);
-            List<? extends NSQException> exceptions = pubE.getNestedExceptions();
-            throw exceptions.get(exceptions.size() - 1);
+    /**
+     * check message body in bytes, rather than decoding it.
+     */
+    private static boolean isBlank(final Message message) {
+        final byte[] body = message.getMessageBodyInByte();
+        return null == body ? message.getMessageCount() == 0 : body.length == 0;
+    }
+
+    @Override
+    public MessageReceipt publishAndGetReceipt(final Message message) throws NSQException {
+        final Context cxt = newContext();
+        checkPublishable(message);
+        total.increment();
+
+        try {
+            if (null != accumulator && isBatchable(message)) {
+                return waitForReceipt(publishBuffered(message, cxt));
+            }
+            try{
+                //TODO: poll before timeout
+                return sendPUB(message, cxt);
+            }catch (NSQPubException pubE){
+                logger.error(pubE.getLocalizedMessage());
+                pubE.punchExceptions(logger);
+                List<? extends NSQException> exceptions = pubE.getNestedExceptions();
+                throw exceptions.get(exceptions.size() - 1);
+            }
+        } catch (NSQException e) {
+            MessageReceipt receipt = spill(message, e);
+            if (null == receipt) {
+                throw e;
+            }
+            return receipt;
+        }
+    }
+
+    @Override
+    public io.netty.util.concurrent.Future<MessageReceipt> publishAsync(final Message message) {
+        final Context cxt = newContext();
+        checkPublishable(message);
+        total.increment();
+        return publishAsync(message, cxt);
+    }
+
+    private io.netty.util.concurrent.Future<MessageReceipt> publishAsync(final Message message, final Context cxt) {
+        final io.netty.util.concurrent.Future<MessageReceipt> future = publishBuffered(message, cxt);
+        if (null == spillJournal || !isSpillable(message)) {
+            return future;
+        }
+        final Promise<MessageReceipt> promise = new ImmediatePromise<>();
+        future.addListener(new FutureListener<MessageReceipt>() {
+            @Override
+            public void operationComplete(io.netty.util.concurrent.Future<MessageReceipt> future) throws Exception {
+                if (future.isSuccess()) {
+                    promise.trySuccess(future.getNow());
+                    return;
+                }
+                MessageReceipt receipt = spill(message, future.cause());
+                if (null == receipt) {
+                    promise.tryFailure(future.cause());
+                } else {
+                    promise.trySuccess(receipt);
+                }
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * message which could be replayed in MPUB as it is, is spilled. Partition of message topic is not checked, as it is
+     * written back by publish.
+     */
+    private boolean isSpillable(final Message message) {
+        return message.getTopicShardingId() == Message.NO_SHARDING && isBatchable(message);
+    }
+
+    /**
+     * append message failed to publish to spill journal, if journal is on, and failure is caused by nsqd or lookupd
+     * which is not available, rather than message or topic itself.
+     *
+     * @return receipt of message spilled, or null if message is not spilled.
+     */
+    private MessageReceipt spill(final Message message, final Throwable cause) {
+        if (null == spillJournal || !isSpillable(message) || !(cause instanceof NSQException)
+                || cause instanceof NSQInvalidMessageException || cause instanceof NSQInvalidTopicException
+                || cause instanceof NSQTopicNotFoundException || cause instanceof NSQSeedLookupConfigNotFoundException
+                || cause instanceof NSQTagException || cause instanceof NSQTopicNotExtendableException
+                || cause instanceof NSQExtNotSupportedException || cause instanceof NSQPubFactoryInitializeException
+                || cause instanceof NSQSendBufferFullException) {
+            return null;
+        }
+        if (!spillJournal.append(message)) {
+            return null;
+        }
+        logger.warn("Message to {} spilled to journal, as publish fails. {}", message.getTopic().getTopicText(), cause.getMessage());
+        MessageReceipt receipt = new MessageReceipt();
+        receipt.setTopicName(message.getTopic().getTopicText());
+        receipt.setPartition(-1);
+        receipt.setSpilled(true);
+        return receipt;
+    }
+
+    /**
+     * publish message asynchronously, in batch if it is batchable, after it takes room in send buffer.
+     */
+    private io.netty.util.concurrent.Future<MessageReceipt> publishBuffered(final Message message, final Context cxt) {
+        final Promise<MessageReceipt> promise;
+        if (null == sendBuffer) {
+            promise = new ImmediatePromise<>();
+        } else {
+            try {
+                promise = sendBuffer.acquire(message);
+            } catch (NSQException e) {
+                return ImmediateEventExecutor.INSTANCE.newFailedFuture(e);
+            }
+        }
+        if (null != accumulator && isBatchable(message)) {
+            appendToBatch(message, cxt, promise);
+        } else {
+            sendPUBAsync(message, cxt, promise);
         }
+        return promise;
+    }
+
+    /**
+     * @return number of messages held in send buffer, or 0 if send buffer is unbounded.
+     */
+    public int getSendBufferCount() {
+        return null == sendBuffer ? 0 : sendBuffer.getCount();
+    }
+
+    /**
+     * @return bytes of messages held in send buffer, or 0 if send buffer is unbounded.
+     */
+    public long getSendBufferBytes() {
+        return null == sendBuffer ? 0L : sendBuffer.getBytes();
+    }
+
+    private void appendToBatch(final Message message, final Context cxt, final Promise<MessageReceipt> promise) {
+        try {
+            accumulator.append(message, shardingPartition(message), promise);
+            return;
+        } catch (NSQException e) {
+            logger.info("Fail to locate partition of {} for batch, publish it directly. {}", message.getTopic(), e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.info("Interrupted locating partition of {} for batch, publish it directly.", message.getTopic());
+        }
+        sendPUBAsync(message, cxt, promise);
+    }
+
+    io.netty.util.concurrent.Future<MessageReceipt> sendPUBAsync(final Message message) {
+        final Promise<MessageReceipt> promise = new ImmediatePromise<>();
+        sendPUBAsync(message, newContext(), promise);
+        return promise;
+    }
+
+    private void sendPUBAsync(final Message message, final Context cxt, final Promise<MessageReceipt> promise) {
+        new AsyncPub(message, cxt, promise).run();
+    }
+
+    /**
+     * message with PUB_EXT or PUB_TRACE features, or body to encode with payload codec, is not batched in MPUB
+     */
+    private boolean isBatchable(final Message message) {
+        if (message instanceof MessagesWrapper || message.isTraced() || null != message.getJsonHeaderExt()
+                || (null != message.getDesiredTag() && !message.getDesiredTag().isEmpty())
+                || null != this.config.getPayloadCodec(message.getTopic().getTopicText(), message.getMessageBodyInByte().length)) {
+            return false;
+        }
+        try {
+            return !PubCmdFactory.getInstance(!this.config.getUserSpecifiedLookupAddress()).isTracedMessage(this.config, message);
+        } catch (NSQPubFactoryInitializeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return partition message with sharding ID is published to, or -1 if message has no sharding ID or topic is not
+     * partitioned.
+     */
+    int shardingPartition(final Message message) throws NSQException, InterruptedException {
+        if (message.getTopicShardingId() == Message.NO_SHARDING) {
+            return -1;
+        }
+        this.simpleClient.putTopic(message.getTopic().getTopicText());
+        Address[] addrs = this.simpleClient.getPartitionNodesToWrite(message.getTopic(), message.getTopicShardingId());
+        if (null == addrs || addrs.length != 1) {
+            throw new NSQDataNodesDownException("Could not locate partition for " + message.getTopic());
+        }
+        return addrs[0].getPartition();
+    }
+
+    /**
+     * wait for receipt of publish, no longer than linger, query timeout of each attempt and retry budget in total.
+     */
+    private MessageReceipt waitForReceipt(final io.netty.util.concurrent.Future<MessageReceipt> future) throws NSQException {
+        final long timeout = this.config.getPublishBatchLingerInMillisecond()
+                + (long) this.config.getQueryTimeoutInMillisecond() * Math.max(1, this.config.getPublishRetry())
+                + this.config.getPublishRetryBudgetInMilliSeconds();
+        try {
+            if (!future.await(timeout, TimeUnit.MILLISECONDS)) {
+                throw new NSQTimeoutException(new TimeoutException("No publish receipt in " + timeout + " milliSec."));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NSQException("Interrupted waiting for publish receipt.", e);
+        }
+        if (future.isSuccess()) {
+            return future.getNow();
+        }
+        Throwable cause = future.cause();
+        if (cause instanceof NSQException) {
+            throw (NSQException) cause;
+        }
+        throw new NSQException(cause);
     }
 
     @Override
@@ -356,90 +759,130 @@ public class ProducerImplV2 implements Producer {
         publish(msg);
     }
 
-    private class MpubCallable implements Callable<List> {
-        private final Producer producer;
-        private final List<byte[]> msgs;
-        private final Topic topic;
-
-        public MpubCallable(Producer producer, List<byte[]> messages, Topic topic) {
-            this.producer = producer;
-            this.msgs = messages;
-            this.topic = topic;
+    public List<byte[]> publishMulti(List<byte[]> messages, Topic topic, int batchSize) throws NSQException {
+        final List<byte[]> failedTotalMsgs = new LinkedList<>();
+        if (messages.isEmpty()) {
+            return failedTotalMsgs;
+        }
+        final List<Message> msgs = new ArrayList<>(messages.size());
+        for (byte[] body : messages) {
+            msgs.add(Message.create(topic, body));
         }
+        final PublishMultiResult result = publishMultiAndGetResult(msgs, batchSize);
+        for (int idx : result.getFailedIndexes()) {
+            failedTotalMsgs.add(messages.get(idx));
+        }
+        return failedTotalMsgs;
+    }
 
-        @Override
-        public List call() throws Exception {
-            List<byte[]> failed = null;
+    @Override
+    public PublishMultiResult publishMultiAndGetResult(final List<Message> messages, int batchSize) throws NSQException {
+        if (null == messages || messages.isEmpty()) {
+            throw new IllegalArgumentException("Publish multi exits as messages input is empty.");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("SDK does not accept batch size which smaller than 1.");
+        }
+        total.add(messages.size());
+        final PublishMultiResult result = new PublishMultiResult(messages.size());
+        //indexes of messages per topic partition, in order passin
+        final Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        final List<List<Integer>> batches = new ArrayList<>();
+        for (int idx = 0; idx < messages.size(); idx++) {
+            final Message message = messages.get(idx);
             try {
-                this.producer.publishMulti(this.msgs, this.topic);
-            }catch (Throwable e) {
-                failed = this.msgs;
+                checkPublishable(message);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                //invalid message fails alone, as producer closing fails each message
+                result.setException(idx, new NSQException(e.getMessage(), e));
+                continue;
+            }
+            if (!isBatchable(message)) {
+                batches.add(Collections.singletonList(idx));
+                continue;
             }
-            return failed;
+            final String key;
+            try {
+                //partition of message topic is written back by last publish, it is not where message goes
+                key = message.getTopic().getTopicText() + "#" + shardingPartition(message);
+            } catch (NSQException e) {
+                result.setException(idx, e);
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NSQException("Interrupted locating partition of " + message.getTopic(), e);
+            }
+            List<Integer> group = groups.get(key);
+            if (null == group) {
+                group = new ArrayList<>();
+                groups.put(key, group);
+            }
+            group.add(idx);
+        }
+        for (List<Integer> group : groups.values()) {
+            splitBatches(messages, group, batchSize, batches);
         }
-    }
 
-    public List<byte[]> publishMulti(List<byte[]> messages, Topic topic, int batchSize) throws NSQException {
-        int batchNum = messages.size()/batchSize;
-        int leftOver = messages.size()%batchSize;
-
-        int idx = 0;
-        List<Future<List>> pubFutures = new ArrayList<>(batchNum);
-        for(int batch = 0; batch < batchNum; batch++) {
-            final List<byte[]> subMsgs = messages.subList(idx, idx + batchSize);
-            idx += batchSize;
-            Future<List> future = pubExec.submit(new MpubCallable(this, subMsgs, topic));
-            pubFutures.add(future);
-        }
-        //for leftOver
-        if(leftOver != 0) {
-            final List<byte[]> subMsgs = messages.subList(idx, idx + leftOver);
-            Future<List> future = pubExec.submit(new MpubCallable(this, subMsgs, topic));
-            pubFutures.add(future);
-        }
-
-        List<byte[]> failedTotalMsgs = new LinkedList<>();
-        int batchIdx = -1;
-        for(Future<List> future:pubFutures) {
-            batchIdx++;
-            List<byte[]> failedBatchMsgs = null;
-            int idxStar=0, idxEnd=0;
+        final List<io.netty.util.concurrent.Future<MessageReceipt>> futures = new ArrayList<>(batches.size());
+        for (List<Integer> batch : batches) {
+            futures.add(sendPUBAsync(batchMessage(messages, batch)));
+        }
+        for (int i = 0; i < batches.size(); i++) {
+            final List<Integer> batch = batches.get(i);
             try {
-                failedBatchMsgs = future.get();
-            } catch (Exception e) {
-                //figure out failed message from batch index
-                if(batchIdx < batchNum) {
-                    idxStar = batchIdx*batchSize;
-                    idxEnd = batchIdx*batchSize + batchSize;
-                } else {
-                    //for leftover
-                    idxStar = idx;
-                    idxEnd = idx + leftOver;
+                final MessageReceipt batchReceipt = waitForReceipt(futures.get(i));
+                if (batch.size() == 1) {
+                    result.setReceipt(batch.get(0), batchReceipt);
+                    continue;
                 }
-                failedBatchMsgs = messages.subList(idxStar, idxEnd);
-            }
-            //calculate batch index, succeed or fail
-            if(idxStar == 0 && idxEnd == 0) {
-                if(batchIdx < batchNum) {
-                    idxStar = batchIdx*batchSize;
-                    idxEnd = batchIdx*batchSize + batchSize;
-                } else {
-                    //for leftover
-                    idxStar = idx;
-                    idxEnd = idx + leftOver;
+                for (int idx : batch) {
+                    MessageReceipt receipt = new MessageReceipt();
+                    receipt.setNsqdAddr(batchReceipt.getNsqdAddr());
+                    receipt.setTopicName(batchReceipt.getTopicName());
+                    receipt.setPartition(batchReceipt.getPartition());
+                    result.setReceipt(idx, receipt);
+                }
+            } catch (NSQException e) {
+                logger.error("Fail to send batch of {} messages to {}, message idx from {}. {}", batch.size(), messages.get(batch.get(0)).getTopic(), batch.get(0), e.getMessage());
+                for (int idx : batch) {
+                    result.setException(idx, e);
                 }
             }
+        }
+        return result;
+    }
 
-            if(null != failedBatchMsgs && failedBatchMsgs.size() > 0) {
-                failedTotalMsgs.addAll(failedBatchMsgs);
-                logger.error("fail to send batch message to {}. batchSize {}, batchIdx {}, message idx range [{}, {})", topic.getTopicText(), batchSize, batchIdx, idxStar, idxEnd);
-            } else {
-                //batch publish succeed
-                if(logger.isDebugEnabled())
-                    logger.info("batch message sent to {}. batchSize {}, batchIdx {}, message idx range [{}, {})", topic.getTopicText(), batchSize, batchIdx, idxStar, idxEnd);
+    /**
+     * split messages of one topic partition into batches, each of which has at most batchSize messages, and MPUB body
+     * no larger than {@link NSQConfig#getPublishBatchBytes()}, unless it has only one message.
+     */
+    private void splitBatches(final List<Message> messages, final List<Integer> group, int batchSize, final List<List<Integer>> batches) {
+        final int maxBytes = this.config.getPublishBatchBytes();
+        List<Integer> batch = new ArrayList<>();
+        int bytes = MPUB_MSG_OVERHEAD;
+        for (int idx : group) {
+            final int size = MPUB_MSG_OVERHEAD + messages.get(idx).getMessageBodyInByte().length;
+            if (!batch.isEmpty() && (batch.size() >= batchSize || bytes + size > maxBytes)) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                bytes = MPUB_MSG_OVERHEAD;
             }
+            batch.add(idx);
+            bytes += size;
         }
-        return failedTotalMsgs;
+        batches.add(batch);
+    }
+
+    private static Message batchMessage(final List<Message> messages, final List<Integer> batch) {
+        final Message first = messages.get(batch.get(0));
+        if (batch.size() == 1) {
+            return first;
+        }
+        final List<byte[]> bodies = new ArrayList<>(batch.size());
+        for (int idx : batch) {
+            bodies.add(messages.get(idx).getMessageBodyInByte());
+        }
+        return new MessagesWrapper(first.getTopic(), first.getTopicShardingId(), bodies);
     }
 
     @Override
@@ -451,13 +894,32 @@ public class ProducerImplV2 implements Producer {
         int c = 0; // be continuous
         boolean returnCon;
         NSQConnection conn = null;
-        List<NSQException> exceptions = new ArrayList<>();
+        //created on first failure
+        List<NSQException> exceptions = null;
         long start = System.currentTimeMillis();
         int retry = this.config.getPublishRetry();
+        //total backoff before retries
+        long backoffSpent = 0;
+        //command is created once and encoded again in each retry
+        Pub pub = null;
         while (c++ < retry) {
+            //partition of previous attempt does not carry over to failover node
+            msg.getTopic().setPartitionID(-1);
+            if (null != pub) {
+                pub.overrideDefaultPartition(-1);
+            }
+            if (c > 1) {
+                long delay = retryBackoff.delay(c - 1, backoffSpent);
+                if (delay < 0) {
+                    logger.warn("Retry budget of publish to {} exhausted after {} attempts.", msg.getTopic().getTopicText(), c - 1);
+                    break;
+                }
+                sleep(delay);
+                backoffSpent += delay;
+            }
             returnCon = true;
             //while put topic, topic expiration is not allowed
-            topic_2_lastActiveTime.put(msg.getTopic().getTopicText(), start);
+            touchTopic(msg.getTopic().getTopicText(), start);
             this.simpleClient.putTopic(msg.getTopic().getTopicText());
             try {
                 //performance logging
@@ -472,7 +934,7 @@ public class ProducerImplV2 implements Producer {
                 }
 
                 if (conn == null) {
-                    exceptions.add(new NSQDataNodesDownException("Could not get NSQd connection for " + msg.getTopic().toString() + ", topic may does not exist, or connection pool resource exhausted."));
+                    exceptions = addException(exceptions, new NSQDataNodesDownException("Could not get NSQd connection for " + msg.getTopic().toString() + ", topic may does not exist, or connection pool resource exhausted."));
                     continue;
                 }
                 //update msg partition with connection address partition
@@ -485,31 +947,24 @@ public class ProducerImplV2 implements Producer {
             catch (NSQNoConnectionException badConnExp) {
                 logger.info("Try invalidating partition selectors for {}, due to NSQNoConnectionException.", msg.getTopic());
                 this.simpleClient.invalidatePartitionsSelector(msg.getTopic().getTopicText());
-                exceptions.add(badConnExp);
+                exceptions = addException(exceptions, badConnExp);
                 continue;
             }
             catch(NSQException nsqe) {
-                exceptions.add(nsqe);
+                exceptions = addException(exceptions, nsqe);
                 continue;
             }
             //create PUB command
             try {
-                String host = conn.getAddress().getHost();
-                int port = conn.getAddress().getPort();
-                String topic = conn.getAddress().getTopic();
-                int partition = -1;
-
-                final Pub pub = createPubCmd(msg);
-
-                //check if address has partition info, if it does, update pub's partition
-                if(conn.getAddress().hasPartition()) {
-                    partition = conn.getAddress().getPartition();
-                    pub.overrideDefaultPartition(partition);
+                if (null == pub) {
+                    pub = createPubCmd(msg);
                 }
+                bindPubCmd(pub, conn);
 
-                long pubAndWaitStart = System.currentTimeMillis();
+                long pubAndWaitStart = System.nanoTime();
                 final NSQFrame frame = conn.commandAndGetResponse(pub);
-                long pubAndWaitEnd = System.currentTimeMillis() - pubAndWaitStart;
+                long pubAndWaitInNano = System.nanoTime() - pubAndWaitStart;
+                long pubAndWaitEnd = TimeUnit.NANOSECONDS.toMillis(pubAndWaitInNano);
                 if(PERF_LOG.isDebugEnabled()){
                     PERF_LOG.debug("{}: took {} milliSec to send msg to and hear response from nsqd.", cxt.getTraceID(), pubAndWaitEnd);
                 }
@@ -518,17 +973,9 @@ public class ProducerImplV2 implements Producer {
                 }
 
                 handleResponse(msg.getTopic(), frame, conn);
+                nodeHealth.onSuccess(conn.getAddress(), pubAndWaitInNano);
                 //when hit this line what we have are response frame
-                success.addAndGet(msg.getMessageCount());
-                if(msg.isTraced() && frame instanceof ResponseFrame && conn.getAddress().isHA()) {
-                    if (TraceLogger.isTraceLoggerEnabled())
-                        TraceLogger.trace(this, conn, (MessageMetadata) frame);
-                }
-                ResponseFrame response = (ResponseFrame) frame;
-                MessageReceipt receipt = response.getReceipt();
-                receipt.setNsqdAddr(host + ":" + port);
-                receipt.setTopicName(topic);
-                receipt.setPartition(partition);
+                MessageReceipt receipt = onPubSuccess(msg, frame, conn);
                 if(PERF_LOG.isDebugEnabled()){
                     PERF_LOG.debug("{}: Producer took {} milliSec to send message to {}", cxt.getTraceID(), System.currentTimeMillis() - start, conn.getAddress());
                 }
@@ -539,27 +986,21 @@ public class ProducerImplV2 implements Producer {
             }
             catch (Exception e) {
                 returnCon = false;
+                if (!(e instanceof NSQInvalidMessageException)) {
+                    nodeHealth.onFailure(conn.getAddress());
+                }
                 logger.info("Try invalidating partition selectors for {}, due to exception {}.", msg.getTopic(), e.getMessage());
                 this.simpleClient.invalidatePartitionsSelector(msg.getTopic().getTopicText());
                 invalidConnection(conn);
 
-                String errLog;
-                if(msg.getMessageCount() > 1) {
-                    errLog = String.format("%s, MaxRetries: %d , CurrentRetries: %d , Address: %s , Topic: %s， Message count: %d.", e.getLocalizedMessage(), retry, c,
-                            conn.getAddress(), msg.getTopic(), msg.getMessageCount());
-                } else {
-                    String msgStr = msg.getMessageBody();
-                    int maxlen = msgStr.length() > MAX_MSG_OUTPUT_LEN ? MAX_MSG_OUTPUT_LEN : msgStr.length();
-                    errLog = String.format("%s, MaxRetries: %d , CurrentRetries: %d , Address: %s , Topic: %s, MessageLength: %d, RawMessage: %s, ExtJsonHeader: %s, DesiredTag: %s.", e.getLocalizedMessage(), retry, c,
-                            conn.getAddress(), msg.getTopic(), msgStr.length(), msgStr.substring(0, maxlen), msg.getJsonHeaderExt(), msg.getDesiredTag());
-                }
+                String errLog = pubErrorLog(e, msg, conn, retry, c);
                 //degrade to warning
                 logger.warn(errLog);
                 //as to NSQInvalidMessageException throw it out after connection close.
                 if(e instanceof NSQInvalidMessageException)
                     throw (NSQInvalidMessageException)e;
                 NSQException nsqE = new NSQException(errLog, e);
-                exceptions.add(nsqE);
+                exceptions = addException(exceptions, nsqE);
                 if (c >= retry) {
                     throw new NSQPubException(exceptions);
                 }
@@ -576,14 +1017,270 @@ public class ProducerImplV2 implements Producer {
                 }
             }
         } // end loop
-        throw new NSQPubException(exceptions);
+        throw new NSQPubException(null == exceptions ? new ArrayList<NSQException>(0) : exceptions);
+    }
+
+    private static List<NSQException> addException(List<NSQException> exceptions, final NSQException e) {
+        if (null == exceptions) {
+            exceptions = new ArrayList<>(2);
+        }
+        exceptions.add(e);
+        return exceptions;
+    }
+
+    private MessageReceipt onPubSuccess(final Message msg, final NSQFrame frame, final NSQConnection conn) {
+        success.add(msg.getMessageCount());
+        if(msg.isTraced() && frame instanceof ResponseFrame && conn.getAddress().isHA()) {
+            if (TraceLogger.isTraceLoggerEnabled())
+                TraceLogger.trace(this, conn, (MessageMetadata) frame);
+        }
+        final Address addr = conn.getAddress();
+        ResponseFrame response = (ResponseFrame) frame;
+        MessageReceipt receipt = response.getReceipt();
+        receipt.setNsqdAddr(addr.getHostAndPort());
+        receipt.setTopicName(addr.getTopic());
+        receipt.setPartition(addr.hasPartition() ? addr.getPartition() : -1);
+        return receipt;
+    }
+
+    private String pubErrorLog(final Exception e, final Message msg, final NSQConnection conn, int retry, int c) {
+        if(msg.getMessageCount() > 1) {
+            return String.format("%s, MaxRetries: %d , CurrentRetries: %d , Address: %s , Topic: %s， Message count: %d.", e.getLocalizedMessage(), retry, c,
+                    conn.getAddress(), msg.getTopic(), msg.getMessageCount());
+        } else {
+            String msgStr = msg.getMessageBody();
+            int maxlen = msgStr.length() > MAX_MSG_OUTPUT_LEN ? MAX_MSG_OUTPUT_LEN : msgStr.length();
+            return String.format("%s, MaxRetries: %d , CurrentRetries: %d , Address: %s , Topic: %s, MessageLength: %d, RawMessage: %s, ExtJsonHeader: %s, DesiredTag: %s.", e.getLocalizedMessage(), retry, c,
+                    conn.getAddress(), msg.getTopic(), msgStr.length(), msgStr.substring(0, maxlen), msg.getJsonHeaderExt(), msg.getDesiredTag());
+        }
+    }
+
+    /**
+     * One asynchronous publish of a message. Each run tries acquiring a nsqd connection and writing PUB, in the same
+     * way {@link #sendPUB(Message, Context)} does, response is handled in netty IO thread and failed publish is retried
+     * in publish worker pool. Exceptions are handled as they are in {@link #sendPUB(Message, Context)}.
+     */
+    private class AsyncPub implements Runnable {
+        private final Message msg;
+        private final Context cxt;
+        private final Promise<MessageReceipt> promise;
+        private final List<NSQException> exceptions = new ArrayList<>();
+        private final int retry = config.getPublishRetry();
+        private final long start = System.currentTimeMillis();
+        //one attempt runs at a time, visibility is guaranteed by executor and netty future
+        private int c = 0;
+        //total backoff before retries
+        private long backoffSpent = 0;
+        //command is created once and encoded again in each retry
+        private Pub pub = null;
+
+        AsyncPub(final Message msg, final Context cxt, final Promise<MessageReceipt> promise) {
+            this.msg = msg;
+            this.cxt = cxt;
+            this.promise = promise;
+        }
+
+        @Override
+        public void run() {
+            if (c > 0 && !retrying.remove(this)) {
+                //aborted as producer closes
+                return;
+            }
+            if (!SendBuffer.markSent(promise)) {
+                //dropped from send buffer
+                return;
+            }
+            if (drained) {
+                fail(new NSQException("Producer is closed before message is published."));
+                return;
+            }
+            c++;
+            //partition of previous attempt does not carry over to failover node
+            msg.getTopic().setPartitionID(-1);
+            if (null != pub) {
+                pub.overrideDefaultPartition(-1);
+            }
+            final NSQConnection conn;
+            //while put topic, topic expiration is not allowed
+            touchTopic(msg.getTopic().getTopicText(), start);
+            simpleClient.putTopic(msg.getTopic().getTopicText());
+            try {
+                conn = getNSQConnection(msg.getTopic(), msg.getTopicShardingId(), cxt);
+                if (conn == null) {
+                    exceptions.add(new NSQDataNodesDownException("Could not get NSQd connection for " + msg.getTopic().toString() + ", topic may does not exist, or connection pool resource exhausted."));
+                    retryOrFail();
+                    return;
+                }
+                //update msg partition with connection address partition
+                msg.getTopic().setPartitionID(conn.getAddress().getPartition());
+            } catch (NSQTopicNotFoundException | NSQSeedLookupConfigNotFoundException exp) {
+                fail(exp);
+                return;
+            } catch (NSQNoConnectionException badConnExp) {
+                logger.info("Try invalidating partition selectors for {}, due to NSQNoConnectionException.", msg.getTopic());
+                simpleClient.invalidatePartitionsSelector(msg.getTopic().getTopicText());
+                exceptions.add(badConnExp);
+                retryOrFail();
+                return;
+            } catch (NSQException nsqe) {
+                exceptions.add(nsqe);
+                retryOrFail();
+                return;
+            }
+
+            try {
+                if (null == pub) {
+                    pub = createPubCmd(msg);
+                }
+                bindPubCmd(pub, conn);
+            } catch (NSQPubFactoryInitializeException expShouldFail) {
+                returnConnection(conn);
+                fail(expShouldFail);
+                return;
+            }
+            final long pubAndWaitStart = System.nanoTime();
+            final io.netty.util.concurrent.Future<NSQFrame> future = conn.commandAndGetResponseAsync(pub);
+            //pipelined connection is shared once command written, as responses are matched in order.
+            if (config.isPipelined()) {
+                returnConnection(conn);
+            }
+            future.addListener(new FutureListener<NSQFrame>() {
+                @Override
+                public void operationComplete(io.netty.util.concurrent.Future<NSQFrame> future) throws Exception {
+                    long pubAndWaitInNano = System.nanoTime() - pubAndWaitStart;
+                    long pubAndWaitEnd = TimeUnit.NANOSECONDS.toMillis(pubAndWaitInNano);
+                    if(pubAndWaitEnd > PerfTune.getInstance().getSendMSGLimit()) {
+                        PERF_LOG.warn("{}: took {} milliSec to send message. Limitation is {}", cxt.getTraceID(), pubAndWaitEnd, PerfTune.getInstance().getSendMSGLimit());
+                    }
+                    onResponse(conn, future, pubAndWaitInNano);
+                }
+            });
+        }
+
+        private void onResponse(final NSQConnection conn, final io.netty.util.concurrent.Future<NSQFrame> future, long pubAndWaitInNano) {
+            boolean returnCon = !config.isPipelined();
+            try {
+                if (!future.isSuccess()) {
+                    Throwable cause = future.cause();
+                    throw cause instanceof Exception ? (Exception) cause : new NSQException(cause);
+                }
+                final NSQFrame frame = future.getNow();
+                handleResponse(msg.getTopic(), frame, conn);
+                nodeHealth.onSuccess(conn.getAddress(), pubAndWaitInNano);
+                MessageReceipt receipt = onPubSuccess(msg, frame, conn);
+                if(PERF_LOG.isDebugEnabled()){
+                    PERF_LOG.debug("{}: Producer took {} milliSec to send message to {}", cxt.getTraceID(), System.currentTimeMillis() - start, conn.getAddress());
+                }
+                promise.trySuccess(receipt);
+            } catch(NSQPubFactoryInitializeException | NSQTagException | NSQTopicNotExtendableException | NSQExtNotSupportedException expShouldFail) {
+                fail(expShouldFail);
+            } catch (Exception e) {
+                returnCon = false;
+                if (!(e instanceof NSQInvalidMessageException)) {
+                    nodeHealth.onFailure(conn.getAddress());
+                }
+                logger.info("Try invalidating partition selectors for {}, due to exception {}.", msg.getTopic(), e.getMessage());
+                simpleClient.invalidatePartitionsSelector(msg.getTopic().getTopicText());
+                invalidConnection(conn);
+
+                String errLog = pubErrorLog(e, msg, conn, retry, c);
+                logger.warn(errLog);
+                if(e instanceof NSQInvalidMessageException) {
+                    fail((NSQInvalidMessageException) e);
+                    return;
+                }
+                exceptions.add(new NSQException(errLog, e));
+                //never retry in IO thread, as acquiring connection may block
+                retryOrFail();
+            } finally {
+                if (returnCon) {
+                    returnConnection(conn);
+                }
+            }
+        }
+
+        /**
+         * schedule next attempt after backoff, without blocking current thread, or fail publish when retries or retry
+         * budget are exhausted.
+         */
+        private void retryOrFail() {
+            if (c >= retry) {
+                fail(new NSQPubException(exceptions));
+                return;
+            }
+            //shared executors do not reject retries after producer is closed
+            if (drained) {
+                exceptions.add(new NSQException("Producer is closed before message is published."));
+                fail(new NSQPubException(exceptions));
+                return;
+            }
+            final long delay = retryBackoff.delay(c, backoffSpent);
+            if (delay < 0) {
+                logger.warn("Retry budget of publish to {} exhausted after {} attempts.", msg.getTopic().getTopicText(), c);
+                fail(new NSQPubException(exceptions));
+                return;
+            }
+            backoffSpent += delay;
+            retrying.add(this);
+            if (delay == 0) {
+                retryNow();
+                return;
+            }
+            try {
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        retryNow();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                abort(e);
+            }
+        }
+
+        private void retryNow() {
+            try {
+                pubExec.execute(this);
+            } catch (RejectedExecutionException e) {
+                abort(e);
+            }
+        }
+
+        /**
+         * fail publish waiting for retry, as producer closes and the retry would never run
+         * @param cause rejection of retry, null if producer closes before retry runs
+         */
+        void abort(final Exception cause) {
+            if (retrying.remove(this)) {
+                exceptions.add(new NSQException("Producer is closed before message is published.", cause));
+                fail(new NSQPubException(exceptions));
+            }
+        }
+
+        private void fail(final NSQException e) {
+            if (e instanceof NSQPubException) {
+                NSQPubException pubE = (NSQPubException) e;
+                logger.error(pubE.getLocalizedMessage());
+                pubE.punchExceptions(logger);
+                List<? extends NSQException> nested = pubE.getNestedExceptions();
+                if (!nested.isEmpty()) {
+                    promise.tryFailure(nested.get(nested.size() - 1));
+                    return;
+                }
+            }
+            promise.tryFailure(e);
+        }
     }
 
     private void invalidConnection(final NSQConnection conn) {
         if(null != conn) {
             Address addr = conn.getAddress();
             try {
-                this.bigPool.invalidateObject(addr, conn);
+                if (null != this.ring) {
+                    this.ring.invalidate(conn);
+                } else {
+                    this.bigPool.invalidateObject(addr, conn);
+                }
                 logger.info("Connection to {} invalidated.", conn.getAddress());
             } catch (Exception e) {
                 logger.error("Fail to invalidate nsq connection to {}", addr);
@@ -592,7 +1289,16 @@ public class ProducerImplV2 implements Producer {
     }
 
     private void returnConnection(final NSQConnection conn) {
-        this.bigPool.returnObject(conn.getAddress(), conn);
+        if (null != this.ring) {
+            //connection in ring is shared, nothing to return
+            return;
+        }
+        try {
+            this.bigPool.returnObject(conn.getAddress(), conn);
+        } catch (IllegalStateException e) {
+            //connection shared by pipelined publish may be invalidated already
+            logger.info("Fail to return nsq connection to {}. {}", conn.getAddress(), e.getMessage());
+        }
     }
 
     /**
@@ -603,6 +1309,16 @@ public class ProducerImplV2 implements Producer {
        return PubCmdFactory.getInstance(!this.config.getUserSpecifiedLookupAddress()).create(msg, this.config);
     }
 
+    /**
+     * bind publish command to passin connection, if address of connection has partition info, partition of command is
+     * overridden with it. Override is reset at start of each attempt.
+     */
+    private void bindPubCmd(final Pub pub, final NSQConnection conn) {
+        if (conn.getAddress().hasPartition()) {
+            pub.overrideDefaultPartition(conn.getAddress().getPartition());
+        }
+    }
+
     private void handleResponse(final Topic topic, NSQFrame frame, NSQConnection conn) throws NSQException {
         if (frame == null) {
             logger.warn("the nsq frame is null.");
@@ -629,13 +1345,7 @@ public class ProducerImplV2 implements Producer {
                         logger.error("Address: {} , Frame: {}", conn.getAddress(), frame);
                         //clean topic 2 partitions selector and force a lookup for topic
                         this.simpleClient.invalidatePartitionsSelector(topic.getTopicText());
-                        //backoff for nsqd consensus, if there is one
-                        try {
-                            Thread.sleep(NSQ_LEADER_NOT_READY_TIMEOUT);
-                        } catch (InterruptedException e) {
-                            logger.error("Publish process interrupted waiting for nsqd consensus.");
-                            Thread.currentThread().interrupt();
-                        }
+                        //caller backs off before retry, for nsqd consensus if there is one
                         logger.info("Partitions info for {} invalidated and related lookup force updated.", topic);
                         throw new NSQInvalidDataNodeException(topic.getTopicText());
                     }
@@ -698,10 +1408,7 @@ public class ProducerImplV2 implements Producer {
 
     @Override
     public void publishMulti(List<byte[]> messages, final Topic topic) throws NSQException {
-        final Context cxt = new Context();
-        if(PERF_LOG.isDebugEnabled()) {
-            cxt.setTraceID(pubTraceIdGen.getAndIncrement());
-        }
+        final Context cxt = newContext();
         if (null == messages || messages.size() == 0) {
             throw new IllegalArgumentException("Publish multi exits as messages input is empty.");
         }
@@ -712,7 +1419,7 @@ public class ProducerImplV2 implements Producer {
         if (!started.get() || closing.get()) {
             throw new IllegalStateException("Producer must be started before producing messages!");
         }
-        total.addAndGet(messages.size());
+        total.add(messages.size());
 
         try{
             //TODO: poll before timeout
@@ -726,6 +1433,23 @@ public class ProducerImplV2 implements Producer {
         }
     }
 
+    @Override
+    public io.netty.util.concurrent.Future<MessageReceipt> publishMultiAsync(List<byte[]> messages, final Topic topic) {
+        final Context cxt = newContext();
+        if (null == messages || messages.size() == 0) {
+            throw new IllegalArgumentException("Publish multi exits as messages input is empty.");
+        }
+        if (null == topic || null == topic.getTopicText() || topic.getTopicText().isEmpty()) {
+            throw new IllegalArgumentException("Your input topic name is blank!");
+        }
+        if (!started.get() || closing.get()) {
+            throw new IllegalStateException("Producer must be started before producing messages!");
+        }
+        total.add(messages.size());
+
+        return publishBuffered(Message.create(topic, messages), cxt);
+    }
+
     @Override
     public boolean validateHeartbeat(NSQConnection conn) {
         return simpleClient.validateHeartbeat(conn);
@@ -739,17 +1463,58 @@ public class ProducerImplV2 implements Producer {
     @Override
     public void close() {
         if(this.started.get() && this.closing.compareAndSet(Boolean.FALSE, Boolean.TRUE)) {
+            if (null != accumulator) {
+                awaitSent(accumulator.drain());
+            }
+            drained = true;
+            if (null != spillJournal) {
+                spillJournal.close();
+            }
             LookupAddressUpdate.getInstance().removeDefaultSeedLookupConfig(this.simpleClient.getLookupLocalID());
             IOUtil.closeQuietly(simpleClient);
+            if (ring != null) {
+                ring.close();
+            }
             if (factory != null) {
                 factory.close();
             }
             if (bigPool != null) {
                 bigPool.close();
             }
-            scheduler.shutdownNow();
+            if (null != runtime) {
+                if (null != cleanerFuture) {
+                    cleanerFuture.cancel(false);
+                }
+                runtime.release();
+            } else {
+                scheduler.shutdownNow();
+                pubExec.shutdownNow();
+            }
+            //retries dropped by executors shutdown, or pending in shared executors
+            for (AsyncPub pub : retrying) {
+                pub.abort(null);
+            }
             logger.info("The producer has been closed.");
             LookupAddressUpdate.getInstance().closed();
+        } else if (null != runtime && !this.started.get() && this.closing.compareAndSet(Boolean.FALSE, Boolean.TRUE)) {
+            //producer never started releases shared runtime acquired in constructor
+            IOUtil.closeQuietly(simpleClient);
+            factory.close();
+            runtime.release();
+        }
+    }
+
+    /**
+     * wait for messages in batches sent at close, for at most linger and query timeout
+     */
+    private void awaitSent(final List<Promise<MessageReceipt>> promises) {
+        final long deadline = System.currentTimeMillis() + this.config.getPublishBatchLingerInMillisecond() + this.config.getQueryTimeoutInMillisecond();
+        for (Promise<MessageReceipt> promise : promises) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || !promise.awaitUninterruptibly(remaining)) {
+                logger.warn("Timeout waiting for {} messages in accumulator to be published before producer closes.", promises.size());
+                return;
+            }
         }
     }
 
@@ -0,0 +1,267 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.core.ImmediatePromise;
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.MessagesWrapper;
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.nsq.client.entity.Topic;
+import com.youzan.nsq.client.exception.NSQException;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulator groups single message publishes per topic partition, and sends them in one MPUB when batch size, batch
+ * bytes, or linger time is reached. Batch with only one message is sent in PUB. Each message publish gets its own
+ * promise, which completes with receipt of the batch, or exception of it.
+ */
+class PubAccumulator implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(PubAccumulator.class);
+    //message size and body size in MPUB
+    private static final int MPUB_MSG_OVERHEAD = 4;
+
+    private final ProducerImplV2 producer;
+    private final ScheduledExecutorService lingerScheduler;
+    private final ExecutorService flushExec;
+    private final int maxCount;
+    private final int maxBytes;
+    private final long lingerInMillisecond;
+
+    private final ConcurrentHashMap<String, Batch> batches = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    PubAccumulator(final ProducerImplV2 producer, final NSQConfig config, final ScheduledExecutorService lingerScheduler, final ExecutorService flushExec) {
+        this.producer = producer;
+        this.lingerScheduler = lingerScheduler;
+        this.flushExec = flushExec;
+        this.maxCount = config.getPublishBatchSize();
+        this.maxBytes = config.getPublishBatchBytes();
+        this.lingerInMillisecond = config.getPublishBatchLingerInMillisecond();
+    }
+
+    private class Batch implements Runnable {
+        private final String key;
+        private final Topic topic;
+        private final Object shardingID;
+        private final List<Message> messages = new ArrayList<>();
+        private final List<Promise<MessageReceipt>> promises = new ArrayList<>();
+        private int bytes = MPUB_MSG_OVERHEAD;
+        //sealed batch accepts no more message
+        private boolean sealed = false;
+
+        Batch(final String key, final Message first) {
+            this.key = key;
+            this.topic = first.getTopic();
+            this.shardingID = first.getTopicShardingId();
+        }
+
+        boolean fits(int size) {
+            return messages.isEmpty() || (messages.size() < maxCount && bytes + MPUB_MSG_OVERHEAD + size <= maxBytes);
+        }
+
+        boolean isFull() {
+            return messages.size() >= maxCount || bytes >= maxBytes;
+        }
+
+        /**
+         * linger expires
+         */
+        @Override
+        public void run() {
+            if (seal(this)) {
+                try {
+                    flushExec.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            send(Batch.this);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    send(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * append message to batch of its topic partition.
+     * @param message message to publish
+     * @param partition partition message is published to, -1 if message could be published to any partition.
+     * @return future of message receipt
+     */
+    Future<MessageReceipt> append(final Message message, int partition) {
+        final Promise<MessageReceipt> promise = new ImmediatePromise<>();
+        append(message, partition, promise);
+        return promise;
+    }
+
+    /**
+     * append message to batch of its topic partition, refer to {@link #append(Message, int)}.
+     * @param message message to publish
+     * @param partition partition message is published to, -1 if message could be published to any partition.
+     * @param promise promise of message publish, completes with receipt of batch message is sent in.
+     */
+    void append(final Message message, int partition, final Promise<MessageReceipt> promise) {
+        final String key = message.getTopic().getTopicText() + "#" + partition;
+        final int size = message.getMessageBodyInByte().length;
+        while (true) {
+            if (closed) {
+                promise.tryFailure(new NSQException("Producer is closed before message is published."));
+                return;
+            }
+            Batch batch = batches.get(key);
+            if (null == batch) {
+                Batch newBatch = new Batch(key, message);
+                batch = batches.putIfAbsent(key, newBatch);
+                if (null == batch) {
+                    batch = newBatch;
+                }
+            }
+            Batch full = null;
+            boolean appended = false;
+            synchronized (batch) {
+                if (batch.sealed) {
+                    batches.remove(key, batch);
+                    continue;
+                }
+                if (!batch.fits(size)) {
+                    //send current batch and try a new one
+                    batch.sealed = true;
+                    batches.remove(key, batch);
+                    full = batch;
+                } else {
+                    batch.messages.add(message);
+                    batch.promises.add(promise);
+                    batch.bytes += MPUB_MSG_OVERHEAD + size;
+                    appended = true;
+                    //accumulator closed in between, nobody sends it but us
+                    if (batch.isFull() || closed) {
+                        batch.sealed = true;
+                        batches.remove(key, batch);
+                        full = batch;
+                    } else if (batch.messages.size() == 1) {
+                        scheduleLinger(batch);
+                    }
+                }
+            }
+            if (null != full) {
+                send(full);
+            }
+            if (appended) {
+                return;
+            }
+        }
+    }
+
+    private void scheduleLinger(final Batch batch) {
+        try {
+            lingerScheduler.schedule(batch, lingerInMillisecond, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Fail to schedule linger for batch of {}, it is sent when full or closed.", batch.key);
+        }
+    }
+
+    /**
+     * @return {@link Boolean#TRUE} if batch is sealed by current invocation
+     */
+    private boolean seal(final Batch batch) {
+        synchronized (batch) {
+            if (batch.sealed) {
+                return false;
+            }
+            batch.sealed = true;
+            batches.remove(batch.key, batch);
+            return true;
+        }
+    }
+
+    private void send(final Batch batch) {
+        //messages dropped from send buffer are left out
+        final List<Message> messages = new ArrayList<>(batch.messages.size());
+        final List<Promise<MessageReceipt>> promises = new ArrayList<>(batch.promises.size());
+        for (int i = 0; i < batch.messages.size(); i++) {
+            if (SendBuffer.markSent(batch.promises.get(i))) {
+                messages.add(batch.messages.get(i));
+                promises.add(batch.promises.get(i));
+            }
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+        final Future<MessageReceipt> future;
+        try {
+            if (messages.size() == 1) {
+                future = producer.sendPUBAsync(messages.get(0));
+            } else {
+                List<byte[]> bodies = new ArrayList<>(messages.size());
+                for (Message msg : messages) {
+                    bodies.add(msg.getMessageBodyInByte());
+                }
+                future = producer.sendPUBAsync(new MessagesWrapper(batch.topic, batch.shardingID, bodies));
+            }
+        } catch (RuntimeException e) {
+            fail(promises, new NSQException("Fail to publish batch of " + batch.key, e));
+            return;
+        }
+        future.addListener(new FutureListener<MessageReceipt>() {
+            @Override
+            public void operationComplete(Future<MessageReceipt> future) throws Exception {
+                if (future.isSuccess()) {
+                    final MessageReceipt batchReceipt = future.getNow();
+                    for (Promise<MessageReceipt> promise : promises) {
+                        MessageReceipt receipt = new MessageReceipt();
+                        receipt.setNsqdAddr(batchReceipt.getNsqdAddr());
+                        receipt.setTopicName(batchReceipt.getTopicName());
+                        receipt.setPartition(batchReceipt.getPartition());
+                        promise.trySuccess(receipt);
+                    }
+                } else {
+                    fail(promises, future.cause());
+                }
+            }
+        });
+    }
+
+    private void fail(final List<Promise<MessageReceipt>> promises, final Throwable cause) {
+        for (Promise<MessageReceipt> promise : promises) {
+            promise.tryFailure(cause);
+        }
+    }
+
+    /**
+     * send all batches in accumulator, message published afterwards fails.
+     * @return promises of messages in batches sent
+     */
+    List<Promise<MessageReceipt>> drain() {
+        closed = true;
+        final List<Promise<MessageReceipt>> promises = new ArrayList<>();
+        for (Map.Entry<String, Batch> entry : batches.entrySet()) {
+            Batch batch = entry.getValue();
+            if (seal(batch)) {
+                promises.addAll(batch.promises);
+                send(batch);
+            }
+        }
+        return promises;
+    }
+
+    /**
+     * send all batches in accumulator, message published afterwards fails.
+     */
+    @Override
+    public void close() {
+        drain();
+    }
+}
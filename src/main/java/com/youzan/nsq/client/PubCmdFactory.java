@@ -1,6 +1,7 @@
 package com.youzan.nsq.client;
 
 import com.youzan.nsq.client.configs.*;
+import com.youzan.nsq.client.core.codec.PayloadCodec;
 import com.youzan.nsq.client.core.command.Mpub;
 import com.youzan.nsq.client.core.command.Pub;
 import com.youzan.nsq.client.core.command.PubExt;
@@ -14,9 +15,10 @@ import com.youzan.nsq.client.exception.NSQPubFactoryInitializeException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -29,9 +31,9 @@ public class PubCmdFactory implements IConfigAccessSubscriber{
     private final static DCCTraceConfigAccessKey KEY = new DCCTraceConfigAccessKey();
     private final static DCCTraceConfigAccessDomain DOMAIN = new DCCTraceConfigAccessDomain();
 
-    //topic trace map, for example: JavaTesting-Producer-Base -> 1, means trace is on for topic "JavaTesting-Producer-Base"
-    private volatile Map<String, String> topicTrace = new TreeMap<>();
-    private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    //snapshot of topic trace map, for example: JavaTesting-Producer-Base -> true, means trace is on for topic
+    //"JavaTesting-Producer-Base". Snapshot is immutable and replaced as a whole on update, so that it is read without lock.
+    private volatile Map<String, Boolean> topicTrace = Collections.emptyMap();
     private static volatile boolean accessRemote = false;
 
     private final ConfigAccessAgent.IConfigAccessCallback topicTraceUpdateHandler = new ConfigAccessAgent.IConfigAccessCallback() {
@@ -39,27 +41,44 @@ public class PubCmdFactory implements IConfigAccessSubscriber{
         public void fallback(SortedMap itemsInCache, Object... objs) {
             if(null == itemsInCache || itemsInCache.size() == 0)
                 return;
-            try {
-                lock.writeLock().lock();
-                topicTrace = itemsInCache;
-            }finally {
-                lock.writeLock().unlock();
-            }
+            updateTopicTrace(itemsInCache);
         }
 
         @Override
         public void process(SortedMap newItems) {
             if(null == newItems || newItems.size() == 0)
                 return;
-            try {
-                lock.writeLock().lock();
-                topicTrace = newItems;
-            }finally {
-                lock.writeLock().unlock();
-            }
+            updateTopicTrace(newItems);
         }
     };
 
+    /**
+     * replace topic trace snapshot with flags in pass in topic trace map, flags are parsed once here.
+     * @param traceMap topic to trace flag map
+     */
+    private void updateTopicTrace(final Map<?, ?> traceMap) {
+        final Map<String, Boolean> snapshot = new HashMap<>(traceMap.size() * 2);
+        for (Map.Entry<?, ?> entry : traceMap.entrySet()) {
+            snapshot.put(String.valueOf(entry.getKey()), isTraceOn(null == entry.getValue() ? null : String.valueOf(entry.getValue())));
+        }
+        topicTrace = Collections.unmodifiableMap(snapshot);
+    }
+
+    private static boolean isTraceOn(final String flag) {
+        if (null == flag || "0".equals(flag)) {
+            return false;
+        }
+        if ("1".equals(flag)) {
+            return true;
+        }
+        try {
+            return Integer.parseInt(flag.trim()) != 0;
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid trace flag {}, trace is off.", flag);
+            return false;
+        }
+    }
+
     private static ReentrantReadWriteLock LOCK = new ReentrantReadWriteLock();
     private static PubCmdFactory _INSTANCE = null;
 
@@ -103,23 +122,24 @@ public class PubCmdFactory implements IConfigAccessSubscriber{
 
     /**
      * Create Pub command, given pass in Message object
-     * Mpub goes first, then PubTrace, and dcc trace
+     * Mpub goes first, then PubTrace, and dcc trace, message body to encode with payload codec goes in PubExt
      * @param msg msg object passin
      * @return Pub command instance
      * @throws IllegalArgumentException
      */
     public Pub create(final Message msg, final NSQConfig config) throws IllegalArgumentException {
-        boolean containJsonHeader = (null != msg.getJsonHeaderExt() || (null != msg.getDesiredTag() && !msg.getDesiredTag().isEmpty()));
-
         if(msg instanceof MessagesWrapper) {
             return new Mpub(msg.getTopic(), msg.getMessageBodiesInByte());
         }
 
+        PayloadCodec codec = config.getPayloadCodec(msg.getTopic().getTopicText(), msg.getMessageBodyInByte().length);
+        boolean containJsonHeader = (null != msg.getJsonHeaderExt() || (null != msg.getDesiredTag() && !msg.getDesiredTag().isEmpty()) || null != codec);
+
         boolean isTraced = isTracedMessage(config, msg);
         if(isTraced && !containJsonHeader){
             return new PubTrace(msg);
         }else if (containJsonHeader) {
-            return new PubExt(msg, isTraced);
+            return new PubExt(msg, isTraced, codec);
         } else {
             return new Pub(msg);
         }
@@ -132,26 +152,22 @@ public class PubCmdFactory implements IConfigAccessSubscriber{
      * @param msg message to check if trace is ON.
      * @return {@link Boolean#TRUE} if pass in message is traced, otherwise {@link Boolean#FALSE}.
      */
-    private boolean isTracedMessage(final NSQConfig config, final Message msg) {
-        String flag;
+    boolean isTracedMessage(final NSQConfig config, final Message msg) {
+        boolean traceOn;
         Topic topic = msg.getTopic();
 
         if(msg.isTraced())
             return true;
 
         if(config.getUserSpecifiedLookupAddress()) {
-            flag = config.getLocalTraceMap().get(topic.getTopicText());
+            traceOn = isTraceOn(config.getLocalTraceMap().get(topic.getTopicText()));
         } else {
-            try {
-                lock.readLock().lock();
-                //check trace map
-                flag = this.topicTrace.get(topic.getTopicText());
-            } finally {
-                lock.readLock().unlock();
-            }
+            //check trace map snapshot
+            Boolean flag = this.topicTrace.get(topic.getTopicText());
+            traceOn = null != flag && flag;
         }
 
-        if(null == flag || Integer.valueOf(flag) == 0)
+        if(!traceOn)
             return false;
         else {
             //mark message as traced
@@ -170,12 +186,7 @@ public class PubCmdFactory implements IConfigAccessSubscriber{
         SortedMap<String, String> firstLookupMap = subscribeTo.handleSubscribe(domain, keys, getCallback());
         if(null == firstLookupMap || firstLookupMap.size() == 0)
             return null;
-        try {
-            lock.writeLock().lock();
-            topicTrace = firstLookupMap;
-        }finally {
-            lock.writeLock().unlock();
-        }
+        updateTopicTrace(firstLookupMap);
         return null;
     }
 }
@@ -0,0 +1,432 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.nsq.client.entity.Topic;
+import com.youzan.nsq.client.exception.NSQException;
+import com.youzan.util.IOUtil;
+import com.youzan.util.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append only local journal of publishes which fail as nsqd or lookupd is not available. Journal is made of eight
+ * memory mapped segment files of equal size, named by sequence, and a checkpoint file of replay position. Writer and
+ * reader map segments on their own, and unmap them once they move to next segment. Each record is framed as:
+ * <pre>
+ * [length of payload, 4 bytes][crc32 of payload, 4 bytes][payload]
+ * payload: [length of topic, 2 bytes][topic][message body]
+ * </pre>
+ * Length of 0 marks end of records in segment. Torn record at tail of last segment is dropped in recovery. Records are
+ * replayed in background, consecutive records of one topic are published in one MPUB, and replay position is
+ * checkpointed after each MPUB, so record may be published again if producer exits before checkpoint.
+ */
+class PubSpillJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(PubSpillJournal.class);
+    static final String SEGMENT_PREFIX = "spill-";
+    static final String SEGMENT_SUFFIX = ".log";
+    static final String CHECKPOINT = "spill.checkpoint";
+    //length and crc32
+    private static final int RECORD_HEADER = 8;
+    private static final int TOPIC_LEN = 2;
+    private static final int SEGMENTS = 8;
+    private static final int MIN_SEGMENT_SIZE = 1024;
+    private static final int MAX_SEGMENT_SIZE = 1024 * 1024 * 1024;
+
+    private final ProducerImplV2 producer;
+    private final File dir;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final NSQConfig.SpillFsyncPolicy fsyncPolicy;
+    private final int batchSize;
+    private final int batchBytes;
+    private final ScheduledExecutorService replayExec;
+    //replay executor is owned by journal, or shared with other clients and left running on close
+    private final boolean ownReplayExec;
+    private final ScheduledFuture<?> replayFuture;
+    //held by running replay, so that close waits for it without shutting down shared executor
+    private final ReentrantLock replayLock = new ReentrantLock();
+    private volatile boolean closed = false;
+
+    //sequences of segments on disk, oldest first, guarded by this
+    private final ArrayDeque<Long> segments = new ArrayDeque<>();
+    //writer, guarded by this
+    private long writeSeq;
+    private MappedByteBuffer writeBuf;
+    private int writePos;
+    private final CRC32 crc = new CRC32();
+
+    //reader, accessed by replay thread only, read buffer is mapped apart from write buffer of the same segment
+    private long readSeq;
+    private int readPos;
+    private MappedByteBuffer readBuf;
+    private long readBufSeq = -1;
+    private final MappedByteBuffer checkpoint;
+
+    PubSpillJournal(final ProducerImplV2 producer, final NSQConfig config) throws IOException {
+        this(producer, config, null);
+    }
+
+    /**
+     * @param replayExec scheduler of replay, like scheduler of {@link com.youzan.nsq.client.core.ClientRuntime},
+     *                   which is not shut down when journal closes. null to create a replay thread of journal.
+     */
+    PubSpillJournal(final ProducerImplV2 producer, final NSQConfig config, final ScheduledExecutorService replayExec) throws IOException {
+        this.producer = producer;
+        this.dir = new File(config.getPublishSpillDirectory());
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Fail to create spill journal directory " + dir);
+        }
+        //journal is split in segments, so that disk space of replayed ones is freed, there are more than eight
+        //segments only if max bytes is larger than 8GB
+        this.segmentSize = (int) Math.min(Math.max(config.getPublishSpillMaxBytes() / SEGMENTS, MIN_SEGMENT_SIZE), MAX_SEGMENT_SIZE);
+        this.maxSegments = (int) Math.max(1, config.getPublishSpillMaxBytes() / this.segmentSize);
+        this.fsyncPolicy = config.getPublishSpillFsyncPolicy();
+        this.batchSize = config.getPublishBatchSize();
+        this.batchBytes = config.getPublishBatchBytes();
+        this.checkpoint = map(new File(dir, CHECKPOINT), 16);
+        recover();
+        this.ownReplayExec = null == replayExec;
+        this.replayExec = this.ownReplayExec ? Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(this.getClass().getName() + "-replay", Thread.NORM_PRIORITY)) : replayExec;
+        int interval = config.getPublishSpillReplayIntervalInMillisecond();
+        this.replayFuture = this.replayExec.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                replay();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private static MappedByteBuffer map(final File file, int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private File segmentFile(long seq) {
+        return new File(dir, SEGMENT_PREFIX + seq + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * load segments and replay position, and locate tail of last segment.
+     */
+    private void recover() throws IOException {
+        String[] names = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        long[] seqs = new long[null == names ? 0 : names.length];
+        for (int i = 0; i < seqs.length; i++) {
+            seqs[i] = Long.parseLong(names[i].substring(SEGMENT_PREFIX.length(), names[i].length() - SEGMENT_SUFFIX.length()));
+        }
+        Arrays.sort(seqs);
+        this.readSeq = checkpoint.getLong(0);
+        this.readPos = (int) checkpoint.getLong(8);
+        for (long seq : seqs) {
+            if (seq < readSeq) {
+                deleteSegment(seq);
+            } else {
+                segments.add(seq);
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.add(readSeq);
+            readPos = 0;
+        } else if (segments.peekFirst() != readSeq) {
+            //segment of checkpoint is gone
+            readSeq = segments.peekFirst();
+            readPos = 0;
+        }
+        this.writeSeq = segments.peekLast();
+        this.writeBuf = map(segmentFile(writeSeq), segmentSize);
+        int pos = 0;
+        while (true) {
+            int len = recordLength(writeBuf, pos);
+            if (len <= 0 || !verify(writeBuf, pos, len)) {
+                break;
+            }
+            pos += RECORD_HEADER + len;
+        }
+        this.writePos = pos;
+        //drop torn record, if there is any
+        for (int i = pos; i < segmentSize; i++) {
+            if (writeBuf.get(i) != 0) {
+                writeBuf.put(i, (byte) 0);
+            }
+        }
+        if (writeSeq == readSeq && readPos > writePos) {
+            readPos = writePos;
+        }
+        logger.info("Spill journal {} recovered, {} segments, replay from {}:{}.", dir, segments.size(), readSeq, readPos);
+    }
+
+    private int recordLength(final MappedByteBuffer buf, int pos) {
+        if (pos + RECORD_HEADER > segmentSize) {
+            return 0;
+        }
+        int len = buf.getInt(pos);
+        return len > 0 && pos + RECORD_HEADER + len <= segmentSize ? len : 0;
+    }
+
+    private boolean verify(final MappedByteBuffer buf, int pos, int len) {
+        byte[] payload = new byte[len];
+        ByteBuffer dup = buf.duplicate();
+        dup.position(pos + RECORD_HEADER);
+        dup.get(payload);
+        CRC32 check = new CRC32();
+        check.update(payload, 0, len);
+        return (int) check.getValue() == buf.getInt(pos + 4);
+    }
+
+    /**
+     * @param message message to spill
+     * @return {@link Boolean#TRUE} if message is appended, {@link Boolean#FALSE} if journal is full or closed.
+     */
+    synchronized boolean append(final Message message) {
+        if (closed) {
+            return false;
+        }
+        final byte[] topic = message.getTopic().getTopicText().getBytes(IOUtil.DEFAULT_CHARSET);
+        final byte[] body = message.getMessageBodyInByte();
+        final int len = TOPIC_LEN + topic.length + body.length;
+        //keep 4 bytes for end mark
+        if (RECORD_HEADER + len + 4 > segmentSize) {
+            logger.warn("Message of {} bytes is too large for spill journal.", body.length);
+            return false;
+        }
+        try {
+            if (writePos + RECORD_HEADER + len + 4 > segmentSize && !roll()) {
+                logger.warn("Spill journal {} is full.", dir);
+                return false;
+            }
+        } catch (IOException e) {
+            logger.error("Fail to create spill journal segment.", e);
+            return false;
+        }
+        crc.reset();
+        crc.update(topic.length >>> 8);
+        crc.update(topic.length);
+        crc.update(topic, 0, topic.length);
+        crc.update(body, 0, body.length);
+        writeBuf.position(writePos + RECORD_HEADER);
+        writeBuf.putShort((short) topic.length);
+        writeBuf.put(topic);
+        writeBuf.put(body);
+        writeBuf.putInt(writePos + 4, (int) crc.getValue());
+        //length goes last, which commits record
+        writeBuf.putInt(writePos, len);
+        writePos += RECORD_HEADER + len;
+        if (fsyncPolicy == NSQConfig.SpillFsyncPolicy.ALWAYS) {
+            writeBuf.force();
+        }
+        return true;
+    }
+
+    private boolean roll() throws IOException {
+        if (segments.size() >= maxSegments) {
+            return false;
+        }
+        writeBuf.force();
+        final long seq = writeSeq + 1;
+        final MappedByteBuffer buf = map(segmentFile(seq), segmentSize);
+        segments.add(seq);
+        writeSeq = seq;
+        IOUtil.unmap(writeBuf);
+        writeBuf = buf;
+        writePos = 0;
+        return true;
+    }
+
+    synchronized boolean isEmpty() {
+        return writeSeq == readSeq && writePos == readPos;
+    }
+
+    /**
+     * publish records in journal, until journal is drained or publish fails.
+     */
+    void replay() {
+        //skip if journal is closing or another replay is running
+        if (closed || !replayLock.tryLock()) {
+            return;
+        }
+        try {
+            replayLocked();
+        } finally {
+            replayLock.unlock();
+        }
+    }
+
+    private void replayLocked() {
+        if (closed) {
+            return;
+        }
+        if (fsyncPolicy == NSQConfig.SpillFsyncPolicy.INTERVAL) {
+            synchronized (this) {
+                if (!closed) {
+                    writeBuf.force();
+                }
+            }
+        }
+        try {
+            int replayed = 0;
+            while (!closed) {
+                int count = replayBatch();
+                if (count == 0) {
+                    break;
+                }
+                replayed += count;
+            }
+            if (replayed > 0) {
+                logger.info("{} messages replayed from spill journal {}.", replayed, dir);
+            }
+        } catch (NSQException e) {
+            logger.warn("Replay of spill journal {} paused, as publish fails. {}", dir, e.getMessage());
+        } catch (Exception e) {
+            logger.error("Fail to replay spill journal {}.", dir, e);
+        }
+    }
+
+    /**
+     * @return number of messages published in one MPUB, 0 if there is no record to replay.
+     */
+    private int replayBatch() throws NSQException, IOException {
+        final long limitSeq;
+        final int limitPos;
+        synchronized (this) {
+            limitSeq = writeSeq;
+            limitPos = writePos;
+        }
+        if (readSeq == limitSeq && readPos >= limitPos) {
+            return 0;
+        }
+        if (readBufSeq != readSeq) {
+            IOUtil.unmap(readBuf);
+            readBuf = map(segmentFile(readSeq), segmentSize);
+            readBufSeq = readSeq;
+        }
+        final int end = readSeq == limitSeq ? limitPos : segmentSize;
+        String topic = null;
+        List<byte[]> bodies = new ArrayList<>();
+        int bytes = 0;
+        int pos = readPos;
+        while (bodies.size() < batchSize) {
+            int len = pos < end ? recordLength(readBuf, pos) : 0;
+            if (len <= 0) {
+                break;
+            }
+            if (!verify(readBuf, pos, len)) {
+                logger.error("Corrupted record in spill journal segment {} at {}, rest of segment is skipped.", readSeq, pos);
+                pos = end;
+                break;
+            }
+            ByteBuffer dup = readBuf.duplicate();
+            dup.position(pos + RECORD_HEADER);
+            byte[] topicBytes = new byte[dup.getShort()];
+            dup.get(topicBytes);
+            String recordTopic = new String(topicBytes, IOUtil.DEFAULT_CHARSET);
+            int bodyLen = len - TOPIC_LEN - topicBytes.length;
+            if (null != topic && (!topic.equals(recordTopic) || bytes + bodyLen > batchBytes)) {
+                break;
+            }
+            byte[] body = new byte[bodyLen];
+            dup.get(body);
+            topic = recordTopic;
+            bodies.add(body);
+            bytes += body.length;
+            pos += RECORD_HEADER + len;
+        }
+        if (!bodies.isEmpty()) {
+            producer.publishMulti(bodies, new Topic(topic));
+        }
+        if (bodies.isEmpty() && readSeq < limitSeq) {
+            //end of segment which is written no more
+            nextSegment();
+            return replayBatch();
+        }
+        readPos = pos;
+        checkpoint(readSeq, readPos);
+        return bodies.size();
+    }
+
+    private void nextSegment() {
+        final long done = readSeq;
+        synchronized (this) {
+            segments.pollFirst();
+            readSeq = segments.peekFirst();
+        }
+        readPos = 0;
+        checkpoint(readSeq, readPos);
+        IOUtil.unmap(readBuf);
+        readBuf = null;
+        readBufSeq = -1;
+        deleteSegment(done);
+    }
+
+    private void checkpoint(long seq, int pos) {
+        checkpoint.putLong(0, seq);
+        checkpoint.putLong(8, pos);
+        if (fsyncPolicy == NSQConfig.SpillFsyncPolicy.ALWAYS) {
+            checkpoint.force();
+        }
+    }
+
+    private void deleteSegment(long seq) {
+        File file = segmentFile(seq);
+        if (file.exists() && !file.delete()) {
+            logger.warn("Fail to delete spill journal segment {}.", file);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        replayFuture.cancel(false);
+        if (ownReplayExec) {
+            replayExec.shutdownNow();
+        }
+        boolean terminated = false;
+        try {
+            terminated = replayLock.tryLock(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            writeBuf.force();
+            checkpoint.force();
+            IOUtil.unmap(writeBuf);
+        }
+        //buffers of reader are left to garbage collection, if replay is still running
+        if (terminated) {
+            IOUtil.unmap(readBuf);
+            IOUtil.unmap(checkpoint);
+            replayLock.unlock();
+        }
+        logger.info("Spill journal {} closed.", dir);
+    }
+}
@@ -0,0 +1,73 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.exception.NSQException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of {@link Producer#publishMultiAndGetResult(List, int)}, which maps index of each message passin to its
+ * receipt, or exception of the batch it is published in.
+ */
+public class PublishMultiResult {
+    private final MessageReceipt[] receipts;
+    private final NSQException[] exceptions;
+
+    PublishMultiResult(int size) {
+        this.receipts = new MessageReceipt[size];
+        this.exceptions = new NSQException[size];
+    }
+
+    void setReceipt(int idx, final MessageReceipt receipt) {
+        this.receipts[idx] = receipt;
+    }
+
+    void setException(int idx, final NSQException exception) {
+        this.exceptions[idx] = exception;
+    }
+
+    /**
+     * @return number of messages published
+     */
+    public int size() {
+        return receipts.length;
+    }
+
+    public boolean isSuccess(int idx) {
+        return null != receipts[idx];
+    }
+
+    /**
+     * @return receipt of message at passin index, or null if it fails.
+     */
+    public MessageReceipt getReceipt(int idx) {
+        return receipts[idx];
+    }
+
+    /**
+     * @return exception of message at passin index, or null if it succeeds.
+     */
+    public NSQException getException(int idx) {
+        return exceptions[idx];
+    }
+
+    /**
+     * @return {@link Boolean#TRUE} if all messages are published.
+     */
+    public boolean isAllSuccess() {
+        return getFailedIndexes().isEmpty();
+    }
+
+    /**
+     * @return indexes of messages failed to publish, in ascending order.
+     */
+    public List<Integer> getFailedIndexes() {
+        final List<Integer> failed = new ArrayList<>();
+        for (int i = 0; i < receipts.length; i++) {
+            if (null == receipts[i]) {
+                failed.add(i);
+            }
+        }
+        return failed;
+    }
+}
@@ -0,0 +1,115 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.util.StripedCounter;
+
+/**
+ * AIMD feedback controller of expected RDY ceiling per connection of consumer, driven by measured message handler
+ * latency, worker utilization and messages waiting in consumer.
+ * <pre>
+ * 1. messages waiting in consumer are drained by workers in (queued * latency / workers), when it exceeds share of
+ *    msg timeout, ceiling is halved, as messages are about to time out and be delivered again;
+ * 2. otherwise ceiling increases by a step while workers handle messages and are not fully utilized, as consumer
+ *    under-fetches, ceiling of idle consumer stays where it is;
+ * 3. ceiling never exceeds messages workers are able to handle in share of msg timeout.
+ * </pre>
+ * Latency and utilization are sampled in {@link #adjust(int, int, long, long)}, which is invoked periodically in one
+ * thread, while {@link #record(long, int)} is invoked by message handler workers.
+ */
+class RdyController {
+    static final long INTERVAL_IN_MILLISECOND = 1000L;
+    //share of msg timeout message may wait in consumer before it is handled
+    private static final double TIMEOUT_SHARE = 0.5d;
+    private static final double UTILIZATION_TARGET = 0.9d;
+    //weight of latest latency sample
+    private static final double LATENCY_WEIGHT = 0.3d;
+
+    private final NSQConfig config;
+    private final StripedCounter handledNanos = new StripedCounter();
+    private final StripedCounter handledCount = new StripedCounter();
+
+    //accessed in adjust thread only
+    private long lastNanos = 0L;
+    private long lastCount = 0L;
+    private long lastAdjust = -1L;
+
+    private volatile double latencyInMillisecond = 0d;
+    private volatile double utilization = 0d;
+    private volatile int rdyCeiling = 0;
+
+    RdyController(final NSQConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * record time message handler takes
+     * @param elapsedNanos nanoseconds handler takes
+     * @param messages     number of messages handled, more than 1 for batch
+     */
+    void record(long elapsedNanos, int messages) {
+        handledNanos.add(elapsedNanos);
+        handledCount.add(messages);
+    }
+
+    /**
+     * sample latency and utilization since last adjustment, and adjust RDY ceiling per connection.
+     * @param baseline ceiling before first adjustment, and step of increase is derived from it
+     * @param connNum  number of connections of consumer
+     * @param queued   messages queued or being handled in consumer
+     * @param now      current time in milliseconds
+     * @return RDY ceiling per connection
+     */
+    int adjust(int baseline, int connNum, long queued, long now) {
+        final long nanos = handledNanos.value();
+        final long count = handledCount.value();
+        final long deltaNanos = nanos - lastNanos;
+        final long deltaCount = count - lastCount;
+        lastNanos = nanos;
+        lastCount = count;
+        if (deltaCount > 0) {
+            double sample = deltaNanos / 1000000d / deltaCount;
+            latencyInMillisecond = latencyInMillisecond <= 0d ? sample : latencyInMillisecond * (1d - LATENCY_WEIGHT) + sample * LATENCY_WEIGHT;
+        }
+        if (lastAdjust > 0 && now > lastAdjust) {
+            utilization = deltaNanos / 1000000d / (getWorkers() * (now - lastAdjust));
+        }
+        lastAdjust = now;
+
+        final double waitLimit = this.config.getMsgTimeoutInMillisecond() * TIMEOUT_SHARE;
+        int ceiling = rdyCeiling > 0 ? rdyCeiling : baseline;
+        if (estimateWaitInMillisecond(queued) > waitLimit) {
+            ceiling = ceiling / 2;
+        } else if (deltaCount > 0 && utilization < UTILIZATION_TARGET) {
+            ceiling += Math.max(1, baseline / 4);
+        }
+        if (latencyInMillisecond > 0d) {
+            double limit = getWorkers() * waitLimit / latencyInMillisecond / Math.max(1, connNum);
+            if (limit < ceiling) {
+                ceiling = (int) limit;
+            }
+        }
+        ceiling = Math.max(1, Math.min(ceiling, this.config.getConsumerDispatchQueueSize()));
+        rdyCeiling = ceiling;
+        return ceiling;
+    }
+
+    /**
+     * @param queued messages queued or being handled in consumer
+     * @return estimated milliseconds for workers to handle queued messages
+     */
+    long estimateWaitInMillisecond(long queued) {
+        return (long) (queued * latencyInMillisecond / getWorkers());
+    }
+
+    double getLatencyInMillisecond() {
+        return latencyInMillisecond;
+    }
+
+    double getUtilization() {
+        return utilization;
+    }
+
+    private int getWorkers() {
+        return Math.max(1, this.config.getConsumerWorkerPoolSize());
+    }
+}
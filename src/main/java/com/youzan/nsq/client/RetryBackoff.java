@@ -0,0 +1,42 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.NSQConfig;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Backoff between publish retries. Delay before n-th retry grows exponentially from
+ * {@link NSQConfig#getProducerRetryIntervalBaseInMilliSeconds()}, and half of it is random jitter, so producers which
+ * fail at the same time, like in nsqd leader election, do not retry at the same time. Total delay of one publish is
+ * bounded by {@link NSQConfig#getPublishRetryBudgetInMilliSeconds()}, publish fails once it is exhausted.
+ */
+final class RetryBackoff {
+    //cap of exponent, as retry is bounded by max publish retry
+    private static final int MAX_SHIFT = 16;
+
+    private final long base;
+    private final long budget;
+
+    RetryBackoff(final NSQConfig config) {
+        this.base = config.getProducerRetryIntervalBaseInMilliSeconds();
+        this.budget = config.getPublishRetryBudgetInMilliSeconds();
+    }
+
+    /**
+     * @param retry retry about to start, from 1
+     * @param spent total delay of former retries of same publish, in milliseconds
+     * @return delay in milliseconds before retry, or -1 when retry budget of publish is exhausted
+     */
+    long delay(int retry, long spent) {
+        if (this.base <= 0) {
+            return 0;
+        }
+        long exp = this.base << Math.min(Math.max(retry - 1, 0), MAX_SHIFT);
+        long half = exp >>> 1;
+        long delay = exp - half + ThreadLocalRandom.current().nextLong(half + 1);
+        if (spent + delay > this.budget) {
+            return -1;
+        }
+        return delay;
+    }
+}
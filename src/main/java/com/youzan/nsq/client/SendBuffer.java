@@ -0,0 +1,280 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.core.ImmediatePromise;
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.nsq.client.exception.NSQException;
+import com.youzan.nsq.client.exception.NSQSendBufferFullException;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bound of messages producer holds in memory in asynchronous and batched publish, in message count and bytes of
+ * message bodies. A message takes room in buffer once accepted, and frees it when its publish promise completes. When
+ * buffer is full, publish waits for room, fails at once, or drops oldest message which is not written to nsqd yet,
+ * per {@link NSQConfig.SendBufferPolicy}. Room is taken and freed without lock, lock is only taken by publish waiting
+ * for room, and by buffer which drops oldest message. Publish in event loop of producer never waits for room, as the
+ * event loop is what frees room, it fails at once instead.
+ */
+class SendBuffer implements FutureListener<MessageReceipt> {
+    private final int maxCount;
+    private final long maxBytes;
+    private final NSQConfig.SendBufferPolicy policy;
+    private final long blockTimeoutInNano;
+    //event loops of producer connections, null if unknown
+    private final EventExecutorGroup eventLoops;
+
+    private final AtomicInteger count = new AtomicInteger(0);
+    private final AtomicLong bytes = new AtomicLong(0L);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    //number of publishes waiting for room, updated with lock held
+    private volatile int waiters = 0;
+    //messages not sent when accepted, in accepted order, maintained with DROP_OLDEST only. Messages sent or completed
+    //are not removed at once, they are discarded once they reach head of queue, guarded by lock
+    private final ArrayDeque<Entry> unsent = new ArrayDeque<>();
+
+    SendBuffer(final NSQConfig config) {
+        this(config, null);
+    }
+
+    SendBuffer(final NSQConfig config, final EventExecutorGroup eventLoops) {
+        this.maxCount = config.getPublishSendBufferMaxMessages() > 0 ? config.getPublishSendBufferMaxMessages() : Integer.MAX_VALUE;
+        this.maxBytes = config.getPublishSendBufferMaxBytes() > 0 ? config.getPublishSendBufferMaxBytes() : Long.MAX_VALUE;
+        this.policy = config.getPublishSendBufferPolicy();
+        this.blockTimeoutInNano = TimeUnit.MILLISECONDS.toNanos(config.getPublishSendBufferBlockTimeoutInMillisecond());
+        this.eventLoops = eventLoops;
+    }
+
+    /**
+     * Take room for message in buffer.
+     *
+     * @param message message to publish
+     * @return promise of message publish, which frees room when completes
+     * @throws NSQException {@link NSQSendBufferFullException} if there is no room for message, or interrupted waiting
+     *                      for room. {@link NSQSendBufferFullException} is thrown at once in event loop of producer,
+     *                      with {@link NSQConfig.SendBufferPolicy#BLOCK}.
+     */
+    Promise<MessageReceipt> acquire(final Message message) throws NSQException {
+        final Entry entry = new Entry(message.getMessageCount(), sizeOf(message));
+        if (!tryReserve(entry)) {
+            switch (policy) {
+                case BLOCK:
+                    if (inEventLoop()) {
+                        throw new NSQSendBufferFullException("Send buffer is full, and publish in event loop does not wait for room, messages: "
+                                + count.get() + ", bytes: " + bytes.get());
+                    }
+                    awaitRoom(entry);
+                    break;
+                case DROP_OLDEST:
+                    dropForRoom(entry);
+                    break;
+                default:
+                    throw new NSQSendBufferFullException("Send buffer is full, messages: " + count.get() + ", bytes: " + bytes.get());
+            }
+        }
+        if (policy == NSQConfig.SendBufferPolicy.DROP_OLDEST) {
+            lock.lock();
+            try {
+                discardSent();
+                unsent.add(entry);
+            } finally {
+                lock.unlock();
+            }
+        }
+        entry.addListener(this);
+        return entry;
+    }
+
+    /**
+     * Mark message as written to nsqd, after which it is not dropped for newer messages.
+     *
+     * @param promise promise of message publish
+     * @return {@link Boolean#FALSE} if message has been dropped and should not be sent.
+     */
+    static boolean markSent(final Promise<MessageReceipt> promise) {
+        return !(promise instanceof Entry) || ((Entry) promise).markSent();
+    }
+
+    int getCount() {
+        return count.get();
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * publish completes, free its room
+     */
+    @Override
+    public void operationComplete(final Future<MessageReceipt> future) throws Exception {
+        release((Entry) future);
+    }
+
+    private static long sizeOf(final Message message) {
+        if (message.getMessageCount() == 1) {
+            return message.getMessageBodyInByte().length;
+        }
+        long size = 0;
+        for (byte[] body : message.getMessageBodiesInByte()) {
+            size += body.length;
+        }
+        return size;
+    }
+
+    /**
+     * message larger than whole buffer is accepted only when buffer is empty.
+     */
+    private boolean tryReserve(final Entry entry) {
+        while (true) {
+            final int c = count.get();
+            if (c != 0 && c + entry.count > maxCount) {
+                return false;
+            }
+            if (count.compareAndSet(c, c + entry.count)) {
+                break;
+            }
+        }
+        while (true) {
+            final long b = bytes.get();
+            if (b != 0 && b + entry.size > maxBytes) {
+                count.addAndGet(-entry.count);
+                signalWaiters();
+                return false;
+            }
+            if (bytes.compareAndSet(b, b + entry.size)) {
+                return true;
+            }
+        }
+    }
+
+    private void release(final Entry entry) {
+        count.addAndGet(-entry.count);
+        bytes.addAndGet(-entry.size);
+        signalWaiters();
+    }
+
+    private void signalWaiters() {
+        if (waiters > 0) {
+            lock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void awaitRoom(final Entry entry) throws NSQException {
+        lock.lock();
+        try {
+            waiters++;
+            long nanos = blockTimeoutInNano;
+            while (!tryReserve(entry)) {
+                if (nanos <= 0) {
+                    throw new NSQSendBufferFullException("Send buffer is still full after waiting for " + TimeUnit.NANOSECONDS.toMillis(blockTimeoutInNano)
+                            + " milliSec, messages: " + count.get() + ", bytes: " + bytes.get());
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NSQException("Interrupted waiting for room in send buffer.", e);
+        } finally {
+            waiters--;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * drop oldest messages not sent yet, till there is room for message passin. Dropped message is failed out of lock,
+     * as listeners of its promise run in current thread.
+     */
+    private void dropForRoom(final Entry entry) throws NSQException {
+        do {
+            final Entry oldest = pollUnsent();
+            if (null == oldest) {
+                throw new NSQSendBufferFullException("Send buffer is full of messages being sent, messages: " + count.get() + ", bytes: " + bytes.get());
+            }
+            oldest.tryFailure(new NSQSendBufferFullException("Message is dropped from full send buffer for newer messages."));
+        } while (!tryReserve(entry));
+    }
+
+    private Entry pollUnsent() {
+        lock.lock();
+        try {
+            Entry entry;
+            while (null != (entry = unsent.poll())) {
+                if (entry.markDropped()) {
+                    return entry;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * discard messages sent or completed at head of unsent queue, with lock held.
+     */
+    private void discardSent() {
+        Entry head;
+        while (null != (head = unsent.peek()) && !head.isUnsent()) {
+            unsent.poll();
+        }
+    }
+
+    private boolean inEventLoop() {
+        if (null == eventLoops) {
+            return false;
+        }
+        for (EventExecutor executor : eventLoops) {
+            if (executor.inEventLoop()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * promise of message publish which holds room in buffer.
+     */
+    private static final class Entry extends ImmediatePromise<MessageReceipt> {
+        private static final int UNSENT = 0;
+        private static final int SENT = 1;
+        private static final int DROPPED = 2;
+
+        private final int count;
+        private final long size;
+        private final AtomicInteger state = new AtomicInteger(UNSENT);
+
+        Entry(int count, long size) {
+            this.count = count;
+            this.size = size;
+        }
+
+        boolean markSent() {
+            return state.compareAndSet(UNSENT, SENT) || state.get() == SENT;
+        }
+
+        boolean markDropped() {
+            return !isDone() && state.compareAndSet(UNSENT, DROPPED);
+        }
+
+        boolean isUnsent() {
+            return state.get() == UNSENT && !isDone();
+        }
+    }
+}
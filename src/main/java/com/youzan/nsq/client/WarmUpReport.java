@@ -0,0 +1,145 @@
+package com.youzan.nsq.client;
+
+/**
+ * Report of producer warm up in {@link Producer#start(String...)}, which looks up topics and prepares connections to
+ * nsqd of them. Lookup and connection phases are timed in wall clock, while TCP connect and IDENTIFY are summed over
+ * connections created during warm up, which run concurrently.
+ */
+public class WarmUpReport {
+    private int topics;
+    private int topicsFailed;
+    private int addresses;
+    private int addressesFailed;
+    private int connections;
+    private long lookupMillis;
+    private long prepareMillis;
+    private long connectMillis;
+    private long identifyMillis;
+    private long elapsedMillis;
+    private boolean timedOut;
+
+    /**
+     * @return {@link Boolean#TRUE} if all topics are looked up, and connections to all nsqd are prepared, before
+     * warm up deadline.
+     */
+    public boolean isComplete() {
+        return !timedOut && topicsFailed == 0 && addressesFailed == 0;
+    }
+
+    public int getTopics() {
+        return topics;
+    }
+
+    void setTopics(int topics) {
+        this.topics = topics;
+    }
+
+    /**
+     * @return number of topics which fail in lookup, or are not looked up before deadline.
+     */
+    public int getTopicsFailed() {
+        return topicsFailed;
+    }
+
+    void setTopicsFailed(int topicsFailed) {
+        this.topicsFailed = topicsFailed;
+    }
+
+    /**
+     * @return number of nsqd addresses of topics
+     */
+    public int getAddresses() {
+        return addresses;
+    }
+
+    void setAddresses(int addresses) {
+        this.addresses = addresses;
+    }
+
+    /**
+     * @return number of nsqd addresses connections to which fail, or are not prepared before deadline.
+     */
+    public int getAddressesFailed() {
+        return addressesFailed;
+    }
+
+    void setAddressesFailed(int addressesFailed) {
+        this.addressesFailed = addressesFailed;
+    }
+
+    /**
+     * @return number of connections created during warm up
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    void setConnections(int connections) {
+        this.connections = connections;
+    }
+
+    public long getLookupMillis() {
+        return lookupMillis;
+    }
+
+    void setLookupMillis(long lookupMillis) {
+        this.lookupMillis = lookupMillis;
+    }
+
+    public long getPrepareMillis() {
+        return prepareMillis;
+    }
+
+    void setPrepareMillis(long prepareMillis) {
+        this.prepareMillis = prepareMillis;
+    }
+
+    /**
+     * @return time spent in TCP connect, summed over connections created
+     */
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    void setConnectMillis(long connectMillis) {
+        this.connectMillis = connectMillis;
+    }
+
+    /**
+     * @return time spent in protocol negotiation including IDENTIFY, summed over connections created
+     */
+    public long getIdentifyMillis() {
+        return identifyMillis;
+    }
+
+    void setIdentifyMillis(long identifyMillis) {
+        this.identifyMillis = identifyMillis;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return {@link Boolean#TRUE} if warm up stops at deadline, before all topics and connections are done.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    void setTimedOut(boolean timedOut) {
+        this.timedOut = timedOut;
+    }
+
+    @Override
+    public String toString() {
+        return "WarmUpReport{topics=" + topics + ", topicsFailed=" + topicsFailed + ", addresses=" + addresses
+                + ", addressesFailed=" + addressesFailed + ", connections=" + connections + ", lookupMillis=" + lookupMillis
+                + ", prepareMillis=" + prepareMillis + ", connectMillis=" + connectMillis + ", identifyMillis=" + identifyMillis
+                + ", elapsedMillis=" + elapsedMillis + ", timedOut=" + timedOut + "}";
+    }
+}
@@ -0,0 +1,155 @@
+package com.youzan.nsq.client.core;
+
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.util.NamedThreadFactory;
+import com.youzan.nsq.client.network.netty.NettyTransports;
+import io.netty.channel.EventLoopGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Netty event loop group, scheduler and executors shared by producers and consumers which opt in with
+ * {@link NSQConfig#setUseSharedRuntime(boolean)}, in place of threads each client creates on its own.
+ * Runtime is reference counted, it is created with config of first client acquiring it, and shut down when last
+ * client releases it. Pool sizes and transport of runtime are those of first client, a warning is logged when later
+ * client asks for different ones. Clients running on shared runtime cancel their own scheduled jobs on close, and never shut
+ * down shared executors.
+ */
+public final class ClientRuntime {
+    private static final Logger logger = LoggerFactory.getLogger(ClientRuntime.class);
+
+    private static final Object LOCK = new Object();
+    //guarded by LOCK
+    private static ClientRuntime instance = null;
+    private int refCnt = 0;
+
+    private final EventLoopGroup eventLoopGroup;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ExecutorService jobExecutor;
+    private final ExecutorService workerExecutor;
+    //settings runtime is created with
+    private final NSQConfig.Transport transport;
+    private final int nettyPoolSize;
+    private final int jobPoolSize;
+    private final int workerPoolSize;
+
+    private ClientRuntime(final NSQConfig config) {
+        int cpu = Runtime.getRuntime().availableProcessors();
+        this.transport = config.getTransport();
+        this.nettyPoolSize = config.getNettyPoolSize();
+        this.jobPoolSize = jobPoolSize(config);
+        this.workerPoolSize = config.getConsumerWorkerPoolSize();
+        this.eventLoopGroup = NettyTransports.newEventLoopGroup(config, config.getNettyPoolSize(), new NamedThreadFactory("nsq-shared-io", Thread.MAX_PRIORITY));
+        this.scheduler = new ScheduledThreadPoolExecutor(Math.max(2, cpu), new NamedThreadFactory("nsq-shared-scheduler", Thread.NORM_PRIORITY));
+        //cancelled jobs of closed clients do not stay in queue
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        this.jobExecutor = Executors.newFixedThreadPool(this.jobPoolSize, new NamedThreadFactory("nsq-shared-job", Thread.NORM_PRIORITY));
+        this.workerExecutor = Executors.newFixedThreadPool(this.workerPoolSize, new NamedThreadFactory("nsq-shared-worker", Thread.MAX_PRIORITY));
+    }
+
+    private static int jobPoolSize(final NSQConfig config) {
+        return Math.max(Runtime.getRuntime().availableProcessors(), config.getPublishWorkerPoolSize());
+    }
+
+    /**
+     * acquire shared runtime, and create it with pass in config if there is not one. Each acquire needs to be paired
+     * with one {@link #release()}.
+     * @param config config of client acquiring runtime
+     * @return shared client runtime
+     */
+    public static ClientRuntime acquire(final NSQConfig config) {
+        synchronized (LOCK) {
+            if (null == instance) {
+                instance = new ClientRuntime(config);
+                logger.info("Shared client runtime created.");
+            } else {
+                instance.warnIfMismatched(config);
+            }
+            instance.refCnt++;
+            return instance;
+        }
+    }
+
+    /**
+     * shared runtime is not resized for later client, warn if it asks for settings different from those of runtime.
+     */
+    private void warnIfMismatched(final NSQConfig config) {
+        if (config.getTransport() != transport || config.getNettyPoolSize() != nettyPoolSize
+                || jobPoolSize(config) != jobPoolSize || config.getConsumerWorkerPoolSize() != workerPoolSize) {
+            logger.warn("Shared client runtime is created with transport: {}, netty pool size: {}, job pool size: {}, worker pool size: {}, "
+                            + "and it is NOT changed for client asking for transport: {}, netty pool size: {}, job pool size: {}, worker pool size: {}.",
+                    transport, nettyPoolSize, jobPoolSize, workerPoolSize,
+                    config.getTransport(), config.getNettyPoolSize(), jobPoolSize(config), config.getConsumerWorkerPoolSize());
+        }
+    }
+
+    /**
+     * release shared runtime, which is shut down once all clients acquiring it release it.
+     */
+    public void release() {
+        synchronized (LOCK) {
+            if (refCnt <= 0) {
+                logger.warn("Shared client runtime released more than acquired.");
+                return;
+            }
+            if (--refCnt > 0) {
+                return;
+            }
+            if (instance == this) {
+                instance = null;
+            }
+        }
+        scheduler.shutdownNow();
+        jobExecutor.shutdown();
+        workerExecutor.shutdown();
+        eventLoopGroup.shutdownGracefully(1, 2, TimeUnit.SECONDS);
+        logger.info("Shared client runtime shut down.");
+    }
+
+    /**
+     * @return number of client components holding current runtime
+     */
+    public int getReferenceCount() {
+        synchronized (LOCK) {
+            return refCnt;
+        }
+    }
+
+    public boolean isShutdown() {
+        return scheduler.isShutdown();
+    }
+
+    /**
+     * @return netty event loop group for connections to nsqd
+     */
+    public EventLoopGroup getEventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    /**
+     * @return scheduler for periodic jobs, like lookup, connection maintaining and RDY redistribution
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return executor for short jobs, like connection backoff and resume, and asynchronous publish
+     */
+    public ExecutorService getJobExecutor() {
+        return jobExecutor;
+    }
+
+    /**
+     * @return executor for consumer message handlers
+     */
+    public ExecutorService getWorkerExecutor() {
+        return workerExecutor;
+    }
+}
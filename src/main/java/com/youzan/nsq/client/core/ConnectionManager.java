@@ -3,6 +3,7 @@ package com.youzan.nsq.client.core;
 import com.youzan.nsq.client.IConsumeInfo;
 import com.youzan.nsq.client.core.command.Rdy;
 import com.youzan.nsq.client.entity.Address;
+import com.youzan.nsq.client.entity.NSQConfig;
 import com.youzan.util.NamedThreadFactory;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
@@ -30,9 +31,12 @@ public class ConnectionManager {
     private static final float PROOFREAD_FACTOR_DEFAULT = 1f;
 
     //executor for backoff & resume
-    private final ExecutorService exec = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new NamedThreadFactory("connMgr-job", Thread.NORM_PRIORITY));
+    private final ExecutorService exec;
     //schedule executor for rdy redistribute & expected rdy update
-    private final ScheduledExecutorService scheduleExec = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("rdy-distribute", Thread.NORM_PRIORITY));
+    private final ScheduledExecutorService scheduleExec;
+    //shared runtime which executors belong to, null if executors are owned by current connection manager
+    private final ClientRuntime runtime;
+    private volatile ScheduledFuture<?> redistributeFuture;
 
     private final int INIT_DELAY = 5;
     private final int INTERVAL = 5;
@@ -40,6 +44,7 @@ public class ConnectionManager {
     private final int RDY_TIMEOUT = 100;
 
     private AtomicBoolean start = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
     private final Runnable REDISTRIBUTE_RUNNABLE = new Runnable() {
         @Override
         public void run() {
@@ -53,7 +58,25 @@ public class ConnectionManager {
 
     private final IConsumeInfo ci;
     public ConnectionManager(IConsumeInfo consumer) {
+        this(consumer, null);
+    }
+
+    /**
+     * @param consumer consumer info
+     * @param config config of consumer, connection manager runs jobs on {@link ClientRuntime} if shared runtime is
+     *               on in config, which is released in {@link #close()}, otherwise it creates its own executors.
+     */
+    public ConnectionManager(IConsumeInfo consumer, NSQConfig config) {
         this.ci = consumer;
+        if (null != config && config.isUseSharedRuntime()) {
+            this.runtime = ClientRuntime.acquire(config);
+            this.exec = this.runtime.getJobExecutor();
+            this.scheduleExec = this.runtime.getScheduler();
+        } else {
+            this.runtime = null;
+            this.exec = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new NamedThreadFactory("connMgr-job", Thread.NORM_PRIORITY));
+            this.scheduleExec = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("rdy-distribute", Thread.NORM_PRIORITY));
+        }
     }
 
     public Runnable getRedistributeRunnable() {
@@ -202,13 +225,13 @@ public class ConnectionManager {
     public void start() {
         if(!start.compareAndSet(false, true))
             return;
-        scheduleExec.scheduleWithFixedDelay(REDISTRIBUTE_RUNNABLE, INIT_DELAY, INTERVAL, TimeUnit.SECONDS);
+        redistributeFuture = scheduleExec.scheduleWithFixedDelay(REDISTRIBUTE_RUNNABLE, INIT_DELAY, INTERVAL, TimeUnit.SECONDS);
     }
 
     public void start(int initDelay) {
         if(!start.compareAndSet(false, true))
             return;
-        scheduleExec.scheduleWithFixedDelay(REDISTRIBUTE_RUNNABLE, initDelay, INTERVAL, TimeUnit.SECONDS);
+        redistributeFuture = scheduleExec.scheduleWithFixedDelay(REDISTRIBUTE_RUNNABLE, initDelay, INTERVAL, TimeUnit.SECONDS);
     }
 
     boolean isStart() {
@@ -217,7 +240,16 @@ public class ConnectionManager {
 
     //TODO: close
     public void close() {
-        scheduleExec.shutdownNow();
+        if (null == runtime) {
+            scheduleExec.shutdownNow();
+            return;
+        }
+        if (closed.compareAndSet(false, true)) {
+            if (null != redistributeFuture) {
+                redistributeFuture.cancel(true);
+            }
+            runtime.release();
+        }
     }
 
     /**
@@ -447,7 +479,7 @@ public class ConnectionManager {
         final int expectedRdy = con.getExpectedRdy();
         if (expectedRdy != currentRdy) {
             final int newRdy = expectedRdy;
-            ChannelFuture future = con.command(new Rdy(newRdy));
+            ChannelFuture future = con.command(Rdy.valueOf(newRdy));
             if(null != future) {
                 future.addListener(new ChannelFutureListener() {
                     @Override
@@ -467,6 +499,19 @@ public class ConnectionManager {
         }
     }
 
+    /**
+     * send expected rdy of connection to nsqd at once, instead of waiting for next rdy redistribution. Rdy of backoff
+     * topic is untouched.
+     * @param conn nsqd partition connection
+     */
+    public void updateRdy(final NSQConnection conn) {
+        final ConnectionWrapperSet subs = topic2Subs.get(conn.getTopic().getTopicText());
+        if (null == subs || subs.isBackoff()) {
+            return;
+        }
+        mayUpdateRdy(conn, subs, new CountDownLatch(1));
+    }
+
     private void redistributeRdy() {
        for(String topic:topic2Subs.keySet()) {
            final ConnectionWrapperSet subs = topic2Subs.get(topic);
@@ -0,0 +1,24 @@
+package com.youzan.nsq.client.core;
+
+import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+/**
+ * {@link io.netty.util.concurrent.Promise} for results of SDK asynchronous operations. Listeners are notified in the
+ * thread which completes the promise, which is usually a netty event loop or the producer publish worker, so
+ * listeners are expected to be light weight. Unlike promises bound to an event loop, waiting on it is allowed in any
+ * thread.
+ *
+ * @param <V> result type
+ */
+public class ImmediatePromise<V> extends DefaultPromise<V> {
+
+    public ImmediatePromise() {
+        super(ImmediateEventExecutor.INSTANCE);
+    }
+
+    @Override
+    protected void checkDeadLock() {
+        //there is no event loop to dead lock
+    }
+}
@@ -11,6 +11,7 @@ import com.youzan.nsq.client.network.frame.NSQFrame;
 import com.youzan.nsq.client.network.frame.ResponseFrame;
 import io.netty.channel.ChannelFuture;
 import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.Future;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -81,8 +82,29 @@ public interface NSQConnection extends Closeable {
      */
     NSQFrame commandAndGetResponse(final NSQCommand command) throws TimeoutException, NSQNoConnectionException;
 
+    /**
+     * Write command which expects a response from nsqd without waiting for it. Pending commands are kept in write
+     * order and completed by responses from nsqd in FIFO order, at most
+     * {@link NSQConfig#getMaxInFlightCommandsPerConnection()} commands are in flight in one connection.
+     *
+     * @param command a {@link NSQCommand}
+     * @return future of {@link NSQFrame} responded, it fails with {@link TimeoutException} when in-flight window is
+     * not available in query timeout, or {@link NSQNoConnectionException} when connection is closed.
+     */
+    Future<NSQFrame> commandAndGetResponseAsync(final NSQCommand command);
+
     ChannelFuture command(final NSQCommand command);
 
+    /**
+     * Write acknowledgement command like FIN, REQ and TOUCH, which is flushed together with other acknowledgements of
+     * current connection in next event loop tick, or when {@link NSQConfig#getConsumerAckFlushThreshold()} commands
+     * are pending.
+     *
+     * @param command a {@link NSQCommand}
+     * @return future of command written and flushed
+     */
+    ChannelFuture acknowledge(final NSQCommand command);
+
     void addResponseFrame(ResponseFrame frame);
 
     void addErrorFrame(ErrorFrame frame);
@@ -93,6 +115,11 @@ public interface NSQConnection extends Closeable {
      */
     boolean isExtend();
 
+    /**
+     * @return number of pipelined commands written via current connection and waiting for response.
+     */
+    int getInFlightCount();
+
     /**
      * {@link Boolean#TRUE} when {@link com.youzan.nsq.client.core.command.Identify} is issued via current connection, else {@link Boolean#FALSE}
      * @return whether identity sent
@@ -14,13 +14,22 @@ import com.youzan.util.SystemUtil;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.concurrent.CountDownLatch;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -49,6 +58,10 @@ public class NSQConnectionImpl implements Serializable, NSQConnection, Comparabl
     protected final LinkedBlockingQueue<NSQCommand> requests = new LinkedBlockingQueue<>(1);
     protected final LinkedBlockingQueue<NSQFrame> responses = new LinkedBlockingQueue<>(1);
 
+    //pipelined commands waiting for response, in the order they are written
+    private final Queue<Promise<NSQFrame>> inFlight = new ConcurrentLinkedQueue<>();
+    private final Semaphore inFlightWindow;
+
     private final Address address;
     protected final Channel channel;
     //topic for subscribe
@@ -71,6 +84,20 @@ public class NSQConnectionImpl implements Serializable, NSQConnection, Comparabl
     //max_msg_timeout
     private int maxMsgTimeout = 0;
 
+    //acknowledgements written and not flushed, accessed in event loop of channel only
+    private int pendingAcks = 0;
+    private boolean ackFlushScheduled = false;
+    private final Runnable flushAcks = new Runnable() {
+        @Override
+        public void run() {
+            ackFlushScheduled = false;
+            if (pendingAcks > 0) {
+                pendingAcks = 0;
+                channel.flush();
+            }
+        }
+    };
+
     private volatile long lastMsgTouched;
     private volatile long lastMsgConsumptionFailed;
 
@@ -79,8 +106,10 @@ public class NSQConnectionImpl implements Serializable, NSQConnection, Comparabl
         this.address = address;
         this.channel = channel;
         this.config = config;
-        this.expectedRdy.set(NSQConfig.DEFAULT_RDY);
+        this.expectedRdy.set(capRdy(NSQConfig.DEFAULT_RDY));
         this.queryTimeoutInMillisecond = config.getQueryTimeoutInMillisecond();
+        this.inFlightWindow = new Semaphore(config.getMaxInFlightCommandsPerConnection());
+        watchChannelClose();
         if(address.isTopicExtend()) {
             isExtend = Boolean.TRUE;
         } else {
@@ -93,8 +122,10 @@ public class NSQConnectionImpl implements Serializable, NSQConnection, Comparabl
         this.address = address;
         this.channel = channel;
         this.config = config;
-        this.expectedRdy.set(computedRdyCeiling);
+        this.expectedRdy.set(capRdy(computedRdyCeiling));
         this.queryTimeoutInMillisecond = config.getQueryTimeoutInMillisecond();
+        this.inFlightWindow = new Semaphore(config.getMaxInFlightCommandsPerConnection());
+        watchChannelClose();
         if(address.isTopicExtend()) {
             isExtend = Boolean.TRUE;
         } else {
@@ -179,6 +210,47 @@ public class NSQConnectionImpl implements Serializable, NSQConnection, Comparabl
         return channel.writeAndFlush(cmd);
     }
 
+    @Override
+    public ChannelFuture acknowledge(final NSQCommand cmd) {
+        if (cmd == null) {
+            return null;
+        }
+        if (config.getConsumerAckFlushThreshold() <= 1) {
+            return command(cmd);
+        }
+        final ChannelPromise promise = channel.newPromise();
+        final EventLoop eventLoop = channel.eventLoop();
+        if (eventLoop.inEventLoop()) {
+            writeAck(cmd, promise);
+        } else {
+            try {
+                eventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeAck(cmd, promise);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                promise.tryFailure(e);
+            }
+        }
+        return promise;
+    }
+
+    /**
+     * write acknowledgement in event loop of channel, and flush pending ones when threshold is reached, or schedule a
+     * flush after acknowledgements already queued in event loop.
+     */
+    private void writeAck(final NSQCommand cmd, final ChannelPromise promise) {
+        channel.write(cmd, promise);
+        if (++pendingAcks >= config.getConsumerAckFlushThreshold()) {
+            flushAcks.run();
+        } else if (!ackFlushScheduled) {
+            ackFlushScheduled = true;
+            channel.eventLoop().execute(flushAcks);
+        }
+    }
+
     private NSQFrame _commandAndGetResposne(final NSQCommand command) throws TimeoutException, InterruptedException{
         final long start = System.currentTimeMillis();
         long timeout = queryTimeoutInMillisecond - (System.currentTimeMillis() - start);
@@ -188,35 +260,144 @@ public class NSQConnectionImpl implements Serializable, NSQConnection, Comparabl
         }
 
         // wait to get the response
-        final CountDownLatch sendLatch = new CountDownLatch(1);
         responses.clear(); // clear
-        // write data
+        // write data, wait on write future directly rather than a latch counted down by listener
         final ChannelFuture future = command(command);
+        timeout = queryTimeoutInMillisecond - (System.currentTimeMillis() - start);
+        if(!future.await(timeout, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException(
+                    "The command timeout in " + timeout + " milliSec. The command name is : " + command.getClass().getName());
+        }
+        if(!future.isSuccess()) {
+            Throwable cause = future.cause();
+            logger.warn("{} failed with exception: {}", command, cause == null ? null : cause.getMessage());
+        }
+        timeout = queryTimeoutInMillisecond - (System.currentTimeMillis() - start);
+        final NSQFrame frame = responses.poll(timeout, TimeUnit.MILLISECONDS);
+        if (frame == null) {
+            throw new TimeoutException(
+                    "The command timeout receiving response frame in " + timeout + " milliSec. The command name is : " + command.getClass().getName());
+        }
+
+        requests.poll(); // clear
+        return frame;
+    }
+
+    @Override
+    public Future<NSQFrame> commandAndGetResponseAsync(final NSQCommand command) {
+        final Promise<NSQFrame> promise = channel.eventLoop().newPromise();
+        if (!this._isConnected()) {
+            promise.setFailure(new NSQNoConnectionException(String.format("%s is not connected， command %s quit.", this, command)));
+            return promise;
+        }
+        try {
+            //never block event loop waiting for in-flight window
+            boolean acquired = channel.eventLoop().inEventLoop() ? inFlightWindow.tryAcquire()
+                    : inFlightWindow.tryAcquire(queryTimeoutInMillisecond, TimeUnit.MILLISECONDS);
+            if (!acquired) {
+                promise.setFailure(new TimeoutException(
+                        "In-flight window of " + config.getMaxInFlightCommandsPerConnection() + " is full in " + queryTimeoutInMillisecond + " milliSec. The command name is : " + command.getClass().getName()));
+                return promise;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            promise.setFailure(new NSQNoConnectionException(String.format("%s is interrupted， command %s quit.", this, command), e));
+            return promise;
+        }
+
+        final ChannelFuture future;
+        //response is matched with command in write order, enqueue and write need to be atomic
+        synchronized (inFlight) {
+            inFlight.offer(promise);
+            future = command(command);
+        }
+        //a timed out command stays in flight, as its response comes in order anyway
+        scheduleTimeout(command, promise);
         future.addListener(new ChannelFutureListener() {
             @Override
             public void operationComplete(ChannelFuture future) throws Exception {
-                if(!future.isSuccess()) {
+                if (!future.isSuccess() && inFlight.remove(promise)) {
+                    inFlightWindow.release();
                     Throwable cause = future.cause();
                     logger.warn("{} failed with exception: {}", command, cause == null ? null : cause.getMessage());
+                    promise.tryFailure(new NSQNoConnectionException(String.format("Fail to write command %s to %s.", command, address), cause));
                 }
-                sendLatch.countDown();
             }
         });
+        //in-flight commands written to a closed connection will never get response
+        if (closing.get()) {
+            failInFlight();
+        }
+        return promise;
+    }
 
-        timeout = queryTimeoutInMillisecond - (System.currentTimeMillis() - start);
-        if(!sendLatch.await(timeout, TimeUnit.MILLISECONDS)) {
-            throw new TimeoutException(
-                    "The command timeout in " + timeout + " milliSec. The command name is : " + command.getClass().getName());
+    /**
+     * fail passin promise in query timeout on event loop of channel, if no response completes it before.
+     */
+    private void scheduleTimeout(final NSQCommand command, final Promise<NSQFrame> promise) {
+        final ScheduledFuture<?> timeout;
+        try {
+            timeout = channel.eventLoop().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    promise.tryFailure(new TimeoutException(
+                            "The command timeout receiving response frame in " + queryTimeoutInMillisecond + " milliSec. The command name is : " + command.getClass().getName()));
+                }
+            }, queryTimeoutInMillisecond, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //event loop is shut down, in-flight commands are failed as channel closes
+            return;
         }
-        timeout = queryTimeoutInMillisecond - (System.currentTimeMillis() - start);
-        final NSQFrame frame = responses.poll(timeout, TimeUnit.MILLISECONDS);
-        if (frame == null) {
+        promise.addListener(new FutureListener<NSQFrame>() {
+            @Override
+            public void operationComplete(Future<NSQFrame> future) throws Exception {
+                timeout.cancel(false);
+            }
+        });
+    }
+
+    private NSQFrame _pipelinedCommandAndGetResponse(final NSQCommand command) throws TimeoutException, InterruptedException, NSQNoConnectionException {
+        final long start = System.currentTimeMillis();
+        final Future<NSQFrame> future = commandAndGetResponseAsync(command);
+        long timeout = queryTimeoutInMillisecond - (System.currentTimeMillis() - start);
+        //a timed out command stays in flight, as its response comes in order anyway
+        if (!future.await(timeout, TimeUnit.MILLISECONDS)) {
             throw new TimeoutException(
                     "The command timeout receiving response frame in " + timeout + " milliSec. The command name is : " + command.getClass().getName());
         }
+        if (!future.isSuccess()) {
+            Throwable cause = future.cause();
+            if (cause instanceof TimeoutException) {
+                throw (TimeoutException) cause;
+            } else if (cause instanceof NSQNoConnectionException) {
+                throw (NSQNoConnectionException) cause;
+            }
+            throw new NSQNoConnectionException(String.format("%s fail in command %s.", this, command), cause);
+        }
+        return future.getNow();
+    }
 
-        requests.poll(); // clear
-        return frame;
+    private void watchChannelClose() {
+        if (null == channel) {
+            return;
+        }
+        channel.closeFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                failInFlight();
+            }
+        });
+    }
+
+    /**
+     * fail all pipelined commands waiting for response, as connection closed.
+     */
+    private void failInFlight() {
+        Promise<NSQFrame> pending;
+        while (null != (pending = inFlight.poll())) {
+            inFlightWindow.release();
+            pending.tryFailure(new NSQNoConnectionException(String.format("%s is closed before response received.", this)));
+        }
     }
 
     @Override
@@ -226,6 +407,9 @@ public class NSQConnectionImpl implements Serializable, NSQConnection, Comparabl
                 throw new NSQNoConnectionException(String.format("%s is not connected， command %s quit.", this, command));
             }
 
+            if (config.isPipelined()) {
+                return _pipelinedCommandAndGetResponse(command);
+            }
             return _commandAndGetResposne(command);
         } catch (InterruptedException e) {
             logger.error("Thread was interrupted, probably shutting down! Close connection!", e);
@@ -234,8 +418,25 @@ public class NSQConnectionImpl implements Serializable, NSQConnection, Comparabl
         }
     }
 
+    /**
+     * complete the eldest pipelined command with frame from nsqd.
+     * @return {@link Boolean#FALSE} if there is no pipelined command in flight.
+     */
+    protected boolean completeInFlight(final NSQFrame frame) {
+        final Promise<NSQFrame> pending = inFlight.poll();
+        if (null == pending) {
+            return false;
+        }
+        inFlightWindow.release();
+        pending.trySuccess(frame);
+        return true;
+    }
+
     @Override
     public void addResponseFrame(ResponseFrame frame) {
+        if (completeInFlight(frame)) {
+            return;
+        }
         if (!requests.isEmpty()) {
             try {
                 responses.offer(frame, queryTimeoutInMillisecond * 2, TimeUnit.MILLISECONDS);
@@ -250,6 +451,9 @@ public class NSQConnectionImpl implements Serializable, NSQConnection, Comparabl
 
     @Override
     public void addErrorFrame(ErrorFrame frame) {
+        if (completeInFlight(frame)) {
+            return;
+        }
         try {
             responses.offer(frame, queryTimeoutInMillisecond, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
@@ -276,6 +480,11 @@ public class NSQConnectionImpl implements Serializable, NSQConnection, Comparabl
         return !closing.get() && channel.isActive();
     }
 
+    @Override
+    public int getInFlightCount() {
+        return config.getMaxInFlightCommandsPerConnection() - inFlightWindow.availablePermits();
+    }
+
     @Override
     public boolean isIdentitySent() {
         return _isConnected() && identitySent.get();
@@ -302,6 +511,7 @@ public class NSQConnectionImpl implements Serializable, NSQConnection, Comparabl
             if(this.isSubSent())
                 this.onClose();
             _clear();
+            failInFlight();
         }
         logger.info("End clear {}", this);
     }
@@ -353,7 +563,7 @@ public class NSQConnectionImpl implements Serializable, NSQConnection, Comparabl
             return;
         }
 
-        command(new Rdy(rdy)).addListener(new ChannelFutureListener() {
+        command(Rdy.valueOf(rdy)).addListener(new ChannelFutureListener() {
             @Override
             public void operationComplete(ChannelFuture channelFuture) throws Exception {
                 if (channelFuture.isSuccess()) {
@@ -384,6 +594,8 @@ public class NSQConnectionImpl implements Serializable, NSQConnection, Comparabl
 
     private void _onClose() {
         //closing signal is updated here
+        //CLS is sent in lock step, pipelined commands still in flight would take its response
+        failInFlight();
         try {
             this._commandAndGetResposne(Close.getInstance());
         } catch (TimeoutException e) {
@@ -404,7 +616,7 @@ public class NSQConnectionImpl implements Serializable, NSQConnection, Comparabl
         }
         if(backoff.compareAndSet(true, false)) {
             final int rdy = INIT_RDY;
-            command(new Rdy(rdy)).addListener(new ChannelFutureListener() {
+            command(Rdy.valueOf(rdy)).addListener(new ChannelFutureListener() {
                 @Override
                 public void operationComplete(ChannelFuture channelFuture) throws Exception {
                     if(channelFuture.isSuccess()) {
@@ -462,24 +674,32 @@ public class NSQConnectionImpl implements Serializable, NSQConnection, Comparabl
 
     public boolean declineExpectedRdy() {
         int currentExpRdy = this.expectedRdy.get();
-        int newExpRdy = this.config.getExpectedRdyUpdatePolicy().expectedRdyDecline(currentExpRdy,
-                this.config.getRdy());
+        int newExpRdy = capRdy(this.config.getExpectedRdyUpdatePolicy().expectedRdyDecline(currentExpRdy,
+                this.config.getRdy()));
         return this.expectedRdy.compareAndSet(currentExpRdy, newExpRdy);
     }
 
     public boolean increaseExpectedRdy(int rdyCeiling) {
         int currentExpRdy = this.expectedRdy.get();
         rdyCeiling = this.config.isRdyOverride() ? this.config.getRdy() : rdyCeiling;
-        int newExpRdy = this.config.getExpectedRdyUpdatePolicy().expectedRdyIncrease(currentExpRdy,
-                rdyCeiling);
+        int newExpRdy = capRdy(this.config.getExpectedRdyUpdatePolicy().expectedRdyIncrease(currentExpRdy,
+                rdyCeiling));
         return this.expectedRdy.compareAndSet(currentExpRdy, newExpRdy);
     }
 
+    /**
+     * nsqd sends no more messages in flight than RDY, which is capped by consumer dispatch queue of connection.
+     */
+    private int capRdy(int rdy) {
+        return Math.min(rdy, this.config.getConsumerDispatchQueueSize());
+    }
+
     public int getExpectedRdy() {
         return this.expectedRdy.get();
     }
 
     public void setExpectedRdy(int expectedRdy) {
+        expectedRdy = capRdy(expectedRdy);
         int originalExpectedRdy = this.expectedRdy.get();
         if(originalExpectedRdy != expectedRdy && this.expectedRdy.compareAndSet(originalExpectedRdy, expectedRdy))
             logger.info("Expected rdy set to {} from {}, connection: {}", expectedRdy, originalExpectedRdy, this);
@@ -58,7 +58,12 @@ public class NSQSimpleClient implements Client, Closeable {
     /*
      *single schedule executor for maintaining topic to partition map
      */
-    private ScheduledExecutorService scheduler;
+    private final ScheduledExecutorService scheduler;
+    //shared runtime which scheduler belongs to, null if scheduler is owned by current client
+    private final ClientRuntime runtime;
+    private volatile ScheduledFuture<?> dataNodesFuture;
+    //guarded by lock
+    private boolean runtimeReleased = false;
 
     /*
      * role of client current simple client nested
@@ -73,8 +78,14 @@ public class NSQSimpleClient implements Client, Closeable {
         this.lookup = new LookupServiceImpl(role, this.lookupLocalID);
         this.useLocalLookupd = localLookupd;
         String consumerName = (null == config || role != Role.Consumer) ? "-null" : "-" + config.getConsumerName();
-        scheduler = Executors
-                .newSingleThreadScheduledExecutor(new NamedThreadFactory(this.getClass().getName() + "-" + role.getRoleTxt() + consumerName, Thread.MAX_PRIORITY));
+        if (null != config && config.isUseSharedRuntime()) {
+            this.runtime = ClientRuntime.acquire(config);
+            this.scheduler = this.runtime.getScheduler();
+        } else {
+            this.runtime = null;
+            this.scheduler = Executors
+                    .newSingleThreadScheduledExecutor(new NamedThreadFactory(this.getClass().getName() + "-" + role.getRoleTxt() + consumerName, Thread.MAX_PRIORITY));
+        }
     }
 
     /**
@@ -131,7 +142,7 @@ public class NSQSimpleClient implements Client, Closeable {
      * schedule job to keep maintaining {@link this#topic_2_partitionsSelector}
      */
     private void keepDataNodes() {
-        scheduler.scheduleWithFixedDelay(new Runnable() {
+        dataNodesFuture = scheduler.scheduleWithFixedDelay(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -185,15 +196,8 @@ public class NSQSimpleClient implements Client, Closeable {
             throw new IllegalArgumentException("Topic is not allowed to be empty.");
         }
 
-        boolean syncExist;
-        topicSyncLock.readLock().lock();
-        try{
-            syncExist = topicSynMap.containsKey(topic);
-        }finally {
-            topicSyncLock.readLock().unlock();
-        }
-
-        if(!syncExist) {
+        //topic sync map is concurrent, topic already put is checked without lock
+        if(!topicSynMap.containsKey(topic)) {
             topicSyncLock.writeLock().lock();
             try {
                 if(!topicSynMap.containsKey(topic))
@@ -270,7 +274,27 @@ public class NSQSimpleClient implements Client, Closeable {
 
     @Override
     public void backoff(NSQConnection conn) {
-        conn.command(new Rdy(0));
+        conn.command(Rdy.BACK_OFF);
+    }
+
+    /**
+     * function fetches nsqd tcp addresses to publish message with pass in topic and sharding ID. Once partitions of
+     * topic are known and there is only one {@link Partitions} to choose, addresses are routed with its precomputed
+     * {@link com.youzan.nsq.client.entity.PartitionRouting} and returned without copying.
+     * @param topic             topic
+     * @param topicShardingID   shartdingID, default value is {@link Message#NO_SHARDING}
+     * @return array of nsqd nodes to publish to, which should not be modified.
+     * @throws NSQException exception raised in get nsqd node from lookup or nsqd partition node not found
+     */
+    public Address[] getPartitionNodesToWrite(Topic topic, Object topicShardingID) throws NSQException, InterruptedException {
+        IPartitionsSelector aPs = topic_2_partitionsSelector.get(topic.getTopicText());
+        if (null != aPs) {
+            Partitions[] partitions = aPs.choosePartitions();
+            if (partitions.length == 1 && null != partitions[0] && partitions[0].hasAnyDataNodes()) {
+                return partitions[0].getRouting().route(topic, topicShardingID);
+            }
+        }
+        return getPartitionNodes(topic, new Object[]{topicShardingID}, true);
     }
 
     /**
@@ -441,7 +465,17 @@ public class NSQSimpleClient implements Client, Closeable {
         if(lock.tryLock()) {
             try {
                 lookup.close();
-                scheduler.shutdownNow();
+                if (null != runtime) {
+                    if (null != dataNodesFuture) {
+                        dataNodesFuture.cancel(true);
+                    }
+                    if (!runtimeReleased) {
+                        runtimeReleased = true;
+                        runtime.release();
+                    }
+                } else {
+                    scheduler.shutdownNow();
+                }
                 topic_2_partitionsSelector.clear();
                 ps_lastInvalidated.clear();
                 topicSynMap.clear();
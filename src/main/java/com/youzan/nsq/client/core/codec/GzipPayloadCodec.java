@@ -0,0 +1,42 @@
+package com.youzan.nsq.client.core.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip codec from JDK, slower than {@link Lz4PayloadCodec} but with higher compression ratio and no extra library.
+ */
+public class GzipPayloadCodec implements PayloadCodec {
+    public static final String NAME = "gzip";
+    public static final GzipPayloadCodec INSTANCE = new GzipPayloadCodec();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(byte[] body) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public byte[] decode(byte[] encoded) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.length * 4);
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(encoded))) {
+            final byte[] buf = new byte[8192];
+            int read;
+            while ((read = gzip.read(buf)) > 0) {
+                out.write(buf, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,82 @@
+package com.youzan.nsq.client.core.codec;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * LZ4 block codec, encoded body is length of original body in 4 bytes, followed by LZ4 block. It needs lz4 library in
+ * classpath, which is an optional dependency of SDK.
+ */
+public class Lz4PayloadCodec implements PayloadCodec {
+    public static final String NAME = "lz4";
+    //length of original body
+    private static final int LENGTH_SIZE = 4;
+    //largest original body accepted in decoding, as message body of nsqd is far smaller
+    private static final int MAX_DECODED_LENGTH = 256 * 1024 * 1024;
+
+    private static volatile Lz4PayloadCodec instance = null;
+
+    private final LZ4Compressor compressor;
+    private final LZ4SafeDecompressor decompressor;
+
+    private Lz4PayloadCodec() {
+        final LZ4Factory factory = LZ4Factory.fastestInstance();
+        this.compressor = factory.fastCompressor();
+        this.decompressor = factory.safeDecompressor();
+    }
+
+    /**
+     * @return codec instance
+     * @throws LinkageError if lz4 library is not in classpath
+     */
+    public static Lz4PayloadCodec getInstance() {
+        if (null == instance) {
+            synchronized (Lz4PayloadCodec.class) {
+                if (null == instance) {
+                    instance = new Lz4PayloadCodec();
+                }
+            }
+        }
+        return instance;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(byte[] body) throws IOException {
+        final byte[] encoded = new byte[LENGTH_SIZE + compressor.maxCompressedLength(body.length)];
+        ByteBuffer.wrap(encoded).putInt(body.length);
+        final int len = compressor.compress(body, 0, body.length, encoded, LENGTH_SIZE, encoded.length - LENGTH_SIZE);
+        return Arrays.copyOf(encoded, LENGTH_SIZE + len);
+    }
+
+    @Override
+    public byte[] decode(byte[] encoded) throws IOException {
+        if (encoded.length < LENGTH_SIZE) {
+            throw new IOException("LZ4 encoded body is too short: " + encoded.length);
+        }
+        final int length = ByteBuffer.wrap(encoded).getInt();
+        if (length < 0 || length > MAX_DECODED_LENGTH) {
+            throw new IOException("Invalid length of LZ4 decoded body: " + length);
+        }
+        final byte[] body = new byte[length];
+        try {
+            final int decoded = decompressor.decompress(encoded, LENGTH_SIZE, encoded.length - LENGTH_SIZE, body, 0);
+            if (decoded != length) {
+                throw new IOException("LZ4 decoded body length " + decoded + " does not match " + length);
+            }
+        } catch (LZ4Exception e) {
+            throw new IOException("Fail to decode LZ4 body.", e);
+        }
+        return body;
+    }
+}
@@ -0,0 +1,20 @@
+package com.youzan.nsq.client.core.codec;
+
+import java.io.IOException;
+
+/**
+ * Codec of message body, which is applied by producer to large message body, and marked by its name in json header
+ * extension of message, so consumer decodes message body with codec of the same name, registered in
+ * {@link PayloadCodecs}.
+ */
+public interface PayloadCodec {
+
+    /**
+     * @return name of codec, which is marked in json header extension of message encoded.
+     */
+    String getName();
+
+    byte[] encode(byte[] body) throws IOException;
+
+    byte[] decode(byte[] encoded) throws IOException;
+}
@@ -0,0 +1,47 @@
+package com.youzan.nsq.client.core.codec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of {@link PayloadCodec} by name, where consumer looks up codec of message body. {@link GzipPayloadCodec}
+ * is always registered, and {@link Lz4PayloadCodec} is registered when lz4 library is in classpath. Codec other
+ * than them should be registered in both producer and consumer side.
+ */
+public final class PayloadCodecs {
+    private static final Logger logger = LoggerFactory.getLogger(PayloadCodecs.class);
+    private static final ConcurrentHashMap<String, PayloadCodec> CODECS = new ConcurrentHashMap<>();
+
+    static {
+        register(GzipPayloadCodec.INSTANCE);
+        try {
+            register(Lz4PayloadCodec.getInstance());
+        } catch (LinkageError e) {
+            logger.info("lz4 library not found, lz4 payload codec is not registered.");
+        }
+    }
+
+    private PayloadCodecs() {
+    }
+
+    /**
+     * register codec, which replaces codec registered with the same name.
+     * @param codec codec to register
+     */
+    public static void register(final PayloadCodec codec) {
+        if (null == codec || null == codec.getName() || codec.getName().isEmpty()) {
+            throw new IllegalArgumentException("Payload codec and its name should not be null.");
+        }
+        CODECS.put(codec.getName(), codec);
+    }
+
+    /**
+     * @param name name of codec
+     * @return codec registered with passin name, or null if there is not any.
+     */
+    public static PayloadCodec get(final String name) {
+        return CODECS.get(name);
+    }
+}
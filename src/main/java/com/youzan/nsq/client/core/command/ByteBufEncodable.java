@@ -0,0 +1,20 @@
+package com.youzan.nsq.client.core.command;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+/**
+ * Command which encodes itself into {@link ByteBuf} from allocator of channel, instead of building a heap byte array
+ * in {@link NSQCommand#getBytes()} and copying it into a netty buffer.
+ */
+public interface ByteBufEncodable {
+
+    /**
+     * Encode command with buffers from passin allocator. Message body larger than
+     * {@link Pub#WRAP_BODY_THRESHOLD} is wrapped without copy, so it should not be modified before publish completes.
+     *
+     * @param alloc allocator of channel command is written to
+     * @return encoded command, which is released after being written
+     */
+    ByteBuf encode(ByteBufAllocator alloc);
+}
@@ -0,0 +1,76 @@
+package com.youzan.nsq.client.core.command;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of encoded publish command headers, like "PUB &lt;topic&gt; &lt;partition&gt;\n", per command, topic and
+ * partition. Headers are encoded once and shared by all commands, so they should not be modified. Cache is bounded
+ * in number of topics and partition ID, headers out of bound are encoded each time.
+ */
+final class CommandHeaders {
+    static final int MAX_CACHED_TOPICS = 4096;
+    static final int MAX_CACHED_PARTITION = 1024;
+
+    //topic -> command name -> headers indexed by partition + 1, as -1 is for no partition
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, byte[][]>> HEADERS = new ConcurrentHashMap<>();
+
+    private CommandHeaders() {
+    }
+
+    /**
+     * @param command   command name, like PUB
+     * @param topic     topic text
+     * @param partition partition ID, -1 for header without partition
+     * @return encoded header, which is shared and should not be modified
+     */
+    static byte[] get(final String command, final String topic, int partition) {
+        if (partition < -1 || partition >= MAX_CACHED_PARTITION) {
+            return encode(command, topic, partition);
+        }
+        ConcurrentHashMap<String, byte[][]> topicHeaders = HEADERS.get(topic);
+        if (null == topicHeaders) {
+            if (HEADERS.size() >= MAX_CACHED_TOPICS) {
+                return encode(command, topic, partition);
+            }
+            ConcurrentHashMap<String, byte[][]> newHeaders = new ConcurrentHashMap<>(4);
+            topicHeaders = HEADERS.putIfAbsent(topic, newHeaders);
+            if (null == topicHeaders) {
+                topicHeaders = newHeaders;
+            }
+        }
+        byte[][] headers = topicHeaders.get(command);
+        if (null == headers || headers.length <= partition + 1 || null == headers[partition + 1]) {
+            headers = grow(topicHeaders, command, topic, partition);
+        }
+        return headers[partition + 1];
+    }
+
+    /**
+     * add header of passin partition, headers array is copied on write, so readers never see a partial array.
+     */
+    private static byte[][] grow(final ConcurrentHashMap<String, byte[][]> topicHeaders, final String command, final String topic, int partition) {
+        synchronized (topicHeaders) {
+            byte[][] headers = topicHeaders.get(command);
+            if (null != headers && headers.length > partition + 1 && null != headers[partition + 1]) {
+                return headers;
+            }
+            byte[][] newHeaders = new byte[Math.max(null == headers ? 0 : headers.length, partition + 2)][];
+            if (null != headers) {
+                System.arraycopy(headers, 0, newHeaders, 0, headers.length);
+            }
+            newHeaders[partition + 1] = encode(command, topic, partition);
+            topicHeaders.put(command, newHeaders);
+            return newHeaders;
+        }
+    }
+
+    static byte[] encode(final String command, final String topic, int partition) {
+        final StringBuilder header = new StringBuilder(command.length() + topic.length() + 13);
+        header.append(command).append(NSQCommand.SPACE_STR).append(topic);
+        if (partition > -1) {
+            header.append(NSQCommand.SPACE_STR).append(partition);
+        }
+        header.append((char) NSQCommand.LINE_SEPARATOR);
+        return header.toString().getBytes(NSQCommand.DEFAULT_CHARSET);
+    }
+}
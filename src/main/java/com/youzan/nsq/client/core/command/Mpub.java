@@ -4,6 +4,10 @@
 package com.youzan.nsq.client.core.command;
 
 import com.youzan.nsq.client.entity.Topic;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,28 +22,38 @@ import java.util.List;
 public class Mpub extends Pub implements NSQCommand{
     private static final Logger logger = LoggerFactory.getLogger(Mpub.class);
     private final List<byte[]> messages;
+    //messages count and segments of messages, encoded once and shared by every write of current command
+    private ByteBuf encodedMessages = null;
+    private int bodySize = -1;
 
     public Mpub(Topic topic, List<byte[]> messages) {
         super(topic);
         this.messages = messages;
     }
 
+    /**
+     * @return body size written after MPUB header, 4 for body size, 4 for total messages int, and 4 + message length
+     * for each message.
+     */
+    private int getBodySize() {
+        if (bodySize < 0) {
+            int size = 4 + 4;
+            for (byte[] data : this.getBody()) {
+                size += 4 + data.length;
+            }
+            bodySize = size;
+        }
+        return bodySize;
+    }
+
     @Override
     public byte[] getBytes() {
-        ByteBuffer buf = null;
-        byte[] header = this.getHeader().getBytes(NSQCommand.DEFAULT_CHARSET);
+        byte[] header = this.getHeaderBytes();
         //get MPUB body, which is a list containing multi messages
         List<byte[]> bodyL = this.getBody();
-        int bodySize = 4 + 4; // 4 for total messages int, another 4 for body size.
-        if (bodyL.size() > 1) {
-            // write total body size and message size
-            for (byte[] data : bodyL) {
-                bodySize += 4; // message size
-                bodySize += data.length;
-            }
-        }
+        int bodySize = getBodySize();
 
-        buf = ByteBuffer.allocate(header.length + bodySize);
+        ByteBuffer buf = ByteBuffer.allocate(header.length + bodySize);
         buf.put(header);
         buf.putInt(bodySize);
         buf.putInt(bodyL.size());
@@ -52,9 +66,70 @@ public class Mpub extends Pub implements NSQCommand{
         return buf.array();
     }
 
+    /**
+     * MPUB is encoded as header and body size, followed by messages segments. Small messages are copied into segments
+     * with their sizes, large ones are wrapped as segments of their own. Segments are built once, so an MPUB written
+     * more than once in publish retry is not encoded again.
+     */
+    @Override
+    public ByteBuf encode(ByteBufAllocator alloc) {
+        final byte[] header = this.getHeaderBytes();
+        final ByteBuf buf = alloc.buffer(header.length + 4);
+        buf.writeBytes(header)
+                .writeInt(getBodySize());
+        final CompositeByteBuf composite = alloc.compositeBuffer(2);
+        composite.addComponents(true, buf, getEncodedMessages().retainedDuplicate());
+        return composite;
+    }
+
+    private synchronized ByteBuf getEncodedMessages() {
+        if (null == encodedMessages) {
+            final List<byte[]> bodyL = this.getBody();
+            final CompositeByteBuf segments = Unpooled.compositeBuffer(Integer.MAX_VALUE);
+            ByteBuf run = Unpooled.buffer(4 + runSize(bodyL, 0));
+            run.writeInt(bodyL.size());
+            for (int idx = 0; idx < bodyL.size(); idx++) {
+                final byte[] data = bodyL.get(idx);
+                if (null == run) {
+                    run = Unpooled.buffer(runSize(bodyL, idx));
+                }
+                run.writeInt(data.length);
+                if (data.length < WRAP_BODY_THRESHOLD) {
+                    run.writeBytes(data);
+                } else {
+                    segments.addComponent(true, run);
+                    segments.addComponent(true, Unpooled.wrappedBuffer(data));
+                    run = null;
+                }
+            }
+            if (null != run) {
+                segments.addComponent(true, run);
+            }
+            encodedMessages = segments;
+        }
+        return encodedMessages;
+    }
+
+    /**
+     * @return size of run of messages copied into one segment from passin index, until the first large message, which
+     * has only its size in the run.
+     */
+    private static int runSize(final List<byte[]> bodyL, int from) {
+        int size = 0;
+        for (int idx = from; idx < bodyL.size(); idx++) {
+            size += 4;
+            int len = bodyL.get(idx).length;
+            if (len >= WRAP_BODY_THRESHOLD) {
+                break;
+            }
+            size += len;
+        }
+        return size;
+    }
+
     @Override
-    public String getHeader() {
-        return String.format("MPUB %s%s\n", topic.getTopicText(), topic.hasPartition() ? SPACE_STR + topic.getPartitionId() : "");
+    protected String getCommandName() {
+        return "MPUB";
     }
 
     @Override
@@ -5,11 +5,15 @@ package com.youzan.nsq.client.core.command;
 
 import com.youzan.nsq.client.entity.Message;
 import com.youzan.nsq.client.entity.Topic;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -17,13 +21,16 @@ import java.util.List;
  *
  * 
  */
-public class Pub implements NSQCommand {
+public class Pub implements NSQCommand, ByteBufEncodable {
     private static final Logger logger = LoggerFactory.getLogger(Pub.class);
     public final static int MSG_SIZE = 4;
     public final static int TRACE_ID_SIZE = 8;
+    //message body not smaller than threshold is wrapped into encoded command, rather than copied
+    public final static int WRAP_BODY_THRESHOLD = 1024;
 
     protected final Topic topic;
-    private final List<byte[]> body = new ArrayList<>(1);
+    //message body of PUB, null for MPUB which has its own body
+    private final byte[] messageBody;
     protected byte[] bytes = null;
     protected int partitionOverride = -1;
 
@@ -32,12 +39,21 @@ public class Pub implements NSQCommand {
      *            message object
      */
     public Pub(Message msg) {
+        this(msg, msg.getMessageBodyInByte());
+    }
+
+    /**
+     * @param msg message object
+     * @param messageBody body to publish in place of body of message, which is encoded for example
+     */
+    Pub(Message msg, byte[] messageBody) {
         this.topic = msg.getTopic();
-        this.body.add(msg.getMessageBodyInByte());
+        this.messageBody = messageBody;
     }
 
     Pub(Topic topic) {
         this.topic = topic;
+        this.messageBody = null;
     }
 
     @Override
@@ -50,8 +66,8 @@ public class Pub implements NSQCommand {
      */
     public byte[] getBytes() {
         if(null == bytes){
-            byte[] header = this.getHeader().getBytes(NSQCommand.DEFAULT_CHARSET);
-            byte[] body = this.getBody().get(0);
+            byte[] header = this.getHeaderBytes();
+            byte[] body = this.getMessageBody();
             ByteBuffer buf = ByteBuffer.allocate(header.length + 4 + body.length);
 
             buf.put(header)
@@ -62,13 +78,63 @@ public class Pub implements NSQCommand {
         return bytes;
     }
 
+    @Override
+    public ByteBuf encode(ByteBufAllocator alloc) {
+        final byte[] header = this.getHeaderBytes();
+        final byte[] body = this.getMessageBody();
+        final ByteBuf buf = alloc.buffer(header.length + MSG_SIZE + inlineSize(body));
+        buf.writeBytes(header)
+                .writeInt(body.length);
+        return appendBody(alloc, buf, body);
+    }
+
+    /**
+     * @return command name in header, as in {@link #getHeader()}
+     */
+    protected String getCommandName() {
+        return "PUB";
+    }
+
+    /**
+     * @return encoded header, which equals to {@link #getHeader()} in bytes. It is shared by commands to the same
+     * topic partition, and should not be modified.
+     */
+    protected byte[] getHeaderBytes() {
+        return CommandHeaders.get(getCommandName(), this.topic.getTopicText(),
+                partitionOverride > -1 ? partitionOverride : this.topic.getPartitionId());
+    }
+
     /**
-     * override default partition, by default, it should be used to override default partition(-1)
+     * @return bytes of message body which is copied into command prefix buffer
+     */
+    protected static int inlineSize(final byte[] body) {
+        return body.length < WRAP_BODY_THRESHOLD ? body.length : 0;
+    }
+
+    /**
+     * append message body after encoded prefix, small body is copied, large one is wrapped as another component.
+     */
+    protected static ByteBuf appendBody(final ByteBufAllocator alloc, final ByteBuf prefix, final byte[] body) {
+        if (body.length < WRAP_BODY_THRESHOLD) {
+            return prefix.writeBytes(body);
+        }
+        final CompositeByteBuf composite = alloc.compositeBuffer(2);
+        composite.addComponents(true, prefix, Unpooled.wrappedBuffer(body));
+        return composite;
+    }
+
+    /**
+     * override default partition, by default, it should be used to override default partition(-1). Command reused
+     * in publish retry passes -1 to reset partition override.
      * @param newPartition  new partition#
      */
     public void overrideDefaultPartition(int newPartition) {
-        assert newPartition > -1;
-        this.partitionOverride = newPartition;
+        assert newPartition >= -1;
+        if (this.partitionOverride != newPartition) {
+            this.partitionOverride = newPartition;
+            //header in cached bytes changes with partition
+            this.bytes = null;
+        }
     }
 
     protected String getPartitionStr() {
@@ -85,12 +151,19 @@ public class Pub implements NSQCommand {
 
     @Override
     public String getHeader() {
-        return String.format("PUB %s%s\n", topic.getTopicText(), this.getPartitionStr());
+        return new String(this.getHeaderBytes(), NSQCommand.DEFAULT_CHARSET);
     }
 
     @Override
     public List<byte[]> getBody() {
-        return body;
+        return Collections.singletonList(messageBody);
+    }
+
+    /**
+     * @return body of single message
+     */
+    protected byte[] getMessageBody() {
+        return messageBody;
     }
 
     protected String getTopicText() {
@@ -1,14 +1,21 @@
 package com.youzan.nsq.client.core.command;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.youzan.nsq.client.core.codec.PayloadCodec;
 import com.youzan.nsq.client.entity.Message;
 import com.youzan.util.SystemUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.IllegalFormatException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * PubExt command
@@ -20,61 +27,144 @@ public class PubExt extends Pub {
     public static final String TRACE_ID_KEY = "##trace_id";
     public static final String FILTER_EXT_KEY = "filter_ext_key";
     public static final String FILTER_DATA = "filter_data";
+    //name of codec message body is encoded with
+    public static final String CODEC_KEY = "##codec";
+    //json headers with client tag and codec only, keyed by them
+    private static final ConcurrentHashMap<String, byte[]> FIXED_HEADERS = new ConcurrentHashMap<>();
+    private static final int MAX_FIXED_HEADERS = 1024;
+    private static final ThreadLocal<ByteArrayBuilder> HEADER_BUFFER = new ThreadLocal<ByteArrayBuilder>() {
+        @Override
+        protected ByteArrayBuilder initialValue() {
+            return new ByteArrayBuilder(256);
+        }
+    };
 
 
     /**
      * @param msg message object
      */
     public PubExt(final Message msg, boolean trace) throws IllegalFormatException {
-        super(msg);
+        this(msg, trace, null);
+    }
+
+    /**
+     * @param msg message object
+     * @param trace {@link Boolean#TRUE} if message is traced
+     * @param codec codec to encode message body with, null if body is published as it is
+     */
+    public PubExt(final Message msg, boolean trace, final PayloadCodec codec) throws IllegalFormatException {
+        super(msg, encode(msg, codec));
         String clientTag = msg.getDesiredTag();
-        boolean jsonHeaderNeeded = (null != clientTag && !clientTag.isEmpty()) || (trace);
+        if (null != clientTag && clientTag.isEmpty()) {
+            clientTag = null;
+        }
+        final String codecName = null == codec ? null : codec.getName();
+        final boolean jsonHeaderNeeded = null != clientTag || trace || null != codecName;
 
-        Object jsonObj = msg.getJsonHeaderExt();
-        ObjectNode jsonHeaderExt = null;
-        //create one json
-        if (null == jsonObj && jsonHeaderNeeded) {
-            jsonHeaderExt = SystemUtil.getObjectMapper().createObjectNode();
-            if(null != clientTag)
-                jsonHeaderExt.put(CLIENT_TAG_KEY, clientTag);
-            if(trace)
-                jsonHeaderExt.put(TRACE_ID_KEY, msg.getTraceIDStr());
-        } else if (null != jsonObj) {
-            //parse message json header ext
-            try {
-                String jsonStr = SystemUtil.getObjectMapper().writeValueAsString(jsonObj);
-                JsonNode json = SystemUtil.getObjectMapper().readTree(jsonStr);
-                //override client tag
-                if(json.isObject()) {
-                    jsonHeaderExt = (ObjectNode)json;
-                    if(null != clientTag)
-                        jsonHeaderExt.put(CLIENT_TAG_KEY, clientTag);
-                    if(trace)
-                        jsonHeaderExt.put(TRACE_ID_KEY, msg.getTraceIDStr());
-                } else {
-                    //throw error
-                    throw new IllegalStateException("Invalid json header format, pass in json root is not object.");
+        final Object jsonObj = msg.getJsonHeaderExt();
+        if (null == jsonObj && !jsonHeaderNeeded) {
+            //throw error
+            throw new IllegalStateException("Invalid json header format. Json header not specified.");
+        }
+        if (null == jsonObj && !trace) {
+            //header with tag and codec only repeats, which is cached
+            this.jsonHeaderBytes = fixedHeader(clientTag, codecName);
+        } else if (null == jsonObj || jsonObj instanceof Map) {
+            this.jsonHeaderBytes = writeHeader((Map<?, ?>) jsonObj, clientTag, trace ? msg.getTraceIDStr() : null, codecName);
+        } else {
+            this.jsonHeaderBytes = convertHeader(jsonObj, clientTag, trace ? msg.getTraceIDStr() : null, codecName);
+        }
+    }
+
+    private static byte[] fixedHeader(final String clientTag, final String codecName) {
+        final String key = (null == clientTag ? "" : clientTag) + '\n' + (null == codecName ? "" : codecName);
+        byte[] header = FIXED_HEADERS.get(key);
+        if (null == header) {
+            header = writeHeader(null, clientTag, null, codecName);
+            if (FIXED_HEADERS.size() < MAX_FIXED_HEADERS) {
+                FIXED_HEADERS.putIfAbsent(key, header);
+            }
+        }
+        return header;
+    }
+
+    /**
+     * stream json header in one pass, entries of user map come first, except those overridden by SDK keys.
+     */
+    private static byte[] writeHeader(final Map<?, ?> userHeader, final String clientTag, final String traceID, final String codecName) {
+        final ByteArrayBuilder out = HEADER_BUFFER.get();
+        out.reset();
+        try (JsonGenerator gen = SystemUtil.getObjectMapper().getFactory().createGenerator(out)) {
+            gen.writeStartObject();
+            if (null != userHeader) {
+                for (Map.Entry<?, ?> entry : userHeader.entrySet()) {
+                    final String name = String.valueOf(entry.getKey());
+                    if ((null != clientTag && CLIENT_TAG_KEY.equals(name)) || (null != traceID && TRACE_ID_KEY.equals(name))
+                            || (null != codecName && CODEC_KEY.equals(name))) {
+                        continue;
+                    }
+                    gen.writeFieldName(name);
+                    gen.writeObject(entry.getValue());
                 }
-            } catch (IOException e) {
-                throw new IllegalStateException("Could not parse json header.");
             }
-        } else {
+            if (null != clientTag)
+                gen.writeStringField(CLIENT_TAG_KEY, clientTag);
+            if (null != traceID)
+                gen.writeStringField(TRACE_ID_KEY, traceID);
+            if (null != codecName)
+                gen.writeStringField(CODEC_KEY, codecName);
+            gen.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Fail to write json header.", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * json header which is not a map, is converted to tree to check it is an object, which is slower.
+     */
+    private static byte[] convertHeader(final Object jsonObj, final String clientTag, final String traceID, final String codecName) {
+        final JsonNode json;
+        try {
+            json = SystemUtil.getObjectMapper().valueToTree(jsonObj);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Could not parse json header.");
+        }
+        if (!json.isObject()) {
             //throw error
-            throw new IllegalStateException("Invalid json header format. Json header not specified.");
+            throw new IllegalStateException("Invalid json header format, pass in json root is not object.");
         }
+        final ObjectNode jsonHeaderExt = (ObjectNode) json;
+        if (null != clientTag)
+            jsonHeaderExt.put(CLIENT_TAG_KEY, clientTag);
+        if (null != traceID)
+            jsonHeaderExt.put(TRACE_ID_KEY, traceID);
+        if (null != codecName)
+            jsonHeaderExt.put(CODEC_KEY, codecName);
         try {
-            this.jsonHeaderBytes = SystemUtil.getObjectMapper().writeValueAsBytes(jsonHeaderExt);
+            return SystemUtil.getObjectMapper().writeValueAsBytes(jsonHeaderExt);
         } catch (JsonProcessingException e) {
             throw new IllegalStateException("Fail to convert object node to string.");
         }
     }
 
+    private static byte[] encode(final Message msg, final PayloadCodec codec) {
+        if (null == codec) {
+            return msg.getMessageBodyInByte();
+        }
+        try {
+            return codec.encode(msg.getMessageBodyInByte());
+        } catch (IOException e) {
+            throw new IllegalStateException("Fail to encode message body with codec " + codec.getName(), e);
+        }
+    }
+
     @Override
     public byte[] getBytes() {
         if(null == bytes){
-            byte[] header = this.getHeader().getBytes(NSQCommand.DEFAULT_CHARSET);
+            byte[] header = this.getHeaderBytes();
             byte[] jsonHeaderBytes = this.jsonHeaderBytes;
-            byte[] body = this.getBody().get(0);
+            byte[] body = this.getMessageBody();
             ByteBuffer buf = ByteBuffer.allocate(header.length + 4/*total length*/ + 2/*json header length*/ + jsonHeaderBytes.length + body.length);
 
             buf.put(header)
@@ -88,7 +178,20 @@ public class PubExt extends Pub {
     }
 
     @Override
-    public String getHeader() {
-        return String.format("PUB_EXT %s%s\n", topic.getTopicText(), this.getPartitionStr());
+    public ByteBuf encode(ByteBufAllocator alloc) {
+        final byte[] header = this.getHeaderBytes();
+        final byte[] jsonHeaderBytes = this.jsonHeaderBytes;
+        final byte[] body = this.getMessageBody();
+        final ByteBuf buf = alloc.buffer(header.length + 4/*total length*/ + 2/*json header length*/ + jsonHeaderBytes.length + inlineSize(body));
+        buf.writeBytes(header)
+                .writeInt(2 + jsonHeaderBytes.length + body.length)
+                .writeShort(jsonHeaderBytes.length)
+                .writeBytes(jsonHeaderBytes);
+        return appendBody(alloc, buf, body);
+    }
+
+    @Override
+    protected String getCommandName() {
+        return "PUB_EXT";
     }
 }
@@ -1,6 +1,8 @@
 package com.youzan.nsq.client.core.command;
 
 import com.youzan.nsq.client.entity.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,20 +30,20 @@ public class PubTrace extends Pub{
     }
 
     @Override
-    public String getHeader() {
-        return String.format("PUB_TRACE %s%s\n", topic.getTopicText(), this.getPartitionStr());
+    protected String getCommandName() {
+        return "PUB_TRACE";
     }
 
     @Override
     public byte[] getBytes(){
         if(null == bytes){
-            byte[] header = this.getHeader().getBytes(NSQCommand.DEFAULT_CHARSET);
+            byte[] header = this.getHeaderBytes();
             //extra 4 byte for traceID and message size value
             int msgSize = header.length + MSG_SIZE;
             //set it as array[0], as we need length 0 for size calculation
             byte[] traceIDBytes = this.getTraceId();
             msgSize += TRACE_ID_SIZE;
-            byte[] body = this.getBody().get(0);
+            byte[] body = this.getMessageBody();
             msgSize += body.length;
             ByteBuffer buf = ByteBuffer.allocate(msgSize);
 
@@ -54,6 +56,17 @@ public class PubTrace extends Pub{
         return bytes;
     }
 
+    @Override
+    public ByteBuf encode(ByteBufAllocator alloc) {
+        final byte[] header = this.getHeaderBytes();
+        final byte[] body = this.getMessageBody();
+        final ByteBuf buf = alloc.buffer(header.length + MSG_SIZE + TRACE_ID_SIZE + inlineSize(body));
+        buf.writeBytes(header)
+                .writeInt(TRACE_ID_SIZE + body.length)
+                .writeBytes(this.getTraceId());
+        return appendBody(alloc, buf, body);
+    }
+
     public byte[] getTraceId(){
         return this.traceId;
     }
@@ -19,7 +19,27 @@ public class Rdy implements NSQCommand {
 
     private final byte[] data;
     private final int count;
-    public static final Rdy BACK_OFF = new Rdy(0);
+    //RDY commands of common counts, created on first use and shared, as command is immutable
+    private static final int MAX_CACHED_COUNT = 1024;
+    private static final Rdy[] CACHED = new Rdy[MAX_CACHED_COUNT + 1];
+    public static final Rdy BACK_OFF = valueOf(0);
+
+    /**
+     * @param count rdy count
+     * @return shared RDY command for count not larger than 1024, otherwise a new one
+     */
+    public static Rdy valueOf(final int count) {
+        if (count < 0 || count > MAX_CACHED_COUNT) {
+            return new Rdy(count);
+        }
+        Rdy rdy = CACHED[count];
+        if (null == rdy) {
+            //benign race, all fields of command are final
+            rdy = new Rdy(count);
+            CACHED[count] = rdy;
+        }
+        return rdy;
+    }
 
     public Rdy(final int count) {
         this.count = count;
@@ -7,13 +7,11 @@ import com.youzan.nsq.client.entity.Address;
 import com.youzan.nsq.client.entity.NSQConfig;
 import com.youzan.nsq.client.exception.NSQNoConnectionException;
 import com.youzan.nsq.client.network.netty.NSQClientInitializer;
+import com.youzan.nsq.client.network.netty.NettyTransports;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,16 +45,12 @@ public class FixedPool {
         this.config = config;
         this.connections = new ArrayList<>(size);
         this.bootstrap = new Bootstrap();
-        this.eventLoopGroup = new NioEventLoopGroup(config.getThreadPoolSize4IO());
+        this.eventLoopGroup = NettyTransports.newEventLoopGroup(config, config.getThreadPoolSize4IO(), null);
     }
 
 
     public void prepare(boolean isOrdered) throws NSQNoConnectionException {
-        bootstrap.option(ChannelOption.SO_KEEPALIVE, true);
-        bootstrap.option(ChannelOption.TCP_NODELAY, true);
-        bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getConnectTimeoutInMillisecond());
-        bootstrap.group(eventLoopGroup);
-        bootstrap.channel(NioSocketChannel.class);
+        NettyTransports.configure(bootstrap, eventLoopGroup, config);
         bootstrap.handler(new NSQClientInitializer());
         for (int i = 0; i < size; i++) {
             final ChannelFuture future = bootstrap.connect(address.getHost(), address.getPort());
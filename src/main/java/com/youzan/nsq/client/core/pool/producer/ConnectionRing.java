@@ -0,0 +1,312 @@
+package com.youzan.nsq.client.core.pool.producer;
+
+import com.youzan.nsq.client.core.NSQConnection;
+import com.youzan.nsq.client.entity.Address;
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.nsq.client.exception.NSQNoConnectionException;
+import com.youzan.util.IOUtil;
+import com.youzan.util.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Connection selection for producer with pipelined connections, which replaces the keyed connection pool.
+ * <pre>
+ * Connections are shared by publishing threads, so they are not borrowed and returned. Each nsqd address has a fixed
+ * ring of {@link NSQConfig#getConnectionSize()} slots, a connection is picked from the ring without lock, by round
+ * robin and the less in-flight one of two live candidates.
+ * Ring grows lazily: first connection of one address is created by the caller, more connections are created in
+ * background when candidates are all busy. Dead or invalidated connections are removed from the ring and replaced
+ * in background. Like idle validation of the keyed pool, idle connections in ring are validated with heartbeat every
+ * {@link NSQConfig#getProducerConnectionEvictIntervalInMillSec()}, and those fail are replaced.
+ * </pre>
+ */
+public class ConnectionRing implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionRing.class);
+
+    private final KeyedPooledConnectionFactory factory;
+    private final int size;
+    private final ConcurrentHashMap<Address, Ring> rings = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService connector;
+    //connector is owned by ring, or shared with other clients and left running on close
+    private final boolean ownConnector;
+    private final ScheduledFuture<?> validationFuture;
+    private volatile boolean closed = false;
+
+    private final Runnable validation = new Runnable() {
+        @Override
+        public void run() {
+            for (Ring ring : rings.values()) {
+                ring.validateIdle();
+            }
+        }
+    };
+
+    public ConnectionRing(final KeyedPooledConnectionFactory factory, final NSQConfig config) {
+        this(factory, config, null);
+    }
+
+    /**
+     * @param factory   connection factory
+     * @param config    producer config
+     * @param connector scheduler of background connection creation and idle validation, like scheduler of
+     *                  {@link com.youzan.nsq.client.core.ClientRuntime}, which is not shut down when ring closes.
+     *                  null to create a connector thread of ring.
+     */
+    public ConnectionRing(final KeyedPooledConnectionFactory factory, final NSQConfig config, final ScheduledExecutorService connector) {
+        this.factory = factory;
+        this.size = config.getConnectionSize();
+        this.ownConnector = null == connector;
+        this.connector = this.ownConnector ? Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(this.getClass().getName() + "-connector", Thread.NORM_PRIORITY)) : connector;
+        final long interval = config.getProducerConnectionEvictIntervalInMillSec();
+        if (interval > 0) {
+            this.validationFuture = this.connector.scheduleWithFixedDelay(validation, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.validationFuture = null;
+        }
+    }
+
+    /**
+     * Pick a live connection to passin address, connection is created when there is not any.
+     *
+     * @param address nsqd address
+     * @return connection which is shared with other publishers, and should not be returned
+     * @throws Exception when connection creation fails
+     */
+    public NSQConnection acquire(final Address address) throws Exception {
+        if (closed) {
+            throw new IllegalStateException("Connection ring has been closed.");
+        }
+        final Ring ring = ringOf(address);
+        NSQConnection conn = ring.select();
+        if (null == conn) {
+            //only one caller creates connection, others wait and take it
+            synchronized (ring) {
+                conn = ring.select();
+                if (null == conn) {
+                    conn = ring.add();
+                }
+            }
+        }
+        if (null == conn) {
+            throw new NSQNoConnectionException("No connection available to " + address);
+        }
+        return conn;
+    }
+
+    /**
+     * Create first connection to passin address, if there is not any.
+     *
+     * @param address nsqd address
+     * @throws Exception when connection creation fails
+     */
+    public void prepare(final Address address) throws Exception {
+        acquire(address);
+    }
+
+    /**
+     * Remove passin connection from ring and close it, replacement is created in background.
+     *
+     * @param conn connection to invalidate
+     */
+    public void invalidate(final NSQConnection conn) {
+        final Ring ring = rings.get(conn.getAddress());
+        if (null == ring || !ring.remove(conn)) {
+            //not in ring or removed already
+            IOUtil.closeQuietly(conn);
+        }
+    }
+
+    /**
+     * @param address nsqd address
+     * @return number of connections in ring of passin address
+     */
+    public int getConnectionCount(final Address address) {
+        final Ring ring = rings.get(address);
+        return null == ring ? 0 : ring.occupied.get();
+    }
+
+    /**
+     * @return true if channel of passin connection is active, and identify is sent over it
+     */
+    private static boolean isLive(final NSQConnection conn) {
+        return conn.isConnected() && conn.isIdentitySent();
+    }
+
+    private Ring ringOf(final Address address) {
+        Ring ring = rings.get(address);
+        if (null == ring) {
+            final Ring newRing = new Ring(address);
+            ring = rings.putIfAbsent(address, newRing);
+            if (null == ring) {
+                ring = newRing;
+            }
+        }
+        return ring;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (ownConnector) {
+            connector.shutdownNow();
+        } else if (null != validationFuture) {
+            validationFuture.cancel(false);
+        }
+        for (Ring ring : rings.values()) {
+            ring.close();
+        }
+        rings.clear();
+    }
+
+    private final class Ring {
+        private final Address address;
+        private final AtomicReferenceArray<NSQConnection> slots = new AtomicReferenceArray<>(size);
+        private final AtomicInteger cursor = new AtomicInteger(0);
+        private final AtomicInteger occupied = new AtomicInteger(0);
+        //at most one background connection creation per address
+        private final AtomicBoolean connecting = new AtomicBoolean(false);
+
+        private final Runnable fill = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    add();
+                } catch (Exception e) {
+                    logger.warn("Fail to create connection to {} in background. {}", address, e.getMessage());
+                } finally {
+                    connecting.set(false);
+                }
+            }
+        };
+
+        Ring(final Address address) {
+            this.address = address;
+        }
+
+        /**
+         * @return idle live connection, or less in-flight one of first two live connections from cursor, null if
+         * there is not any live connection.
+         */
+        NSQConnection select() {
+            final int start = cursor.getAndIncrement() & Integer.MAX_VALUE;
+            NSQConnection candidate = null;
+            for (int i = 0; i < size; i++) {
+                final int idx = (start + i) % size;
+                final NSQConnection conn = slots.get(idx);
+                if (null == conn) {
+                    continue;
+                }
+                if (!isLive(conn)) {
+                    if (slots.compareAndSet(idx, conn, null)) {
+                        retire(conn);
+                    }
+                    continue;
+                }
+                final int inFlight = conn.getInFlightCount();
+                if (inFlight == 0) {
+                    return conn;
+                }
+                if (null == candidate) {
+                    candidate = conn;
+                    continue;
+                }
+                if (inFlight < candidate.getInFlightCount()) {
+                    candidate = conn;
+                }
+                break;
+            }
+            if (null != candidate) {
+                //live connections are all busy
+                fillAsync();
+            }
+            return candidate;
+        }
+
+        /**
+         * @return connection created and put in a free slot, null if ring is full
+         */
+        NSQConnection add() throws Exception {
+            if (closed || occupied.get() >= size) {
+                return null;
+            }
+            final NSQConnection conn = factory.create(address);
+            for (int i = 0; i < size; i++) {
+                if (slots.compareAndSet(i, null, conn)) {
+                    occupied.incrementAndGet();
+                    if (closed) {
+                        close();
+                    }
+                    logger.info("Connection {} added to ring of {}.", conn, address);
+                    return conn;
+                }
+            }
+            IOUtil.closeQuietly(conn);
+            return null;
+        }
+
+        /**
+         * validate idle connections with heartbeat, and remove those fail
+         */
+        void validateIdle() {
+            for (int i = 0; i < size && !closed; i++) {
+                final NSQConnection conn = slots.get(i);
+                if (null == conn || conn.getInFlightCount() > 0) {
+                    continue;
+                }
+                if (!factory.validate(address, conn) && slots.compareAndSet(i, conn, null)) {
+                    logger.warn("Connection {} in ring fails validation.", conn);
+                    retire(conn);
+                }
+            }
+        }
+
+        boolean remove(final NSQConnection conn) {
+            for (int i = 0; i < size; i++) {
+                if (slots.get(i) == conn && slots.compareAndSet(i, conn, null)) {
+                    retire(conn);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void retire(final NSQConnection conn) {
+            occupied.decrementAndGet();
+            logger.info("Connection {} removed from ring of {}.", conn, address);
+            IOUtil.closeQuietly(conn);
+            fillAsync();
+        }
+
+        private void fillAsync() {
+            if (!closed && occupied.get() < size && connecting.compareAndSet(false, true)) {
+                try {
+                    connector.execute(fill);
+                } catch (RuntimeException e) {
+                    //rejected as ring is closing
+                    connecting.set(false);
+                }
+            }
+        }
+
+        void close() {
+            for (int i = 0; i < size; i++) {
+                final NSQConnection conn = slots.getAndSet(i, null);
+                if (null != conn) {
+                    occupied.decrementAndGet();
+                    IOUtil.closeQuietly(conn);
+                }
+            }
+        }
+    }
+}
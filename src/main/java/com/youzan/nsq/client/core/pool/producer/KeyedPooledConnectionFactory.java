@@ -1,20 +1,19 @@
 package com.youzan.nsq.client.core.pool.producer;
 
 import com.youzan.nsq.client.core.Client;
+import com.youzan.nsq.client.core.ClientRuntime;
 import com.youzan.nsq.client.core.NSQConnection;
 import com.youzan.nsq.client.core.NSQConnectionImpl;
 import com.youzan.nsq.client.entity.Address;
 import com.youzan.nsq.client.entity.NSQConfig;
 import com.youzan.nsq.client.exception.NSQNoConnectionException;
 import com.youzan.nsq.client.network.netty.NSQClientInitializer;
+import com.youzan.nsq.client.network.netty.NettyTransports;
 import com.youzan.util.IOUtil;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import org.apache.commons.pool2.BaseKeyedPooledObjectFactory;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
@@ -22,7 +21,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Connection pool factory for {@link oracle.jvm.hotspot.jfr.Producer}
@@ -38,7 +39,14 @@ public class KeyedPooledConnectionFactory extends BaseKeyedPooledObjectFactory<A
     private static final Logger logger = LoggerFactory.getLogger(KeyedPooledConnectionFactory.class);
     private static final Logger PERF_LOG = LoggerFactory.getLogger(KeyedPooledConnectionFactory.class.getName() + ".perf");
     private final AtomicInteger connectionIDGenerator = new AtomicInteger(0);
+    //connections created, and time spent in TCP connect and IDENTIFY of them, for warm up report
+    private final AtomicInteger connectionsCreated = new AtomicInteger(0);
+    private final AtomicLong connectNanos = new AtomicLong(0L);
+    private final AtomicLong identifyNanos = new AtomicLong(0L);
     private final EventLoopGroup eventLoopGroup;
+    //shared runtime which event loop group belongs to, null if event loop group is owned by current factory
+    private final ClientRuntime runtime;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
     private final Bootstrap bootstrap = new Bootstrap();
 
     /**
@@ -53,28 +61,29 @@ public class KeyedPooledConnectionFactory extends BaseKeyedPooledObjectFactory<A
     public KeyedPooledConnectionFactory(NSQConfig config, Client client) {
         this.config = config;
         this.client = client;
-        this.eventLoopGroup = new NioEventLoopGroup(config.getNettyPoolSize());
-        bootstrap.option(ChannelOption.SO_KEEPALIVE, true);
-        bootstrap.option(ChannelOption.TCP_NODELAY, true);
-        bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getConnectTimeoutInMillisecond());
-        bootstrap.group(eventLoopGroup);
-        bootstrap.channel(NioSocketChannel.class);
+        if (config.isUseSharedRuntime()) {
+            this.runtime = ClientRuntime.acquire(config);
+            this.eventLoopGroup = this.runtime.getEventLoopGroup();
+        } else {
+            this.runtime = null;
+            this.eventLoopGroup = NettyTransports.newEventLoopGroup(config, config.getNettyPoolSize(), null);
+        }
+        NettyTransports.configure(bootstrap, eventLoopGroup, config);
         bootstrap.handler(new NSQClientInitializer());
     }
 
     @Override
     public NSQConnection create(Address address) throws Exception {
         logger.debug("Begin to create a connection, the address is {}", address);
-        long connStart = 0;
-        if(PERF_LOG.isDebugEnabled())
-            connStart = System.currentTimeMillis();
+        final long connStart = System.nanoTime();
         final ChannelFuture future = bootstrap.connect(address.getHost(), address.getPort());
         // Wait until the connection attempt succeeds or fails.
         if (!future.awaitUninterruptibly(config.getConnectTimeoutInMillisecond(), TimeUnit.MILLISECONDS)) {
             throw new NSQNoConnectionException(future.cause());
         }
+        final long connInNano = System.nanoTime() - connStart;
         if(PERF_LOG.isDebugEnabled()) {
-            PERF_LOG.debug("Producer pool wait {} milliSec for connection.", System.currentTimeMillis() - connStart);
+            PERF_LOG.debug("Producer pool wait {} milliSec for connection.", TimeUnit.NANOSECONDS.toMillis(connInNano));
         }
 
         final Channel channel = future.channel();
@@ -85,9 +94,7 @@ public class KeyedPooledConnectionFactory extends BaseKeyedPooledObjectFactory<A
             throw new NSQNoConnectionException("Connect " + address + " is wrong.", future.cause());
         }
 
-        long initStart = 0;
-        if(PERF_LOG.isDebugEnabled())
-            initStart = System.currentTimeMillis();
+        final long initStart = System.nanoTime();
         final NSQConnection conn = new NSQConnectionImpl(connectionIDGenerator.incrementAndGet(), address, channel,
                 config);
         // Netty async+sync programming
@@ -99,17 +106,49 @@ public class KeyedPooledConnectionFactory extends BaseKeyedPooledObjectFactory<A
             IOUtil.closeQuietly(conn);
             throw new NSQNoConnectionException("Creating a connection and having a negotiation fails!", e);
         }
+        final long initInNano = System.nanoTime() - initStart;
         if(PERF_LOG.isDebugEnabled()) {
-            PERF_LOG.debug("Producer pool initialize connection in {} milliSec.", System.currentTimeMillis() - initStart);
+            PERF_LOG.debug("Producer pool initialize connection in {} milliSec.", TimeUnit.NANOSECONDS.toMillis(initInNano));
         }
 
         if (!conn.isConnected()) {
             IOUtil.closeQuietly(conn);
             throw new NSQNoConnectionException("Pool failed in connecting to NSQd!");
         }
+        connectNanos.addAndGet(connInNano);
+        identifyNanos.addAndGet(initInNano);
+        connectionsCreated.incrementAndGet();
         return conn;
     }
 
+    /**
+     * @return event loop group connections created by factory run in
+     */
+    public EventLoopGroup getEventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    /**
+     * @return number of connections created by factory
+     */
+    public int getConnectionsCreated() {
+        return connectionsCreated.get();
+    }
+
+    /**
+     * @return total time spent in TCP connect of connections created, in nanoseconds
+     */
+    public long getConnectNanos() {
+        return connectNanos.get();
+    }
+
+    /**
+     * @return total time spent in protocol negotiation, including IDENTIFY, of connections created, in nanoseconds
+     */
+    public long getIdentifyNanos() {
+        return identifyNanos.get();
+    }
+
     @Override
     public PooledObject<NSQConnection> wrap(NSQConnection conn) {
         return new DefaultPooledObject<>(conn);
@@ -117,7 +156,13 @@ public class KeyedPooledConnectionFactory extends BaseKeyedPooledObjectFactory<A
 
     @Override
     public boolean validateObject(Address address, PooledObject<NSQConnection> p) {
-        final NSQConnection connection = p.getObject();
+        return validate(address, p.getObject());
+    }
+
+    /**
+     * validate connection with heartbeat, for both pool and {@link ConnectionRing}
+     */
+    boolean validate(Address address, final NSQConnection connection) {
         // another implementation : use client.heartbeat,or called
         // client.validateConnection
         if (null != connection && connection.isIdentitySent()) {
@@ -138,7 +183,12 @@ public class KeyedPooledConnectionFactory extends BaseKeyedPooledObjectFactory<A
 
 
     public void close() {
-        if (eventLoopGroup != null && !eventLoopGroup.isShuttingDown()) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (null != runtime) {
+            runtime.release();
+        } else if (eventLoopGroup != null && !eventLoopGroup.isShuttingDown()) {
             eventLoopGroup.shutdownGracefully(1, 2, TimeUnit.SECONDS);
         }
     }
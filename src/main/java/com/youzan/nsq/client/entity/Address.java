@@ -9,6 +9,8 @@ public class Address implements java.io.Serializable, Comparable<Address> {
     //version number, used to specify old nsq and new
     private final String version;
     private Boolean isHA = null;
+    //host:port, built on first use
+    private transient String hostAndPort = null;
 
     private final String topic;
     private final int partition;
@@ -63,6 +65,16 @@ public class Address implements java.io.Serializable, Comparable<Address> {
         return port;
     }
 
+    /**
+     * @return address in host:port
+     */
+    public String getHostAndPort() {
+        if (null == hostAndPort) {
+            hostAndPort = host + ":" + port;
+        }
+        return hostAndPort;
+    }
+
     public String getVersion(){
         return this.version;
     }
@@ -6,7 +6,7 @@ package com.youzan.nsq.client.entity;
 public interface IPartitionsSelector {
 
     /**
-     * return array of {@link Partitions} dataNode in selector
+     * return array of {@link Partitions} dataNode in selector, array returned may be shared and should not be modified
      * @return {@link Partitions} array
      */
     Partitions[] choosePartitions();
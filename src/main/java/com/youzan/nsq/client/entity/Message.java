@@ -55,6 +55,7 @@ public class Message {
 
     Message(long traceID, final Topic topic, byte[] messageBody) {
         this.traceID = traceID;
+        //message keeps its own topic, which publish writes partition back to
         this.topic = Topic.newInstacne(topic, false);
         this.messageBody = messageBody;
     }
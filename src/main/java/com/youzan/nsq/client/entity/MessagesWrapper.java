@@ -8,10 +8,22 @@ import java.util.List;
  */
 public class MessagesWrapper extends Message {
     final private List<byte[]> messageBodiesInBytes;
+    final private Object topicSharding;
 
     public MessagesWrapper(Topic topic, List<byte[]> messageBodies) {
+        this(topic, NO_SHARDING, messageBodies);
+    }
+
+    /**
+     * wrapper for messages which share the same topic sharding ID, or sharding IDs to the same partition.
+     * @param topic topic to publish to
+     * @param shardingID sharding ID to locate partition messages are published to
+     * @param messageBodies message bodies
+     */
+    public MessagesWrapper(Topic topic, Object shardingID, List<byte[]> messageBodies) {
         super(topic, null);
         this.messageBodiesInBytes = messageBodies;
+        this.topicSharding = shardingID;
     }
 
     @Override
@@ -75,6 +87,6 @@ public class MessagesWrapper extends Message {
 
     @Override
     public Object getTopicShardingId(){
-        return NO_SHARDING;
+        return this.topicSharding;
     }
 }
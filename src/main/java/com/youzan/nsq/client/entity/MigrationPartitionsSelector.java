@@ -14,16 +14,16 @@ import java.util.concurrent.atomic.AtomicLong;
 public class MigrationPartitionsSelector implements IPartitionsSelector {
     private static final Logger logger = LoggerFactory.getLogger(MigrationPartitionsSelector.class);
     final private static Random _ran = new Random();
-    final private List<Partitions> prePars;
+    final private Partitions[] prePars;
     final private AtomicLong preCnt = new AtomicLong(1);
 
-    final private List<Partitions> curPars;
+    final private Partitions[] curPars;
     final private AtomicLong curCnt = new AtomicLong(1);
     final private double preFactor;
 
     public MigrationPartitionsSelector(final List<Partitions> prePars, final List<Partitions> curPars, double preFactor) {
-        this.prePars = prePars;
-        this.curPars = curPars;
+        this.prePars = prePars.toArray(new Partitions[0]);
+        this.curPars = curPars.toArray(new Partitions[0]);
         this.preFactor = preFactor;
     }
 
@@ -34,22 +34,20 @@ public class MigrationPartitionsSelector implements IPartitionsSelector {
             if(logger.isDebugEnabled())
                 logger.debug("Previous partitions chosen.");
             this.preCnt.incrementAndGet();
-            return this.prePars.toArray(new Partitions[0]);
+            return this.prePars;
         } else {
             if(logger.isDebugEnabled())
                 logger.debug("Current partitions chosen.");
             this.curCnt.incrementAndGet();
-            return this.curPars.toArray(new Partitions[0]);
+            return this.curPars;
         }
     }
 
     @Override
     public Partitions[] dumpAllPartitions() {
-        Partitions[] returnPars = new Partitions[this.curPars.size() + this.prePars.size()];
-        Partitions[] curParsArr = this.curPars.toArray(new Partitions[0]);
-        Partitions[] preParsArr = this.prePars.toArray(new Partitions[0]);
-        System.arraycopy(curParsArr, 0, returnPars, 0, this.curPars.size());
-        System.arraycopy(preParsArr, 0, returnPars, this.curPars.size(), this.prePars.size());
+        Partitions[] returnPars = new Partitions[this.curPars.length + this.prePars.length];
+        System.arraycopy(this.curPars, 0, returnPars, 0, this.curPars.length);
+        System.arraycopy(this.prePars, 0, returnPars, this.curPars.length, this.prePars.length);
         return returnPars;
     }
 }
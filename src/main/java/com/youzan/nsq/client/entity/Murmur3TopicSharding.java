@@ -0,0 +1,85 @@
+package com.youzan.nsq.client.entity;
+
+/**
+ * {@link TopicSharding} which maps sharding ID to partition with 32 bits murmur3 hash, in place of default one which
+ * uses {@link Object#hashCode()}. Sequential IDs, like order IDs in {@link Long} or {@link String}, spread evenly over
+ * partitions. Numbers are hashed with their long value, char sequences with their chars, and other objects with their
+ * hash code. Apply it to topic via {@link Topic#setTopicSharding(TopicSharding)}.
+ */
+public class Murmur3TopicSharding implements TopicSharding<Object> {
+    public static final Murmur3TopicSharding INSTANCE = new Murmur3TopicSharding();
+
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+
+    @Override
+    public int toPartitionID(Object passInSeed, final int partitionNum) {
+        return (hash(passInSeed) & Integer.MAX_VALUE) % partitionNum;
+    }
+
+    @Override
+    public long toShardingCode(Object passInSeed) {
+        return hash(passInSeed) & Integer.MAX_VALUE;
+    }
+
+    static int hash(final Object seed) {
+        if (seed instanceof Long || seed instanceof Integer || seed instanceof Short || seed instanceof Byte) {
+            return hashLong(((Number) seed).longValue());
+        }
+        if (seed instanceof CharSequence) {
+            return hashChars((CharSequence) seed);
+        }
+        return hashInt(seed.hashCode());
+    }
+
+    static int hashInt(int input) {
+        int h1 = mixH1(0, mixK1(input));
+        return fmix(h1, 4);
+    }
+
+    static int hashLong(long input) {
+        int h1 = mixH1(0, mixK1((int) input));
+        h1 = mixH1(h1, mixK1((int) (input >>> 32)));
+        return fmix(h1, 8);
+    }
+
+    /**
+     * hash chars of passin sequence in UTF-16, two chars per block, without encoding them into bytes.
+     */
+    static int hashChars(final CharSequence input) {
+        int h1 = 0;
+        final int length = input.length();
+        for (int i = 1; i < length; i += 2) {
+            int k1 = input.charAt(i - 1) | (input.charAt(i) << 16);
+            h1 = mixH1(h1, mixK1(k1));
+        }
+        if ((length & 1) == 1) {
+            h1 ^= mixK1(input.charAt(length - 1));
+        }
+        return fmix(h1, 2 * length);
+    }
+
+    private static int mixK1(int k1) {
+        k1 *= C1;
+        k1 = Integer.rotateLeft(k1, 15);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static int mixH1(int h1, int k1) {
+        h1 ^= k1;
+        h1 = Integer.rotateLeft(h1, 13);
+        h1 = h1 * 5 + 0xe6546b64;
+        return h1;
+    }
+
+    private static int fmix(int h1, int length) {
+        h1 ^= length;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+}
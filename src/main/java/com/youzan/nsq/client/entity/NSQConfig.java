@@ -4,6 +4,8 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.youzan.nsq.client.Version;
+import com.youzan.nsq.client.core.codec.PayloadCodec;
+import com.youzan.nsq.client.core.codec.PayloadCodecs;
 import com.youzan.util.HostUtil;
 import com.youzan.util.NotThreadSafe;
 import com.youzan.util.SystemUtil;
@@ -202,10 +204,11 @@ public class NSQConfig implements java.io.Serializable, Cloneable {
     private static String configAccessEnv;
 
     /**
-     * @Deprecated
      * interval base for producer retry interval
      */
     private int producerRetryIntervalBase = 100;
+    //max total backoff of one publish in milliseconds, before it fails
+    private long publishRetryBudget = 1000L;
 
     /**
      * the timeout after which any data that NSQd has buffered will be flushed
@@ -486,7 +489,8 @@ public class NSQConfig implements java.io.Serializable, Cloneable {
     }
 
     /**
-     * Specify connection pool size for producer per nsqd partition, or default value(30) applies.
+     * Specify connection pool size for producer per nsqd partition, or default value(30) applies. For pipelined
+     * connections, it is the max number of connections in connection ring per nsqd partition.
      * @param connectionPoolSize
      *      connection pool size for producer connection pool.
      * @return current NSQConfig
@@ -507,6 +511,39 @@ public class NSQConfig implements java.io.Serializable, Cloneable {
         return this.connectionSize;
     }
 
+    //max commands waiting for response on one connection, 1 means request/response in lock step
+    private int maxInFlightCommandsPerConnection = 1;
+
+    /**
+     * Specify how many commands which expect a response(PUB, MPUB) could be written to one nsqd connection before
+     * responses of former ones arrive. nsqd answers commands in the order they are received, so responses are matched
+     * to pending commands in FIFO order. Default value is 1, which means one command on the wire per connection.
+     * @param maxInFlight max in-flight commands per connection, needs to be larger than 0.
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setMaxInFlightCommandsPerConnection(int maxInFlight) {
+        if(maxInFlight < 1) {
+            throw new IllegalArgumentException("SDK does not accept max in-flight commands per connection which smaller than 1.");
+        }
+        this.maxInFlightCommandsPerConnection = maxInFlight;
+        return this;
+    }
+
+    /**
+     * @return max commands which are written to one connection and waiting for response.
+     */
+    public int getMaxInFlightCommandsPerConnection() {
+        return this.maxInFlightCommandsPerConnection;
+    }
+
+    /**
+     * @return {@link Boolean#TRUE} if more than one command could be in flight on one connection.
+     */
+    @JsonIgnore
+    public boolean isPipelined() {
+        return this.maxInFlightCommandsPerConnection > 1;
+    }
+
     /**
      * @return the clientId
      */
@@ -728,7 +765,8 @@ public class NSQConfig implements java.io.Serializable, Cloneable {
 
     /**
      * @param rdy the rdy to set , it is ready to receive the pushing message
-     *            count
+     *            count. It is capped by {@link #setConsumerDispatchQueueSize(int)}, and consumer logs a warning on
+     *            start if it is larger.
      * @return {@link NSQConfig}
      */
     public NSQConfig setRdy(int rdy) {
@@ -957,6 +995,133 @@ public class NSQConfig implements java.io.Serializable, Cloneable {
         return this.consumerWorkerPoolSize;
     }
 
+    private int consumerDispatchQueueSize = 256;
+
+    /**
+     * Specify capacity of message queue of each nsqd connection in consumer. Messages received from one connection wait
+     * in its queue for consumer workers, and RDY of connection never exceeds queue capacity, so that a slow message
+     * handler stops nsqd from pushing more, instead of messages piling up in consumer and timing out.
+     * RDY specified via {@link #setRdy(int)} is capped by it too. Default value is 256.
+     * @param size capacity of message queue per connection
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setConsumerDispatchQueueSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("SDK does not accept consumer dispatch queue size which smaller than 1.");
+        }
+        this.consumerDispatchQueueSize = size;
+        return this;
+    }
+
+    public int getConsumerDispatchQueueSize() {
+        return this.consumerDispatchQueueSize;
+    }
+
+    private int consumeBatchSize = 100;
+    private int consumeBatchMaxWaitInMillisecond = 200;
+
+    /**
+     * Specify max number of messages passed to {@link com.youzan.nsq.client.BatchMessageHandler} in one batch.
+     * Batch is also bounded by {@link #setConsumerDispatchQueueSize(int)}, as RDY of connection does not exceed it.
+     * Default value is 100.
+     * @param size max messages in one batch
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setConsumeBatchSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("SDK does not accept consume batch size which smaller than 1.");
+        }
+        this.consumeBatchSize = size;
+        return this;
+    }
+
+    public int getConsumeBatchSize() {
+        return this.consumeBatchSize;
+    }
+
+    /**
+     * Specify max time a batch waits for more messages, after its first message arrives. Batch is passed to
+     * {@link com.youzan.nsq.client.BatchMessageHandler} when it is full, or max wait elapses. Default value is 200ms.
+     * @param wait max wait in milliseconds, 0 passes messages already arrived without waiting
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setConsumeBatchMaxWaitInMillisecond(int wait) {
+        if (wait < 0) {
+            throw new IllegalArgumentException("SDK does not accept consume batch max wait which smaller than 0.");
+        }
+        this.consumeBatchMaxWaitInMillisecond = wait;
+        return this;
+    }
+
+    public int getConsumeBatchMaxWaitInMillisecond() {
+        return this.consumeBatchMaxWaitInMillisecond;
+    }
+
+    private boolean adaptiveRdy = false;
+
+    /**
+     * Specify whether consumer adapts RDY ceiling of each connection to measured message handler latency, worker
+     * utilization and messages waiting in consumer, so that it fetches more when workers are idle, and less when
+     * waiting messages are about to exceed msg timeout. It does not apply when RDY is specified via
+     * {@link #setRdy(int)}, or in ordered consumption. Ceiling may grow up to consumer dispatch queue size per
+     * connection, see {@link #setConsumerDispatchQueueSize(int)}. Default value is false, RDY ceiling is consumer
+     * worker pool size divided by connections.
+     * @param adaptiveRdy {@link Boolean#TRUE} to adapt RDY ceiling
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setAdaptiveRdy(boolean adaptiveRdy) {
+        this.adaptiveRdy = adaptiveRdy;
+        return this;
+    }
+
+    public boolean isAdaptiveRdy() {
+        return this.adaptiveRdy;
+    }
+
+    private int consumerKeyOrderedLanes = 0;
+
+    /**
+     * Specify number of serial lanes of each nsqd connection in key ordered consumption, see
+     * {@link com.youzan.nsq.client.Consumer#setMessageKeyExtractor(com.youzan.nsq.client.MessageKeyExtractor)}.
+     * Messages of one key go to the same lane and are handled in order, while lanes are handled in parallel.
+     * Default value is 0, which means the same as consumer worker pool size.
+     * @param lanes number of lanes per connection
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setConsumerKeyOrderedLanes(int lanes) {
+        if (lanes < 0) {
+            throw new IllegalArgumentException("SDK does not accept consumer key ordered lanes which smaller than 0.");
+        }
+        this.consumerKeyOrderedLanes = lanes;
+        return this;
+    }
+
+    public int getConsumerKeyOrderedLanes() {
+        return this.consumerKeyOrderedLanes > 0 ? this.consumerKeyOrderedLanes : this.consumerWorkerPoolSize;
+    }
+
+    private int consumerAckFlushThreshold = 32;
+
+    /**
+     * Specify max number of FIN/REQ/TOUCH commands written to one nsqd connection before they are flushed. Commands
+     * are flushed together in next event loop tick of connection, or once threshold is reached, so that
+     * acknowledgements of messages consumed at high rate share syscalls and tcp segments. 1 flushes each command
+     * when it is written. Default value is 32.
+     * @param threshold max acknowledgements to flush together
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setConsumerAckFlushThreshold(int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("SDK does not accept consumer ack flush threshold which smaller than 1.");
+        }
+        this.consumerAckFlushThreshold = threshold;
+        return this;
+    }
+
+    public int getConsumerAckFlushThreshold() {
+        return this.consumerAckFlushThreshold;
+    }
+
     private enum ConsumePolicy {
         SKIP
     }
@@ -1035,6 +1200,451 @@ public class NSQConfig implements java.io.Serializable, Cloneable {
         return this.producerPoolSize;
     }
 
+    private int warmUpParallelism = 16;
+    private long warmUpTimeoutInMillisecond = 60000L;
+
+    /**
+     * Specify max number of topic lookups and connection preparations which run concurrently, in warm up of
+     * {@link com.youzan.nsq.client.Producer#start(String...)}. It is ignored on shared runtime, where warm up runs in
+     * job pool of runtime. Default value is 16.
+     * @param parallelism warm up parallelism
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setWarmUpParallelism(int parallelism) {
+        if(parallelism < 1) {
+            throw new IllegalArgumentException("SDK does not accept warm up parallelism which smaller than 1.");
+        }
+        this.warmUpParallelism = parallelism;
+        return this;
+    }
+
+    public int getWarmUpParallelism() {
+        return this.warmUpParallelism;
+    }
+
+    /**
+     * Specify deadline of warm up in {@link com.youzan.nsq.client.Producer#start(String...)}, topics and connections
+     * not ready by then are left to first publish. Default value is 60000.
+     * @param timeout warm up timeout in milliseconds
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setWarmUpTimeoutInMillisecond(long timeout) {
+        if(timeout < 0) {
+            throw new IllegalArgumentException("SDK does not accept warm up timeout which smaller than 0.");
+        }
+        this.warmUpTimeoutInMillisecond = timeout;
+        return this;
+    }
+
+    public long getWarmUpTimeoutInMillisecond() {
+        return this.warmUpTimeoutInMillisecond;
+    }
+
+    private boolean useSharedRuntime = false;
+
+    /**
+     * Specify whether producer and consumer created with current config run on {@link com.youzan.nsq.client.core.ClientRuntime},
+     * which shares netty event loop group, schedulers and worker pools among all clients opting in, so that thread
+     * number does not grow with number of clients. Shared runtime is sized with config of first client which acquires
+     * it, and shut down when last client is closed. Netty pool size, transport, publish and consumer worker pool sizes
+     * of later clients are ignored, and a warning is logged if they differ. Connection ring, spill journal replay and
+     * warm up of producer run in shared runtime as well. Default value is false.
+     * @param useSharedRuntime {@link Boolean#TRUE} to run on shared client runtime
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setUseSharedRuntime(boolean useSharedRuntime) {
+        this.useSharedRuntime = useSharedRuntime;
+        return this;
+    }
+
+    public boolean isUseSharedRuntime() {
+        return this.useSharedRuntime;
+    }
+
+    /**
+     * Netty transport of connections to nsqd. EPOLL is native transport of Linux, client falls back to NIO when native
+     * epoll is not available on current platform.
+     */
+    public enum Transport {
+        NIO, EPOLL
+    }
+
+    private Transport transport = Transport.NIO;
+    private boolean epollTcpQuickAck = false;
+    private boolean epollBusyPoll = false;
+
+    /**
+     * Specify netty transport of connections to nsqd, default value is {@link Transport#NIO}.
+     * {@link Transport#EPOLL} lowers syscall overhead with many connections, and falls back to NIO if it is not
+     * available. Clients on shared runtime use transport in config of first client which acquires runtime.
+     * @param transport netty transport
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setTransport(Transport transport) {
+        if (null == transport) {
+            throw new IllegalArgumentException("SDK does not accept null transport.");
+        }
+        this.transport = transport;
+        return this;
+    }
+
+    public Transport getTransport() {
+        return this.transport;
+    }
+
+    /**
+     * Specify whether TCP_QUICKACK is set on connections with epoll transport, which acks responses of nsqd at once
+     * instead of delayed ack. Default value is false.
+     * @param quickAck {@link Boolean#TRUE} to turn on TCP_QUICKACK
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setEpollTcpQuickAck(boolean quickAck) {
+        this.epollTcpQuickAck = quickAck;
+        return this;
+    }
+
+    public boolean isEpollTcpQuickAck() {
+        return this.epollTcpQuickAck;
+    }
+
+    /**
+     * Specify whether epoll event loops busy poll, which never blocks in epoll_wait and keeps polling ready events.
+     * Busy poll trades one CPU core per event loop thread for lower latency, and it is meant for hosts with cores to
+     * spare. Default value is false.
+     * @param busyPoll {@link Boolean#TRUE} to turn on busy poll
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setEpollBusyPoll(boolean busyPoll) {
+        this.epollBusyPoll = busyPoll;
+        return this;
+    }
+
+    public boolean isEpollBusyPoll() {
+        return this.epollBusyPoll;
+    }
+
+    //linger before single message publishes are sent in one MPUB, 0 means batching is off
+    private int publishBatchLingerInMillisecond = 0;
+    private int publishBatchSize = 200;
+    private int publishBatchBytes = 512 * 1024;
+
+    /**
+     * Turn on batching of single message publish by specifying a linger time larger than 0. Messages to one topic
+     * partition are accumulated, and sent in one MPUB when batch size, batch bytes, or linger time is reached, whichever
+     * comes first. Each message publish still gets its own receipt or exception. Messages with json header extension,
+     * desired tag, or trace, are NOT batched. Default value is 0, which means batching is off.
+     * @param linger linger time in milliseconds, messages wait for at most the linger before being sent.
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setPublishBatchLingerInMillisecond(int linger) {
+        if(linger < 0) {
+            throw new IllegalArgumentException("SDK does not accept publish batch linger which smaller than 0.");
+        }
+        this.publishBatchLingerInMillisecond = linger;
+        return this;
+    }
+
+    public int getPublishBatchLingerInMillisecond() {
+        return this.publishBatchLingerInMillisecond;
+    }
+
+    /**
+     * Specify max number of messages in one batch, refer to {@link NSQConfig#setPublishBatchLingerInMillisecond(int)}.
+     * Default value is 200.
+     * @param size max message number in one batch
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setPublishBatchSize(int size) {
+        if(size < 1) {
+            throw new IllegalArgumentException("SDK does not accept publish batch size which smaller than 1.");
+        }
+        this.publishBatchSize = size;
+        return this;
+    }
+
+    public int getPublishBatchSize() {
+        return this.publishBatchSize;
+    }
+
+    /**
+     * Specify max bytes of MPUB body in one batch, refer to {@link NSQConfig#setPublishBatchLingerInMillisecond(int)}.
+     * Default value is 512KB, it should be smaller than max body size nsqd accepts.
+     * @param bytes max bytes of messages in one batch
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setPublishBatchBytes(int bytes) {
+        if(bytes < 1) {
+            throw new IllegalArgumentException("SDK does not accept publish batch bytes which smaller than 1.");
+        }
+        this.publishBatchBytes = bytes;
+        return this;
+    }
+
+    public int getPublishBatchBytes() {
+        return this.publishBatchBytes;
+    }
+
+    /**
+     * @return {@link Boolean#TRUE} if single message publishes are batched.
+     */
+    @JsonIgnore
+    public boolean isPublishBatchEnabled() {
+        return this.publishBatchLingerInMillisecond > 0;
+    }
+
+    /**
+     * When spill journal flushes messages appended to disk.
+     * NONE leaves it to OS, INTERVAL flushes in each replay, ALWAYS flushes after each message appended.
+     */
+    public enum SpillFsyncPolicy {
+        NONE, INTERVAL, ALWAYS
+    }
+
+    //directory of publish spill journal, null means journal is off
+    private String publishSpillDirectory = null;
+    private long publishSpillMaxBytes = 1024L * 1024 * 1024;
+    private SpillFsyncPolicy publishSpillFsyncPolicy = SpillFsyncPolicy.INTERVAL;
+    private int publishSpillReplayIntervalInMillisecond = 1000;
+
+    /**
+     * Turn on local spill journal of producer by specifying a directory for it. Single message publish which fails
+     * after all retries, as nsqd or lookupd is not available, is appended to a memory mapped journal in the directory,
+     * and it is replayed to nsqd in MPUB batches in background, once publish recovers. Publish succeeds with a receipt
+     * whose {@link com.youzan.nsq.client.MessageReceipt#isSpilled()} is {@link Boolean#TRUE}. Messages replayed may
+     * be delivered more than once, if producer exits before replay is checkpointed.
+     * Messages with sharding ID, partition, json header extension, desired tag, or trace, are NOT spilled, as they
+     * could not be replayed as they are. One directory should be used by one producer only. Default value is null,
+     * which means journal is off.
+     * @param directory directory of spill journal
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setPublishSpillDirectory(String directory) {
+        this.publishSpillDirectory = directory;
+        return this;
+    }
+
+    public String getPublishSpillDirectory() {
+        return this.publishSpillDirectory;
+    }
+
+    /**
+     * Specify max disk usage of spill journal, publish fails as it does without journal when journal is full. Journal
+     * is split into eight segment files of equal size, and segment is no larger than 1GB. Default value is 1GB.
+     * @param bytes max bytes of journal files
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setPublishSpillMaxBytes(long bytes) {
+        if(bytes < 1024) {
+            throw new IllegalArgumentException("SDK does not accept spill journal max bytes which smaller than 1024.");
+        }
+        this.publishSpillMaxBytes = bytes;
+        return this;
+    }
+
+    public long getPublishSpillMaxBytes() {
+        return this.publishSpillMaxBytes;
+    }
+
+    /**
+     * Specify fsync policy of spill journal, default value is {@link SpillFsyncPolicy#INTERVAL}.
+     * @param policy fsync policy
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setPublishSpillFsyncPolicy(SpillFsyncPolicy policy) {
+        if(null == policy) {
+            throw new IllegalArgumentException("Spill journal fsync policy should not be null.");
+        }
+        this.publishSpillFsyncPolicy = policy;
+        return this;
+    }
+
+    public SpillFsyncPolicy getPublishSpillFsyncPolicy() {
+        return this.publishSpillFsyncPolicy;
+    }
+
+    /**
+     * Specify interval between two replays of spill journal, default value is 1000.
+     * @param interval replay interval in milliseconds
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setPublishSpillReplayIntervalInMillisecond(int interval) {
+        if(interval < 1) {
+            throw new IllegalArgumentException("SDK does not accept spill journal replay interval which smaller than 1.");
+        }
+        this.publishSpillReplayIntervalInMillisecond = interval;
+        return this;
+    }
+
+    public int getPublishSpillReplayIntervalInMillisecond() {
+        return this.publishSpillReplayIntervalInMillisecond;
+    }
+
+    /**
+     * @return {@link Boolean#TRUE} if failed publishes are spilled to local journal.
+     */
+    @JsonIgnore
+    public boolean isPublishSpillEnabled() {
+        return null != this.publishSpillDirectory;
+    }
+
+    /**
+     * What producer does when send buffer is full.
+     * BLOCK waits for room till block timeout, FAIL fails publish at once, DROP_OLDEST fails oldest message in buffer
+     * which is not written to nsqd yet, to make room for the new one.
+     */
+    public enum SendBufferPolicy {
+        BLOCK, FAIL, DROP_OLDEST
+    }
+
+    //bound of messages held by producer in asynchronous and batched publish, 0 means unbounded
+    private int publishSendBufferMaxMessages = 100000;
+    private long publishSendBufferMaxBytes = 64L * 1024 * 1024;
+    private SendBufferPolicy publishSendBufferPolicy = SendBufferPolicy.BLOCK;
+    private long publishSendBufferBlockTimeoutInMillisecond = 5000L;
+
+    /**
+     * Specify max number of messages producer holds in memory, for {@link com.youzan.nsq.client.Producer#publishAsync(Message)},
+     * {@link com.youzan.nsq.client.Producer#publishMultiAsync(List, Topic)}, and batched publish. A message is held
+     * from it is accepted till its publish completes. Default value is 100000, 0 means unbounded.
+     * @param max max message number in send buffer
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setPublishSendBufferMaxMessages(int max) {
+        if(max < 0) {
+            throw new IllegalArgumentException("SDK does not accept send buffer max messages which smaller than 0.");
+        }
+        this.publishSendBufferMaxMessages = max;
+        return this;
+    }
+
+    public int getPublishSendBufferMaxMessages() {
+        return this.publishSendBufferMaxMessages;
+    }
+
+    /**
+     * Specify max bytes of message bodies producer holds in memory, refer to
+     * {@link NSQConfig#setPublishSendBufferMaxMessages(int)}. Default value is 64MB, 0 means unbounded.
+     * @param max max bytes in send buffer
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setPublishSendBufferMaxBytes(long max) {
+        if(max < 0) {
+            throw new IllegalArgumentException("SDK does not accept send buffer max bytes which smaller than 0.");
+        }
+        this.publishSendBufferMaxBytes = max;
+        return this;
+    }
+
+    public long getPublishSendBufferMaxBytes() {
+        return this.publishSendBufferMaxBytes;
+    }
+
+    /**
+     * Specify what publish does when send buffer is full, default value is {@link SendBufferPolicy#BLOCK}.
+     * Publish which is failed or dropped gets {@link com.youzan.nsq.client.exception.NSQSendBufferFullException}.
+     * With {@link SendBufferPolicy#BLOCK}, publish in event loop of producer, like one in listener of another publish
+     * future, fails at once rather than blocks the event loop.
+     * @param policy send buffer policy
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setPublishSendBufferPolicy(SendBufferPolicy policy) {
+        if(null == policy) {
+            throw new IllegalArgumentException("Send buffer policy should not be null.");
+        }
+        this.publishSendBufferPolicy = policy;
+        return this;
+    }
+
+    public SendBufferPolicy getPublishSendBufferPolicy() {
+        return this.publishSendBufferPolicy;
+    }
+
+    /**
+     * Specify how long publish waits for room in full send buffer, with {@link SendBufferPolicy#BLOCK}.
+     * Default value is 5000.
+     * @param timeout block timeout in milliseconds
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setPublishSendBufferBlockTimeoutInMillisecond(long timeout) {
+        if(timeout < 0) {
+            throw new IllegalArgumentException("SDK does not accept send buffer block timeout which smaller than 0.");
+        }
+        this.publishSendBufferBlockTimeoutInMillisecond = timeout;
+        return this;
+    }
+
+    public long getPublishSendBufferBlockTimeoutInMillisecond() {
+        return this.publishSendBufferBlockTimeoutInMillisecond;
+    }
+
+    /**
+     * @return {@link Boolean#TRUE} if messages held by producer is bounded.
+     */
+    @JsonIgnore
+    public boolean isPublishSendBufferEnabled() {
+        return this.publishSendBufferMaxMessages > 0 || this.publishSendBufferMaxBytes > 0;
+    }
+
+    //name of codec message body is encoded with per topic
+    private Map<String, String> payloadCodecs = new ConcurrentHashMap<>();
+    private int payloadEncodeThresholdInBytes = 4096;
+
+    /**
+     * Specify codec of message body published to topic. Message body not smaller than
+     * {@link NSQConfig#setPayloadEncodeThresholdInBytes(int)} is encoded with codec, and published in PUB_EXT with
+     * codec name in json header extension, so topic should be extendable. Consumer decodes message body with codec
+     * of the same name, transparently. Encoded message is NOT batched in MPUB.
+     * @param topic topic name
+     * @param codecName name of codec registered in {@link PayloadCodecs}, null to publish message body as it is.
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setPayloadCodec(String topic, String codecName) {
+        if (null == codecName) {
+            this.payloadCodecs.remove(topic);
+            return this;
+        }
+        if (null == PayloadCodecs.get(codecName)) {
+            throw new IllegalArgumentException("Payload codec " + codecName + " is not registered.");
+        }
+        this.payloadCodecs.put(topic, codecName);
+        return this;
+    }
+
+    public Map<String, String> getPayloadCodecs() {
+        return this.payloadCodecs;
+    }
+
+    /**
+     * Specify size from which message body is encoded with codec of its topic, refer to
+     * {@link NSQConfig#setPayloadCodec(String, String)}. Default value is 4096.
+     * @param threshold threshold of message body size in bytes
+     * @return {@link NSQConfig}
+     */
+    public NSQConfig setPayloadEncodeThresholdInBytes(int threshold) {
+        if(threshold < 0) {
+            throw new IllegalArgumentException("SDK does not accept payload encode threshold which smaller than 0.");
+        }
+        this.payloadEncodeThresholdInBytes = threshold;
+        return this;
+    }
+
+    public int getPayloadEncodeThresholdInBytes() {
+        return this.payloadEncodeThresholdInBytes;
+    }
+
+    /**
+     * @param topic topic message is published to
+     * @param bodyLength length of message body
+     * @return codec to encode message body with, or null if message body is published as it is.
+     */
+    public PayloadCodec getPayloadCodec(String topic, int bodyLength) {
+        if (this.payloadCodecs.isEmpty() || bodyLength < this.payloadEncodeThresholdInBytes) {
+            return null;
+        }
+        final String name = this.payloadCodecs.get(topic);
+        return null == name ? null : PayloadCodecs.get(name);
+    }
+
     //consume message filter value default value is null, which means no filter applied
     private Pair<String, String> consumeMsgFilterKV = null;
 
@@ -1147,16 +1757,13 @@ public class NSQConfig implements java.io.Serializable, Cloneable {
 
     /**
      * Set producer retry interval base when exception raised in publish.
-     * producer retry 6 times when exception which SDK does not know happen.
-     * producer sleeps  1 << (currentRetry - 1) * retryIntervalBase milliseconds in each interval.
+     * producer backs off (1 &lt;&lt; (currentRetry - 1)) * retryIntervalBase milliseconds before each retry, half of
+     * which is random jitter. Total backoff of one publish is bounded by {@link #setPublishRetryBudgetInMilliSeconds(long)}.
      *
      * @param retryIntervalBase retry interval base in milliseconds, needs to be larger than 0. If pass in value is 0,
      *                          it means producer does not sleep when failure happens.
      * @return {@link NSQConfig} this NSQConfig
-     *
-     * Function is deprecated as there is no wait interval between two retries.
      */
-    @Deprecated
     public NSQConfig setProducerRetryIntervalBaseInMilliSeconds(int retryIntervalBase) {
         if(retryIntervalBase >=0 ) {
             this.producerRetryIntervalBase = retryIntervalBase;
@@ -1170,12 +1777,34 @@ public class NSQConfig implements java.io.Serializable, Cloneable {
      * @return producerRetryIntervalBase
      *
      */
-    @Deprecated
     @JsonIgnore
     public int getProducerRetryIntervalBaseInMilliSeconds() {
         return this.producerRetryIntervalBase;
     }
 
+    /**
+     * Set max total backoff of one publish, in milliseconds. Publish fails without further retry once backoff before
+     * next retry would exceed the budget. Default value is 1000.
+     *
+     * @param retryBudget retry budget in milliseconds, needs to be no smaller than 0.
+     * @return {@link NSQConfig} this NSQConfig
+     */
+    public NSQConfig setPublishRetryBudgetInMilliSeconds(long retryBudget) {
+        if (retryBudget < 0) {
+            throw new IllegalArgumentException("Publish retry budget should be no smaller than 0.");
+        }
+        this.publishRetryBudget = retryBudget;
+        return this;
+    }
+
+    /**
+     * @return max total backoff of one publish, in milliseconds.
+     */
+    @JsonIgnore
+    public long getPublishRetryBudgetInMilliSeconds() {
+        return this.publishRetryBudget;
+    }
+
 
     /**
      * @return threadPoolSize4IO in current NSQConfig
@@ -2,6 +2,8 @@ package com.youzan.nsq.client.entity;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.youzan.nsq.client.MessageMetadata;
+import com.youzan.nsq.client.core.codec.PayloadCodec;
+import com.youzan.nsq.client.core.codec.PayloadCodecs;
 import com.youzan.nsq.client.core.command.Close;
 import com.youzan.nsq.client.core.command.PubExt;
 import com.youzan.nsq.client.exception.NSQException;
@@ -24,7 +26,8 @@ public class NSQMessage implements MessageMetadata, Serializable{
     private final byte[] timestamp;
     private final byte[] attempts;
     private final byte[] messageID;
-    private final byte[] messageBody;
+    //replaced with decoded body, if it is encoded with payload codec
+    private byte[] messageBody;
     final Address address;
     final Long connectionID; // be sure that is not null
 
@@ -131,6 +134,15 @@ public class NSQMessage implements MessageMetadata, Serializable{
                 if(null != tag) {
                     this.tag = new DesiredTag(tag);
                 }
+                //decode message body encoded by producer
+                String codecName = (String) jsonExtHeader.get(PubExt.CODEC_KEY);
+                if(null != codecName) {
+                    PayloadCodec codec = PayloadCodecs.get(codecName);
+                    if(null == codec) {
+                        throw new IOException("Payload codec " + codecName + " of message body is not registered.");
+                    }
+                    this.messageBody = codec.decode(this.messageBody);
+                }
                 break;
             }
             default: {
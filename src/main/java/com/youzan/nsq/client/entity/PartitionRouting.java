@@ -0,0 +1,65 @@
+package com.youzan.nsq.client.entity;
+
+import com.youzan.nsq.client.exception.NSQPartitionNotAvailableException;
+
+import java.lang.ref.SoftReference;
+import java.util.Map;
+
+/**
+ * Immutable routing table of one {@link Partitions} for publish, built once per lookup result. Nodes of each
+ * partition are kept in an one element array indexed by partition ID, so routing a sharded message is one array index
+ * and nothing is allocated. Arrays returned are shared and should not be modified.
+ */
+public final class PartitionRouting {
+    private final String topic;
+    private final int partitionNum;
+    //partition ID -> {node of partition}, null if partition is not available
+    private final Address[][] partitionNodes;
+    private final Address[] allDataNodes;
+
+    PartitionRouting(final Partitions partitions) {
+        this.topic = partitions.getTopic();
+        this.allDataNodes = partitions.getAllDataNodes().toArray(new Address[0]);
+        if (partitions.hasPartitionDataNodes()) {
+            this.partitionNum = partitions.getPartitionNum();
+            this.partitionNodes = new Address[this.partitionNum][];
+            for (Map.Entry<Integer, SoftReference<Address>> entry : partitions.getPartitionId2Addr().entrySet()) {
+                int partition = entry.getKey();
+                Address addr = entry.getValue().get();
+                if (null != addr && partition >= 0 && partition < this.partitionNum) {
+                    this.partitionNodes[partition] = new Address[]{addr};
+                }
+            }
+        } else {
+            this.partitionNum = 0;
+            this.partitionNodes = null;
+        }
+    }
+
+    /**
+     * @param topic           topic of message, whose {@link TopicSharding} maps sharding ID to partition
+     * @param topicShardingID sharding ID of message, {@link Message#NO_SHARDING} for all data nodes
+     * @return node of partition sharding ID maps to, or all data nodes when there is no sharding
+     * @throws NSQPartitionNotAvailableException partition sharding ID maps to is not available
+     */
+    public Address[] route(final Topic topic, final Object topicShardingID) throws NSQPartitionNotAvailableException {
+        if (null == this.partitionNodes || topicShardingID == Message.NO_SHARDING) {
+            return this.allDataNodes;
+        }
+        int partitionId = topic.calculatePartitionIndex(topicShardingID, this.partitionNum);
+        if (partitionId < 0 || partitionId >= this.partitionNum)
+            throw new IndexOutOfBoundsException("PartitionID: " + partitionId + " out of boundary. Partition number: " + this.partitionNum);
+        Address[] node = this.partitionNodes[partitionId];
+        if (null == node)
+            throw new NSQPartitionNotAvailableException("Partition: " + partitionId + " not found for " + this.topic);
+        return node;
+    }
+
+    public Address[] getAllDataNodes() {
+        return this.allDataNodes;
+    }
+
+    public int getPartitionNum() {
+        return this.partitionNum;
+    }
+}
@@ -19,6 +19,8 @@ public class Partitions {
     private List<Address> unpartitionedDataNodes = null;
     //all data ndes view of partitions
     private List<Address> allDataNodes = null;
+    //routing table for publish, rebuilt after data nodes updated
+    private PartitionRouting routing = null;
     //total partion number of topic
     private int partitionNum = 0;
 
@@ -32,6 +34,7 @@ public class Partitions {
         this.partitionId2Addr = partitionId2Addr;
         this.dataNodes = dataNodes;
         updatePartitionNum(partitionNum);
+        resetViews();
         return this;
     }
 
@@ -43,6 +46,16 @@ public class Partitions {
         if(newPartitionNum <= 0)
             return;
         this.partitionNum = newPartitionNum;
+        this.routing = null;
+    }
+
+    private void resetViews() {
+        this.allDataNodes = null;
+        this.routing = null;
+    }
+
+    public String getTopic() {
+        return this.topic;
     }
 
     public Map<Integer, SoftReference<Address>> getPartitionId2Addr(){
@@ -53,6 +66,7 @@ public class Partitions {
         if(null == dataNodes || dataNodes.size() == 0)
             throw new RuntimeException("Length of pass in data nodes does not match size of total partition number.");
         this.unpartitionedDataNodes = dataNodes;
+        resetViews();
         return this;
     }
 
@@ -79,6 +93,25 @@ public class Partitions {
         return this.allDataNodes;
     }
 
+    /**
+     * @return all data nodes in array, which is shared and should not be modified.
+     */
+    public Address[] getAllDataNodesArray(){
+        return getRouting().getAllDataNodes();
+    }
+
+    /**
+     * @return immutable routing table of current partitions for publish, which is built once after data nodes updated.
+     */
+    public PartitionRouting getRouting(){
+        PartitionRouting current = this.routing;
+        if(null == current) {
+            current = new PartitionRouting(this);
+            this.routing = current;
+        }
+        return current;
+    }
+
     public List<Address> getUnpartitionedDataNodes(){
         return this.unpartitionedDataNodes;
     }
@@ -0,0 +1,11 @@
+package com.youzan.nsq.client.exception;
+
+/**
+ * Thrown when message could not be accepted by producer send buffer which is full, or message accepted is dropped
+ * from send buffer for newer ones.
+ */
+public class NSQSendBufferFullException extends NSQException {
+    public NSQSendBufferFullException(String message) {
+        super(message);
+    }
+}
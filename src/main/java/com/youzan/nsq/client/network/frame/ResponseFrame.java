@@ -58,31 +58,16 @@ public class ResponseFrame extends NSQFrame implements MessageMetadata{
         String resMsg = getMessage();
         //check if has meta data
         if (resMsg.startsWith("OK") && resMsg.length() > 2) {
-            byte[] data = getData();
-
+            //read meta data in place, rather than copying each field out
+            ByteBuffer data = ByteBuffer.wrap(getData());
             //internal ID
-            byte[] internalIDByte = new byte[8];
-            System.arraycopy(data, 2, internalIDByte, 0, 8);
-            long internalID = ByteBuffer.wrap(internalIDByte).getLong();
-            receipt.setInternalID(internalID);
-
+            receipt.setInternalID(data.getLong(2));
             //traceID
-            byte[] traceIDByte = new byte[8];
-            System.arraycopy(data, 10, traceIDByte, 0, 8);
-            long traceID = ByteBuffer.wrap(traceIDByte).getLong();
-            receipt.setTraceID(traceID);
-
+            receipt.setTraceID(data.getLong(10));
             //disk queue offset
-            byte[] diskqueueOffsetByte = new byte[8];
-            System.arraycopy(data, 18, diskqueueOffsetByte, 0, 8);
-            long diskQueueOffset = ByteBuffer.wrap(diskqueueOffsetByte).getLong();
-            receipt.setDiskQueueOffset(diskQueueOffset);
-
+            receipt.setDiskQueueOffset(data.getLong(18));
             //disk queue data size
-            byte[] diskqueueSizeByte = new byte[4];
-            System.arraycopy(data, 26, diskqueueSizeByte, 0, 4);
-            int diskQueueSize = ByteBuffer.wrap(diskqueueSizeByte).getInt();
-            receipt.setDiskQueueSize(diskQueueSize);
+            receipt.setDiskQueueSize(data.getInt(26));
         }
     }
 
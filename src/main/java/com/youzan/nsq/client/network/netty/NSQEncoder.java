@@ -1,8 +1,8 @@
 package com.youzan.nsq.client.network.netty;
 
+import com.youzan.nsq.client.core.command.ByteBufEncodable;
 import com.youzan.nsq.client.core.command.NSQCommand;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageEncoder;
 
@@ -16,11 +16,16 @@ public class NSQEncoder extends MessageToMessageEncoder<NSQCommand> {
             throw new NullPointerException("I can not encode Null-Pointer!");
         }
 
+        if (command instanceof ByteBufEncodable) {
+            out.add(((ByteBufEncodable) command).encode(ctx.alloc()));
+            return;
+        }
+
         final byte[] bs = command.getBytes();
         if(null == bs)
             throw new IllegalStateException("Command bytes is null, current command need to impl getBytes interface. Command: " + command.toString());
         if (bs.length > 0) {
-            final ByteBuf buf = ByteBufAllocator.DEFAULT.buffer(bs.length);
+            final ByteBuf buf = ctx.alloc().buffer(bs.length);
             buf.writeBytes(bs);
             out.add(buf);
         } else {
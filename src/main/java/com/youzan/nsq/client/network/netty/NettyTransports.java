@@ -0,0 +1,105 @@
+package com.youzan.nsq.client.network.netty;
+
+import com.youzan.nsq.client.entity.NSQConfig;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SelectStrategy;
+import io.netty.channel.SelectStrategyFactory;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.IntSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Event loop group and channel of netty transport in {@link NSQConfig#getTransport()}, native epoll is used when it
+ * is configured and available, NIO otherwise.
+ */
+public final class NettyTransports {
+    private static final Logger logger = LoggerFactory.getLogger(NettyTransports.class);
+    private static final AtomicBoolean UNAVAILABLE_LOGGED = new AtomicBoolean(false);
+
+    /**
+     * select strategy which polls without blocking, even when there is no task in event loop.
+     */
+    private static final SelectStrategy BUSY_POLL = new SelectStrategy() {
+        @Override
+        public int calculateStrategy(IntSupplier selectSupplier, boolean hasTasks) throws Exception {
+            return selectSupplier.get();
+        }
+    };
+
+    private static final SelectStrategyFactory BUSY_POLL_FACTORY = new SelectStrategyFactory() {
+        @Override
+        public SelectStrategy newSelectStrategy() {
+            return BUSY_POLL;
+        }
+    };
+
+    private NettyTransports() {
+    }
+
+    /**
+     * @param config config of client
+     * @return {@link Boolean#TRUE} if epoll is configured and native epoll is available
+     */
+    public static boolean useEpoll(final NSQConfig config) {
+        if (config.getTransport() != NSQConfig.Transport.EPOLL) {
+            return false;
+        }
+        if (Epoll.isAvailable()) {
+            return true;
+        }
+        if (UNAVAILABLE_LOGGED.compareAndSet(false, true)) {
+            logger.warn("Native epoll transport is not available, fall back to NIO.", Epoll.unavailabilityCause());
+        }
+        return false;
+    }
+
+    /**
+     * create event loop group of transport in config.
+     * @param config config of client
+     * @param nThreads number of event loop threads
+     * @param threadFactory factory of event loop threads, netty default one is used if it is null
+     * @return event loop group
+     */
+    public static EventLoopGroup newEventLoopGroup(final NSQConfig config, int nThreads, final ThreadFactory threadFactory) {
+        if (useEpoll(config)) {
+            if (config.isEpollBusyPoll()) {
+                return new EpollEventLoopGroup(nThreads, threadFactory, BUSY_POLL_FACTORY);
+            }
+            return new EpollEventLoopGroup(nThreads, threadFactory);
+        }
+        return new NioEventLoopGroup(nThreads, threadFactory);
+    }
+
+    /**
+     * set event loop group, channel matching it, and channel options in config to bootstrap.
+     * @param bootstrap bootstrap of connections to nsqd
+     * @param eventLoopGroup event loop group created by {@link #newEventLoopGroup(NSQConfig, int, ThreadFactory)}
+     * @param config config of client
+     */
+    public static void configure(final Bootstrap bootstrap, final EventLoopGroup eventLoopGroup, final NSQConfig config) {
+        bootstrap.option(ChannelOption.SO_KEEPALIVE, true);
+        bootstrap.option(ChannelOption.TCP_NODELAY, true);
+        bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getConnectTimeoutInMillisecond());
+        bootstrap.group(eventLoopGroup);
+        //event loop group of shared runtime may be of another transport than current config
+        if (eventLoopGroup instanceof EpollEventLoopGroup) {
+            bootstrap.channel(EpollSocketChannel.class);
+            if (config.isEpollTcpQuickAck()) {
+                bootstrap.option(EpollChannelOption.TCP_QUICKACK, true);
+            }
+        } else {
+            bootstrap.channel(NioSocketChannel.class);
+        }
+    }
+}
@@ -5,9 +5,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.zip.GZIPOutputStream;
@@ -30,6 +33,40 @@ public final class IOUtil {
         HTTP_IO_READ_TIMEOUT = newTimeout;
     }
 
+    /**
+     * Release memory mapping of passin buffer, rather than waiting for it to be garbage collected. Buffer must not be
+     * accessed after it is unmapped. It does nothing if unmapping is not supported by current JVM.
+     *
+     * @param buffer direct or memory mapped buffer
+     */
+    public static void unmap(final ByteBuffer buffer) {
+        if (null == buffer || !buffer.isDirect()) {
+            return;
+        }
+        try {
+            try {
+                //java 9 and later
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException e) {
+                //java 8
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (null != cleaner) {
+                    Method clean = cleaner.getClass().getMethod("clean");
+                    clean.setAccessible(true);
+                    clean.invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            logger.debug("Fail to unmap buffer, it is released when garbage collected. {}", e.toString());
+        }
+    }
+
     public static void closeQuietly(Closeable... closeables) {
         for (Closeable closeable : closeables) {
             if (null != closeable) {
@@ -0,0 +1,50 @@
+package com.youzan.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Long counter for statistics updated by many threads, which spreads updates over cells on separate cache lines
+ * picked by thread, so that threads updating it do not contend on one hot cache line. It works like LongAdder of
+ * Java 8, which is not available at source level 7. {@link #value()} sums cells, and is not an atomic snapshot when
+ * counter is updated concurrently.
+ */
+@ThreadSafe
+public final class StripedCounter {
+    //longs in a 64 bytes cache line, cells are this far apart
+    private static final int PADDING = 8;
+    private static final int STRIPES;
+
+    static {
+        int stripes = 1;
+        final int target = Math.min(64, Runtime.getRuntime().availableProcessors() * 2);
+        while (stripes < target) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void increment() {
+        add(1L);
+    }
+
+    public void add(long delta) {
+        cells.getAndAdd(indexOf(Thread.currentThread()), delta);
+    }
+
+    public long value() {
+        long sum = 0L;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    private static int indexOf(final Thread thread) {
+        long id = thread.getId();
+        //spread ids of threads created one after another
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((hash >>> 16) & (STRIPES - 1)) * PADDING;
+    }
+}
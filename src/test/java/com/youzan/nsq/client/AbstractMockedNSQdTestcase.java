@@ -0,0 +1,68 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.nsq.client.exception.NSQException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+/**
+ * Base of tests against {@link MockedNSQd}. Before each test method, a mocked nsqd of topic named after the method is
+ * started, together with config which looks it up. After the method, producer started via
+ * {@link #start(ProducerImplV2)} and the mocked nsqd are closed.
+ */
+public abstract class AbstractMockedNSQdTestcase {
+    protected MockedNSQd nsqd;
+    protected NSQConfig config;
+    private ProducerImplV2 producer;
+
+    /**
+     * @param nsqd mocked nsqd
+     * @return config which looks up passin mocked nsqd
+     */
+    public static NSQConfig newConfig(final MockedNSQd nsqd) {
+        NSQConfig config = new NSQConfig();
+        config.setLookupAddresses(nsqd.getLookupAddress());
+        return config;
+    }
+
+    @BeforeMethod
+    public void startNSQd(final Method method) throws IOException {
+        nsqd = new MockedNSQd(method.getName());
+        config = newConfig(nsqd);
+    }
+
+    /**
+     * close producer and mocked nsqd, test method which cleans up after producer closes invokes it beforehand
+     */
+    @AfterMethod(alwaysRun = true)
+    public void closeNSQd() throws IOException {
+        if (null == nsqd) {
+            return;
+        }
+        try {
+            if (null != producer) {
+                producer.close();
+            }
+        } finally {
+            producer = null;
+            nsqd.close();
+            nsqd = null;
+        }
+    }
+
+    /**
+     * start producer, which is closed after test method
+     */
+    protected <T extends ProducerImplV2> T start(final T producer) throws NSQException {
+        this.producer = producer;
+        producer.start();
+        return producer;
+    }
+
+    protected ProducerImplV2 startProducer() throws NSQException {
+        return start(new ProducerImplV2(config));
+    }
+}
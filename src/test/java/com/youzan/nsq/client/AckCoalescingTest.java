@@ -0,0 +1,77 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.core.NSQConnectionImpl;
+import com.youzan.nsq.client.core.command.Finish;
+import com.youzan.nsq.client.core.command.Touch;
+import com.youzan.nsq.client.entity.Address;
+import com.youzan.nsq.client.entity.NSQConfig;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests of FIN/REQ/TOUCH written via {@link NSQConnectionImpl#acknowledge(com.youzan.nsq.client.core.command.NSQCommand)},
+ * which are flushed together.
+ */
+public class AckCoalescingTest {
+    private static final Address ADDRESS = new Address("127.0.0.1", 4150, "1.0.0", "testAckCoalescing", 0, false);
+
+    private static byte[] id(int i) {
+        byte[] id = new byte[16];
+        id[15] = (byte) i;
+        return id;
+    }
+
+    @Test
+    public void testFlushInNextTick() {
+        NSQConfig config = new NSQConfig();
+        config.setConsumerAckFlushThreshold(10);
+        EmbeddedChannel channel = new EmbeddedChannel();
+        NSQConnectionImpl conn = new NSQConnectionImpl(1, ADDRESS, channel, config);
+
+        ChannelFuture fin = conn.acknowledge(new Finish(id(1)));
+        ChannelFuture touch = conn.acknowledge(new Touch(id(2)));
+        //written, not flushed until event loop runs scheduled flush
+        Assert.assertNull(channel.readOutbound());
+        Assert.assertFalse(fin.isDone());
+
+        channel.runPendingTasks();
+        Assert.assertTrue(fin.isSuccess());
+        Assert.assertTrue(touch.isSuccess());
+        Assert.assertTrue(channel.readOutbound() instanceof Finish);
+        Assert.assertTrue(channel.readOutbound() instanceof Touch);
+        Assert.assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testFlushOnThreshold() {
+        NSQConfig config = new NSQConfig();
+        config.setConsumerAckFlushThreshold(3);
+        EmbeddedChannel channel = new EmbeddedChannel();
+        NSQConnectionImpl conn = new NSQConnectionImpl(1, ADDRESS, channel, config);
+
+        conn.acknowledge(new Finish(id(1)));
+        conn.acknowledge(new Finish(id(2)));
+        Assert.assertNull(channel.readOutbound());
+        ChannelFuture third = conn.acknowledge(new Finish(id(3)));
+        Assert.assertTrue(third.isSuccess());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(channel.readOutbound() instanceof Finish);
+        }
+        //scheduled flush finds nothing pending
+        channel.runPendingTasks();
+        Assert.assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testNoCoalescing() {
+        NSQConfig config = new NSQConfig();
+        config.setConsumerAckFlushThreshold(1);
+        EmbeddedChannel channel = new EmbeddedChannel();
+        NSQConnectionImpl conn = new NSQConnectionImpl(1, ADDRESS, channel, config);
+
+        Assert.assertTrue(conn.acknowledge(new Finish(id(1))).isSuccess());
+        Assert.assertTrue(channel.readOutbound() instanceof Finish);
+    }
+}
@@ -0,0 +1,154 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.NSQMessage;
+import com.youzan.nsq.client.exception.RetryBusinessException;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tests of FIN and REQ sent by consumer with {@link BatchMessageHandler} against {@link MockedNSQd}.
+ */
+public class ConsumeBatchTest extends AbstractMockedNSQdTestcase {
+
+    @BeforeMethod
+    public void configureConsumer() {
+        config.setConsumerName("BaseConsumer");
+        config.setRdy(8);
+        config.setConsumeBatchSize(4);
+        config.setConsumeBatchMaxWaitInMillisecond(200);
+    }
+
+    private static List<String> bodies(final List<NSQMessage> messages) {
+        List<String> bodies = new ArrayList<>(messages.size());
+        for (NSQMessage message : messages) {
+            bodies.add(message.getReadableContent());
+        }
+        return bodies;
+    }
+
+    /**
+     * start consumer of topic in mocked nsqd, and wait for FIN and REQ of passin number
+     * @return FIN and REQ sorted
+     */
+    private List<String> consume(final ConsumerImplV2 consumer, int acks) throws Exception {
+        try {
+            consumer.subscribe(nsqd.getTopic());
+            consumer.start();
+            long deadline = System.currentTimeMillis() + 10000L;
+            while (nsqd.getAcknowledged().size() < acks && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            //nothing more than expected
+            Thread.sleep(300L);
+        } finally {
+            consumer.close();
+        }
+        List<String> acknowledged = nsqd.getAcknowledged();
+        Collections.sort(acknowledged);
+        return acknowledged;
+    }
+
+    @Test
+    public void testBatchResult() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            nsqd.addMessage("msg" + i);
+        }
+        final List<Integer> sizes = new CopyOnWriteArrayList<>();
+        ConsumerImplV2 consumer = new ConsumerImplV2(config, new BatchMessageHandler() {
+            @Override
+            public void process(List<NSQMessage> messages, BatchResult result) {
+                sizes.add(messages.size());
+                for (int i = 0; i < messages.size(); i++) {
+                    String body = messages.get(i).getReadableContent();
+                    if (body.equals("msg1") || body.equals("msg3")) {
+                        result.fail(i);
+                    }
+                }
+            }
+        });
+        List<String> acks = consume(consumer, 5);
+        Assert.assertEquals(acks, Arrays.asList("FIN msg0", "FIN msg2", "FIN msg4", "REQ msg1", "REQ msg3"));
+        //partial batch is flushed by timer
+        int total = 0;
+        for (int size : sizes) {
+            Assert.assertTrue(size <= 4, "batch sizes: " + sizes);
+            total += size;
+        }
+        Assert.assertEquals(total, 5);
+    }
+
+    @Test
+    public void testNoAutoFinish() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            nsqd.addMessage("msg" + i);
+        }
+        ConsumerImplV2 consumer = new ConsumerImplV2(config, new BatchMessageHandler() {
+            @Override
+            public void process(List<NSQMessage> messages, BatchResult result) {
+                for (int i = 0; i < messages.size(); i++) {
+                    if (messages.get(i).getReadableContent().equals("msg1")) {
+                        result.fail(i);
+                    }
+                }
+            }
+        });
+        consumer.setAutoFinish(false);
+        //failed message is requeued, while others are left to client to finish
+        Assert.assertEquals(consume(consumer, 1), Collections.singletonList("REQ msg1"));
+    }
+
+    @Test
+    public void testSkipAndFilter() throws Exception {
+        nsqd.setExtendSupport(true);
+        nsqd.addMessage("skipped", "{\"skip\":\"true\",\"zone\":\"a\"}");
+        nsqd.addMessage("filtered", "{\"zone\":\"b\"}");
+        nsqd.addMessage("handled", "{\"zone\":\"a\"}");
+        config.setMessageSkipExtensionKey("skip");
+        config.setConsumeMessageFilter("zone", "a");
+        final List<String> handled = new CopyOnWriteArrayList<>();
+        ConsumerImplV2 consumer = new ConsumerImplV2(config, new BatchMessageHandler() {
+            @Override
+            public void process(List<NSQMessage> messages, BatchResult result) {
+                handled.addAll(bodies(messages));
+            }
+        });
+        //skipped and filtered messages are finished without being passed to handler
+        List<String> acks = consume(consumer, 3);
+        Assert.assertEquals(acks, Arrays.asList("FIN filtered", "FIN handled", "FIN skipped"));
+        Assert.assertEquals(handled, Collections.singletonList("handled"));
+    }
+
+    @Test
+    public void testRetryBusiness() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            nsqd.addMessage("msg" + i);
+        }
+        final Set<String> tried = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final List<String> handled = new CopyOnWriteArrayList<>();
+        ConsumerImplV2 consumer = new ConsumerImplV2(config, new BatchMessageHandler() {
+            @Override
+            public void process(List<NSQMessage> messages, BatchResult result) {
+                List<String> bodies = bodies(messages);
+                handled.addAll(bodies);
+                //fail messages before asking SDK to retry, which resets result
+                if (tried.addAll(bodies)) {
+                    result.failAll();
+                    throw new RetryBusinessException();
+                }
+            }
+        });
+        //batch is processed once more and finished
+        Assert.assertEquals(consume(consumer, 2), Arrays.asList("FIN msg0", "FIN msg1"));
+        Collections.sort(handled);
+        Assert.assertEquals(handled, Arrays.asList("msg0", "msg0", "msg1", "msg1"));
+    }
+}
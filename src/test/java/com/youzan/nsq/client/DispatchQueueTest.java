@@ -0,0 +1,278 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.core.NSQConnectionImpl;
+import com.youzan.nsq.client.entity.Address;
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.nsq.client.entity.NSQMessage;
+import com.youzan.nsq.client.entity.Topic;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of per connection {@link DispatchQueue} in message, batch and key ordered modes, and RDY capped by its capacity.
+ */
+public class DispatchQueueTest {
+    private static final Topic TOPIC = new Topic("testDispatchQueue");
+    private static final Address ADDRESS = new Address("127.0.0.1", 4150, "1.0.0", TOPIC.getTopicText(), 0, false);
+
+    private static NSQMessage message(int i) {
+        byte[] id = new byte[8];
+        id[7] = (byte) i;
+        return new NSQMessage(new byte[8], new byte[2], new byte[16], id, id, new byte[]{(byte) i}, ADDRESS, 1L, 60, TOPIC, false);
+    }
+
+    @Test
+    public void testBoundedAndOrdered() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch blocked = new CountDownLatch(1);
+            final List<Integer> handled = new CopyOnWriteArrayList<>();
+            DispatchQueue queue = new DispatchQueue(3, 1, executor, new DispatchQueue.Handler() {
+                @Override
+                public void handle(NSQMessage message) {
+                    started.countDown();
+                    try {
+                        blocked.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    handled.add((int) message.getMessageBody()[0]);
+                }
+            });
+            //first message is taken by the only worker, and 3 more wait in queue
+            Assert.assertTrue(queue.offer(message(0)));
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i <= 3; i++) {
+                Assert.assertTrue(queue.offer(message(i)));
+            }
+            Assert.assertFalse(queue.offer(message(4)));
+            Assert.assertEquals(queue.depth(), 4);
+            Assert.assertEquals(queue.getFreeCapacity(), 0);
+
+            blocked.countDown();
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (handled.size() < 4 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            Assert.assertEquals(handled.toString(), "[0, 1, 2, 3]");
+            Assert.assertEquals(queue.depth(), 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParallelism() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final AtomicInteger running = new AtomicInteger(0);
+            final AtomicInteger maxRunning = new AtomicInteger(0);
+            final CountDownLatch done = new CountDownLatch(100);
+            DispatchQueue queue = new DispatchQueue(100, 3, executor, new DispatchQueue.Handler() {
+                @Override
+                public void handle(NSQMessage message) {
+                    int cnt = running.incrementAndGet();
+                    while (true) {
+                        int max = maxRunning.get();
+                        if (cnt <= max || maxRunning.compareAndSet(max, cnt)) {
+                            break;
+                        }
+                    }
+                    try {
+                        Thread.sleep(1L);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+            for (int i = 0; i < 100; i++) {
+                Assert.assertTrue(queue.offer(message(i)));
+            }
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+            Assert.assertTrue(maxRunning.get() <= 3, "max running: " + maxRunning.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final List<List<NSQMessage>> batches = new CopyOnWriteArrayList<>();
+            final CountDownLatch done = new CountDownLatch(2);
+            DispatchQueue queue = new DispatchQueue(16, 1, executor, new DispatchQueue.BatchHandler() {
+                @Override
+                public void handle(List<NSQMessage> messages) {
+                    batches.add(messages);
+                    done.countDown();
+                }
+            }, 4, 200L, scheduler);
+            //first batch is full with 4 messages, second one is flushed by timer with the last message
+            for (int i = 0; i < 5; i++) {
+                Assert.assertTrue(queue.offer(message(i)));
+            }
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(batches.size(), 2);
+            Assert.assertEquals(batches.get(0).size(), 4);
+            Assert.assertEquals(batches.get(1).size(), 1);
+            Assert.assertEquals((int) batches.get(1).get(0).getMessageBody()[0], 4);
+            //batch is taken out of depth after handler returns
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (queue.depth() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            Assert.assertEquals(queue.depth(), 0);
+        } finally {
+            executor.shutdownNow();
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPartialBatchHoldsNoWorker() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final CountDownLatch batched = new CountDownLatch(1);
+            final CountDownLatch handled = new CountDownLatch(1);
+            DispatchQueue batchQueue = new DispatchQueue(16, 1, executor, new DispatchQueue.BatchHandler() {
+                @Override
+                public void handle(List<NSQMessage> messages) {
+                    batched.countDown();
+                }
+            }, 4, 1000L, scheduler);
+            DispatchQueue queue = new DispatchQueue(16, 1, executor, new DispatchQueue.Handler() {
+                @Override
+                public void handle(NSQMessage message) {
+                    handled.countDown();
+                }
+            });
+            final long start = System.currentTimeMillis();
+            Assert.assertTrue(batchQueue.offer(message(0)));
+            //the only worker is free for other connections while partial batch waits
+            Assert.assertTrue(queue.offer(message(1)));
+            Assert.assertTrue(handled.await(500, TimeUnit.MILLISECONDS));
+            Assert.assertEquals(batchQueue.depth(), 1);
+            Assert.assertTrue(batched.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(System.currentTimeMillis() - start >= 1000L);
+        } finally {
+            executor.shutdownNow();
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBatchResult() {
+        BatchResult result = new BatchResult(3);
+        result.fail(1);
+        Assert.assertFalse(result.isFailed(0));
+        Assert.assertTrue(result.isFailed(1));
+        Assert.assertEquals(result.getFailedCount(), 1);
+        result.failAll();
+        Assert.assertEquals(result.getFailedCount(), 3);
+        try {
+            result.fail(3);
+            Assert.fail("index out of batch accepted");
+        } catch (IndexOutOfBoundsException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testKeyOrderedLanes() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final Map<Integer, List<Integer>> handledByKey = new ConcurrentHashMap<>();
+            final AtomicInteger running = new AtomicInteger(0);
+            final AtomicInteger maxRunning = new AtomicInteger(0);
+            final CountDownLatch done = new CountDownLatch(40);
+            DispatchQueue queue = new DispatchQueue(64, 4, executor, new DispatchQueue.Handler() {
+                @Override
+                public void handle(NSQMessage message) {
+                    int cnt = running.incrementAndGet();
+                    while (true) {
+                        int max = maxRunning.get();
+                        if (cnt <= max || maxRunning.compareAndSet(max, cnt)) {
+                            break;
+                        }
+                    }
+                    int seq = message.getMessageBody()[0];
+                    try {
+                        Thread.sleep(seq % 3);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    handledByKey.get(seq % 5).add(seq);
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            }, new MessageKeyExtractor() {
+                @Override
+                public Object extract(NSQMessage message) {
+                    return message.getMessageBody()[0] % 5;
+                }
+            });
+            for (int key = 0; key < 5; key++) {
+                handledByKey.put(key, new CopyOnWriteArrayList<Integer>());
+            }
+            for (int i = 0; i < 40; i++) {
+                Assert.assertTrue(queue.offer(message(i)));
+            }
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+            Assert.assertTrue(maxRunning.get() <= 4, "max running: " + maxRunning.get());
+            //messages of one key are handled in the order they are offered
+            for (Map.Entry<Integer, List<Integer>> entry : handledByKey.entrySet()) {
+                List<Integer> seqs = entry.getValue();
+                Assert.assertEquals(seqs.size(), 8);
+                for (int i = 1; i < seqs.size(); i++) {
+                    Assert.assertTrue(seqs.get(i - 1) < seqs.get(i), "key " + entry.getKey() + ": " + seqs);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testJsonExtHeaderKey() {
+        NSQMessage message = message(1);
+        Map<String, Object> header = new HashMap<>();
+        header.put("orderId", "1001");
+        message.setJsonExtHeader(header);
+        Assert.assertEquals(MessageKeyExtractors.jsonExtHeader("orderId").extract(message), "1001");
+        Assert.assertNull(MessageKeyExtractors.jsonExtHeader("userId").extract(message));
+    }
+
+    @Test
+    public void testRdyCappedByQueue() {
+        NSQConfig config = new NSQConfig();
+        config.setConsumerDispatchQueueSize(8);
+        config.setRdy(100);
+        NSQConnectionImpl conn = new NSQConnectionImpl(1, ADDRESS, new EmbeddedChannel(), config, 100);
+        Assert.assertEquals(conn.getExpectedRdy(), 8);
+        conn.setExpectedRdy(50);
+        Assert.assertEquals(conn.getExpectedRdy(), 8);
+        conn.declineExpectedRdy();
+        Assert.assertEquals(conn.getExpectedRdy(), 6);
+        conn.increaseExpectedRdy(100);
+        Assert.assertEquals(conn.getExpectedRdy(), 8);
+    }
+}
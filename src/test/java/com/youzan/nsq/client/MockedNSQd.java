@@ -0,0 +1,330 @@
+package com.youzan.nsq.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.youzan.nsq.client.core.command.NSQCommand;
+import com.youzan.util.NamedThreadFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In process nsqd with one partition of passin topic, together with a lookupd which serves lookup of it. nsqd
+ * responses OK to every PUB and MPUB, and counts messages published, or responses error when it is set to fail
+ * publish. Messages added by {@link #addMessage(String, String)} are delivered to subscribers up to their RDY, and
+ * FIN and REQ from subscribers are recorded in order, requeued messages are not delivered again.
+ */
+public class MockedNSQd implements Closeable {
+    //name prefix of threads serving connections and lookup
+    static final String THREAD_NAME = "mocked-nsqd";
+    private static final byte[] OK = "OK".getBytes(NSQCommand.DEFAULT_CHARSET);
+    //feature negotiation of client ends with version in identify response
+    private static final byte[] IDENTIFY_RESP = "{\"version\":\"1.0.0\",\"tls_v1\":false,\"snappy\":false,\"deflate\":false}".getBytes(NSQCommand.DEFAULT_CHARSET);
+    private static final byte[] PUB_FAILED = "E_PUB_FAILED mocked failure".getBytes(NSQCommand.DEFAULT_CHARSET);
+    private static final byte[] MPUB_FAILED = "E_MPUB_FAILED mocked failure".getBytes(NSQCommand.DEFAULT_CHARSET);
+    private static final byte[] CLOSE_WAIT = "CLOSE_WAIT".getBytes(NSQCommand.DEFAULT_CHARSET);
+    private static final int FRAME_TYPE_RESPONSE = 0;
+    private static final int FRAME_TYPE_ERROR = 1;
+    private static final int FRAME_TYPE_MESSAGE = 2;
+    //ext version of json header
+    private static final int EXT_VER_JSON_HEADER = 4;
+
+    private final String topic;
+    private final ServerSocket nsqd;
+    private final HttpServer lookupd;
+    private final ExecutorService exec = Executors.newCachedThreadPool(new NamedThreadFactory(THREAD_NAME, Thread.NORM_PRIORITY));
+    private final Queue<Socket> sockets = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger published = new AtomicInteger(0);
+    private final AtomicLong messageID = new AtomicLong(0);
+    private final Queue<Long> pending = new ConcurrentLinkedQueue<>();
+    private final Map<Long, String> bodies = new ConcurrentHashMap<>();
+    private final Map<Long, String> headers = new ConcurrentHashMap<>();
+    private final List<String> acknowledged = new CopyOnWriteArrayList<>();
+    private volatile boolean closed = false;
+    private volatile boolean failPublish = false;
+    private volatile boolean extendSupport = false;
+
+    public MockedNSQd(final String topic) throws IOException {
+        this.topic = topic;
+        this.nsqd = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.lookupd = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.lookupd.createContext("/lookup", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String node = String.format("{\"broadcast_address\":\"127.0.0.1\",\"tcp_port\":%d,\"version\":\"1.0.0\"}", nsqd.getLocalPort());
+                String resp = String.format("{\"producers\":[%s],\"partitions\":{\"0\":%s},\"meta\":{\"partition_num\":1,\"extend_support\":%b}}", node, node, extendSupport);
+                byte[] bytes = resp.getBytes(NSQCommand.DEFAULT_CHARSET);
+                exchange.sendResponseHeaders(200, bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            }
+        });
+        this.lookupd.setExecutor(exec);
+        this.lookupd.start();
+        exec.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    /**
+     * @return lookupd address, listlookup is not served, so it is taken as lookup address directly.
+     */
+    public String getLookupAddress() {
+        return "127.0.0.1:" + lookupd.getAddress().getPort();
+    }
+
+    public int getPort() {
+        return nsqd.getLocalPort();
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public int getPublished() {
+        return published.get();
+    }
+
+    /**
+     * @param failPublish {@link Boolean#TRUE} to response error to PUB and MPUB, as nsqd is not writable.
+     */
+    public void setFailPublish(boolean failPublish) {
+        this.failPublish = failPublish;
+    }
+
+    /**
+     * @param extendSupport {@link Boolean#TRUE} to look up topic as extendable, message delivered carries ext header
+     *                      then. Set it before client looks up topic.
+     */
+    public void setExtendSupport(boolean extendSupport) {
+        this.extendSupport = extendSupport;
+    }
+
+    public void addMessage(final String body) {
+        addMessage(body, null);
+    }
+
+    /**
+     * add message to deliver to subscribers. Add it before client subscribes, as delivery is driven by RDY, FIN and
+     * REQ from subscriber.
+     * @param body       message body
+     * @param jsonHeader json ext header of message, which is delivered only when topic is extendable
+     */
+    public void addMessage(final String body, final String jsonHeader) {
+        long id = messageID.incrementAndGet();
+        bodies.put(id, body);
+        if (null != jsonHeader) {
+            headers.put(id, jsonHeader);
+        }
+        pending.add(id);
+    }
+
+    /**
+     * @return FIN and REQ received, in form of "FIN body" and "REQ body", in the order they are received
+     */
+    public List<String> getAcknowledged() {
+        return new ArrayList<>(acknowledged);
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                final Socket socket = nsqd.accept();
+                sockets.add(socket);
+                exec.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                //closed
+            }
+        }
+    }
+
+    private void serve(final Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            //magic
+            in.readInt();
+            int rdy = 0;
+            int inFlight = 0;
+            while (!closed) {
+                String cmd = readWord(in);
+                if (cmd.equals("FIN") || cmd.equals("REQ") || cmd.equals("TOUCH")) {
+                    //message id is binary and may contain separators
+                    long id = in.readLong();
+                    in.readLong();
+                    readLine(in);
+                    if (!cmd.equals("TOUCH")) {
+                        acknowledged.add(cmd + " " + bodies.get(id));
+                        inFlight--;
+                        inFlight += deliver(out, rdy - inFlight);
+                    }
+                } else if (cmd.startsWith("RDY")) {
+                    rdy = Integer.parseInt(cmd.substring(4).trim());
+                    inFlight += deliver(out, rdy - inFlight);
+                } else if (cmd.startsWith("SUB")) {
+                    respond(out, OK);
+                } else if (cmd.startsWith("CLS")) {
+                    respond(out, CLOSE_WAIT);
+                } else if (cmd.startsWith("IDENTIFY")) {
+                    skipBody(in);
+                    respond(out, IDENTIFY_RESP);
+                } else if (cmd.startsWith("PUB")) {
+                    skipBody(in);
+                    if (failPublish) {
+                        respond(out, FRAME_TYPE_ERROR, PUB_FAILED);
+                        continue;
+                    }
+                    published.incrementAndGet();
+                    respond(out, OK);
+                } else if (cmd.startsWith("MPUB")) {
+                    in.readInt();
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        skipBody(in);
+                    }
+                    if (failPublish) {
+                        respond(out, FRAME_TYPE_ERROR, MPUB_FAILED);
+                        continue;
+                    }
+                    published.addAndGet(count);
+                    respond(out, OK);
+                }
+            }
+        } catch (IOException e) {
+            //connection closed
+        }
+    }
+
+    /**
+     * deliver pending messages in one flush
+     * @return number of messages delivered
+     */
+    private int deliver(final DataOutputStream out, int count) throws IOException {
+        int delivered = 0;
+        Long id;
+        while (delivered < count && null != (id = pending.poll())) {
+            byte[] body = bodies.get(id).getBytes(NSQCommand.DEFAULT_CHARSET);
+            byte[] ext = null;
+            if (extendSupport && headers.containsKey(id)) {
+                ext = headers.get(id).getBytes(NSQCommand.DEFAULT_CHARSET);
+            }
+            int size = 8 + 2 + 16 + body.length;
+            if (extendSupport) {
+                size += null == ext ? 1 : 1 + 2 + ext.length;
+            }
+            out.writeInt(4 + size);
+            out.writeInt(FRAME_TYPE_MESSAGE);
+            out.writeLong(System.nanoTime());
+            out.writeShort(1);
+            //internal id and trace id
+            out.writeLong(id);
+            out.writeLong(0L);
+            if (extendSupport) {
+                if (null == ext) {
+                    out.writeByte(0);
+                } else {
+                    out.writeByte(EXT_VER_JSON_HEADER);
+                    out.writeShort(ext.length);
+                    out.write(ext);
+                }
+            }
+            out.write(body);
+            delivered++;
+        }
+        out.flush();
+        return delivered;
+    }
+
+    /**
+     * @return command up to its first space, or whole command line if it has no arguments
+     */
+    private static String readWord(final DataInputStream in) throws IOException {
+        ByteArrayOutputStream word = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != ' ') {
+            if (b < 0) {
+                throw new IOException("connection closed");
+            }
+            if (b == NSQCommand.LINE_SEPARATOR) {
+                return new String(word.toByteArray(), NSQCommand.DEFAULT_CHARSET);
+            }
+            word.write(b);
+        }
+        String name = new String(word.toByteArray(), NSQCommand.DEFAULT_CHARSET);
+        if (name.equals("FIN") || name.equals("REQ") || name.equals("TOUCH")) {
+            return name;
+        }
+        return name + " " + readLine(in);
+    }
+
+    private static String readLine(final DataInputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != NSQCommand.LINE_SEPARATOR) {
+            if (b < 0) {
+                throw new IOException("connection closed");
+            }
+            line.write(b);
+        }
+        return new String(line.toByteArray(), NSQCommand.DEFAULT_CHARSET);
+    }
+
+    private static void skipBody(final DataInputStream in) throws IOException {
+        int size = in.readInt();
+        in.readFully(new byte[size]);
+    }
+
+    private static void respond(final DataOutputStream out, final byte[] data) throws IOException {
+        respond(out, FRAME_TYPE_RESPONSE, data);
+    }
+
+    private static void respond(final DataOutputStream out, int frameType, final byte[] data) throws IOException {
+        out.writeInt(4 + data.length);
+        out.writeInt(frameType);
+        out.write(data);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        lookupd.stop(0);
+        nsqd.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        exec.shutdownNow();
+    }
+}
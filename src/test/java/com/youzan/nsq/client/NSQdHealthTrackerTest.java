@@ -0,0 +1,115 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.Address;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class NSQdHealthTrackerTest {
+
+    private Address[] nodes(int num) {
+        Address[] addrs = new Address[num];
+        for (int i = 0; i < num; i++) {
+            addrs[i] = new Address("127.0.0.1", 4150 + i, "1.0.0", "topic", i, false);
+        }
+        return addrs;
+    }
+
+    @Test
+    public void testChooseLowerLatency() {
+        NSQdHealthTracker tracker = new NSQdHealthTracker();
+        Address[] addrs = nodes(2);
+        for (int i = 0; i < 10; i++) {
+            tracker.onSuccess(addrs[0], 100000000L);
+            tracker.onSuccess(addrs[1], 1000000L);
+        }
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(tracker.choose(addrs), 1);
+        }
+        //errors weigh in score
+        tracker.onFailure(addrs[1]);
+        tracker.onFailure(addrs[1]);
+        Assert.assertTrue(tracker.getErrorRate(addrs[1]) > 0.3);
+        Assert.assertEquals(tracker.getCircuitState(addrs[1]), NSQdHealthTracker.CircuitState.CLOSED);
+    }
+
+    @Test
+    public void testCircuitBreaker() throws InterruptedException {
+        NSQdHealthTracker tracker = new NSQdHealthTracker();
+        Address[] addrs = nodes(3);
+        for (int i = 0; i < NSQdHealthTracker.FAILURE_THRESHOLD; i++) {
+            tracker.onFailure(addrs[2]);
+        }
+        Assert.assertEquals(tracker.getCircuitState(addrs[2]), NSQdHealthTracker.CircuitState.OPEN);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertNotEquals(tracker.choose(addrs), 2);
+        }
+        //same nsqd in another partition shares health
+        Address samePartition = new Address("127.0.0.1", 4152, "1.0.0", "another", 0, false);
+        Assert.assertEquals(tracker.getCircuitState(samePartition), NSQdHealthTracker.CircuitState.OPEN);
+
+        Thread.sleep(NSQdHealthTracker.OPEN_INTERVAL_IN_MILLISECOND + 50);
+        Assert.assertEquals(tracker.getCircuitState(addrs[2]), NSQdHealthTracker.CircuitState.HALF_OPEN);
+        //only one probe goes to half open node
+        int probes = 0;
+        for (int i = 0; i < 100; i++) {
+            if (tracker.choose(addrs) == 2) {
+                probes++;
+            }
+        }
+        Assert.assertTrue(probes <= 1, "probes: " + probes);
+        tracker.onSuccess(addrs[2], 1000000L);
+        Assert.assertEquals(tracker.getCircuitState(addrs[2]), NSQdHealthTracker.CircuitState.CLOSED);
+    }
+
+    @Test
+    public void testAllCircuitsOpen() {
+        NSQdHealthTracker tracker = new NSQdHealthTracker();
+        Address[] addrs = nodes(2);
+        for (int i = 0; i < NSQdHealthTracker.FAILURE_THRESHOLD; i++) {
+            tracker.onFailure(addrs[0]);
+            tracker.onFailure(addrs[1]);
+        }
+        int idx = tracker.choose(addrs);
+        Assert.assertTrue(idx == 0 || idx == 1);
+    }
+
+    @Test
+    public void testProbeTakenByChosenOnly() {
+        NSQdHealthTracker tracker = new NSQdHealthTracker();
+        Address[] addrs = nodes(2);
+        long now = 1000L;
+        tracker.onSuccess(addrs[0], 100000000L, now);
+        tracker.onSuccess(addrs[1], 1000000L, now);
+        for (int i = 0; i < NSQdHealthTracker.FAILURE_THRESHOLD; i++) {
+            tracker.onFailure(addrs[0], now);
+        }
+        now += NSQdHealthTracker.OPEN_INTERVAL_IN_MILLISECOND;
+        Assert.assertEquals(tracker.getCircuitState(addrs[0], now), NSQdHealthTracker.CircuitState.HALF_OPEN);
+        //faster node wins, probe of half open node is left for publish which chooses it
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(tracker.choose(addrs, now), 1);
+        }
+        Assert.assertEquals(tracker.getCircuitState(addrs[0], now), NSQdHealthTracker.CircuitState.HALF_OPEN);
+    }
+
+    @Test
+    public void testDecay() {
+        NSQdHealthTracker tracker = new NSQdHealthTracker();
+        Address[] addrs = nodes(2);
+        long now = 1000L;
+        tracker.onSuccess(addrs[0], 100000000L, now);
+        tracker.onFailure(addrs[0], now);
+        tracker.onSuccess(addrs[1], 10000000L, now);
+        double errorRate = tracker.getErrorRate(addrs[0], now);
+        Assert.assertEquals(tracker.choose(addrs, now), 1);
+        //statistics of node not chosen halve in half life
+        now += NSQdHealthTracker.DECAY_HALF_LIFE_IN_MILLISECOND;
+        Assert.assertEquals(tracker.getLatencyInNano(addrs[0], now), 50000000d, 1d);
+        Assert.assertEquals(tracker.getErrorRate(addrs[0], now), errorRate / 2, 0.0001d);
+        //node is chosen again, once its statistics decay below those of node sampled lately
+        tracker.onSuccess(addrs[1], 10000000L, now);
+        now += 5 * NSQdHealthTracker.DECAY_HALF_LIFE_IN_MILLISECOND;
+        tracker.onSuccess(addrs[1], 10000000L, now);
+        Assert.assertEquals(tracker.choose(addrs, now), 0);
+    }
+}
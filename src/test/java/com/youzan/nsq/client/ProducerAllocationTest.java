@@ -0,0 +1,55 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.Topic;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocation regression test of single message publish, against {@link MockedNSQd}. Bytes allocated by publishing
+ * thread are measured, messages are created beforehand.
+ */
+public class ProducerAllocationTest extends AbstractMockedNSQdTestcase {
+    private static final Logger logger = LoggerFactory.getLogger(ProducerAllocationTest.class);
+    private static final int WARM_UP = 5000;
+    private static final int MEASURED = 5000;
+    //bytes allocated by publishing thread per publish in steady state, it is about 250 bytes for now
+    private static final long ALLOCATION_LIMIT = 512;
+
+    @Test
+    public void testPublishAllocation() throws Exception {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            throw new SkipException("Thread allocated bytes is not supported.");
+        }
+        final com.sun.management.ThreadMXBean mxBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!mxBean.isThreadAllocatedMemorySupported() || !mxBean.isThreadAllocatedMemoryEnabled()) {
+            throw new SkipException("Thread allocated bytes is not supported.");
+        }
+        Producer producer = startProducer();
+        Topic topic = new Topic(nsqd.getTopic());
+        byte[] body = "message for allocation test".getBytes();
+        List<Message> messages = new ArrayList<>(WARM_UP + MEASURED);
+        for (int i = 0; i < WARM_UP + MEASURED; i++) {
+            messages.add(Message.create(topic, body));
+        }
+        for (int i = 0; i < WARM_UP; i++) {
+            producer.publish(messages.get(i));
+        }
+        final long threadId = Thread.currentThread().getId();
+        long start = mxBean.getThreadAllocatedBytes(threadId);
+        for (int i = WARM_UP; i < WARM_UP + MEASURED; i++) {
+            producer.publish(messages.get(i));
+        }
+        long perPublish = (mxBean.getThreadAllocatedBytes(threadId) - start) / MEASURED;
+        logger.info("{} bytes allocated per publish.", perPublish);
+        Assert.assertEquals(nsqd.getPublished(), WARM_UP + MEASURED);
+        Assert.assertTrue(perPublish <= ALLOCATION_LIMIT, perPublish + " bytes allocated per publish, limit is " + ALLOCATION_LIMIT);
+    }
+}
@@ -0,0 +1,99 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.core.NSQConnection;
+import com.youzan.nsq.client.core.pool.producer.ConnectionRing;
+import com.youzan.nsq.client.entity.Address;
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.Topic;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests of producer with pipelined connections, which are picked from {@link ConnectionRing}, against {@link MockedNSQd}.
+ */
+public class ProducerConnectionRingTest extends AbstractMockedNSQdTestcase {
+    private static final int RING_SIZE = 4;
+
+    //runs after mocked nsqd starts, as configuration methods of base class run first
+    @BeforeMethod
+    public void configureRing() {
+        config.setMaxInFlightCommandsPerConnection(16);
+        config.setConnectionPoolSize(RING_SIZE);
+    }
+
+    private Address address() {
+        return new Address("127.0.0.1", nsqd.getPort(), "1.0.0", nsqd.getTopic(), 0, false);
+    }
+
+    @Test
+    public void testConcurrentPublish() throws Exception {
+        final ProducerImplV2 producer = startProducer();
+        Assert.assertNotNull(producer.getConnectionRing());
+        Assert.assertNull(producer.getConnectionPool());
+        final Topic topic = new Topic(nsqd.getTopic());
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 500; j++) {
+                            producer.publish(Message.create(topic, "message in ring"));
+                        }
+                    } catch (Exception e) {
+                        error.set(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(error.get());
+        Assert.assertEquals(nsqd.getPublished(), 4000);
+        int count = producer.getConnectionRing().getConnectionCount(address());
+        Assert.assertTrue(count >= 1 && count <= RING_SIZE, "connections in ring: " + count);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        ProducerImplV2 producer = startProducer();
+        Address address = address();
+        ConnectionRing ring = producer.getConnectionRing();
+        NSQConnection conn = ring.acquire(address);
+        Assert.assertSame(ring.acquire(address), conn);
+        ring.invalidate(conn);
+        Assert.assertFalse(conn.isConnected());
+        NSQConnection next = ring.acquire(address);
+        Assert.assertNotSame(next, conn);
+        Assert.assertTrue(next.isConnected());
+        producer.publish(Message.create(new Topic(nsqd.getTopic()), "message after invalidate"));
+        Assert.assertEquals(nsqd.getPublished(), 1);
+    }
+
+    @Test
+    public void testDeadConnectionReplaced() throws Exception {
+        config.setProducerConnectionEvictIntervalInMillSec(100);
+        ProducerImplV2 producer = startProducer();
+        Address address = address();
+        ConnectionRing ring = producer.getConnectionRing();
+        NSQConnection conn = ring.acquire(address);
+        //connection dies without being invalidated, it is removed from ring and replaced
+        conn.close();
+        Thread.sleep(300L);
+        NSQConnection next = ring.acquire(address);
+        Assert.assertNotSame(next, conn);
+        Assert.assertTrue(next.isConnected());
+        Assert.assertEquals(ring.getConnectionCount(address), 1);
+        producer.publish(Message.create(new Topic(nsqd.getTopic()), "message after replacement"));
+        Assert.assertEquals(nsqd.getPublished(), 1);
+    }
+}
@@ -648,6 +648,47 @@ public class ProducerTest extends AbstractNSQClientTestcase {
     }
 
 
+    @Test
+    public void testPublishAsyncPipelined() throws Exception {
+        logger.info("[testPublishAsyncPipelined] starts");
+        String topicName = "testPublishAsyncPipelined";
+        String channel = "default";
+        String adminUrl = "http://" + props.getProperty("admin-address");
+        Producer producer = null;
+        try{
+            TopicUtil.createTopic(adminUrl, topicName, 2, 1, channel, false, false);
+            TopicUtil.createTopicChannel(adminUrl, topicName, channel);
+
+            NSQConfig config = (NSQConfig) this.config.clone();
+            config.setLookupAddresses(props.getProperty("lookup-addresses"));
+            config.setConnectionPoolSize(1);
+            config.setMaxInFlightCommandsPerConnection(16);
+
+            producer = new ProducerImplV2(config);
+            producer.start();
+
+            final Topic topic = new Topic(topicName);
+            List<io.netty.util.concurrent.Future<MessageReceipt>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(producer.publishAsync(Message.create(topic, "Message #" + i)));
+            }
+            List<byte[]> batch = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                batch.add(("Batch Message #" + i).getBytes(IOUtil.DEFAULT_CHARSET));
+            }
+            futures.add(producer.publishMultiAsync(batch, topic));
+            for (io.netty.util.concurrent.Future<MessageReceipt> future : futures) {
+                MessageReceipt receipt = future.get(config.getQueryTimeoutInMillisecond() * 2, TimeUnit.MILLISECONDS);
+                Assert.assertEquals(receipt.getTopicName(), topicName);
+            }
+        }finally {
+            logger.info("[testPublishAsyncPipelined] ends");
+            if(null != producer)
+                producer.close();
+            TopicUtil.deleteTopic(adminUrl, topicName);
+        }
+    }
+
     @Test(invocationCount = 3)
     public void testProducerPreallocate() throws Exception {
         logger.info("[testProducerPreallocate] starts");
@@ -0,0 +1,62 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.nsq.client.entity.Topic;
+import com.youzan.nsq.client.network.netty.NettyTransports;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests of producer publishing over netty transports in {@link NSQConfig.Transport}.
+ */
+public class ProducerTransportTest {
+
+    @DataProvider(name = "transports")
+    public static Object[][] transports() {
+        return new Object[][]{{NSQConfig.Transport.NIO, false}, {NSQConfig.Transport.EPOLL, false}, {NSQConfig.Transport.EPOLL, true}};
+    }
+
+    @Test
+    public void testEventLoopGroupOfTransport() {
+        NSQConfig config = new NSQConfig();
+        EventLoopGroup nio = NettyTransports.newEventLoopGroup(config, 1, null);
+        Assert.assertTrue(nio instanceof NioEventLoopGroup);
+        nio.shutdownGracefully();
+
+        config.setTransport(NSQConfig.Transport.EPOLL);
+        Assert.assertEquals(NettyTransports.useEpoll(config), Epoll.isAvailable());
+        EventLoopGroup epoll = NettyTransports.newEventLoopGroup(config, 1, null);
+        //falls back to NIO if native epoll is not available
+        Assert.assertTrue(Epoll.isAvailable() ? epoll instanceof EpollEventLoopGroup : epoll instanceof NioEventLoopGroup);
+        epoll.shutdownGracefully();
+    }
+
+    @Test(dataProvider = "transports")
+    public void testPublish(NSQConfig.Transport transport, boolean epollOptions) throws Exception {
+        try (MockedNSQd nsqd = new MockedNSQd("testTransport")) {
+            NSQConfig config = new NSQConfig();
+            config.setLookupAddresses(nsqd.getLookupAddress());
+            config.setTransport(transport);
+            config.setEpollTcpQuickAck(epollOptions);
+            config.setEpollBusyPoll(epollOptions);
+            config.setNettyPoolSize(1);
+            ProducerImplV2 producer = new ProducerImplV2(config);
+            try {
+                producer.start();
+                Topic topic = new Topic(nsqd.getTopic());
+                for (int i = 0; i < 10; i++) {
+                    producer.publish(Message.create(topic, "transport " + transport + " " + i));
+                }
+                Assert.assertEquals(nsqd.getPublished(), 10);
+            } finally {
+                producer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.NSQConfig;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests of producer warm up against {@link MockedNSQd}, which serves lookup of any topic with its only nsqd.
+ */
+public class ProducerWarmUpTest {
+
+    @Test
+    public void testWarmUpReport() throws Exception {
+        try (MockedNSQd nsqd = new MockedNSQd("testWarmUp")) {
+            NSQConfig config = new NSQConfig();
+            config.setLookupAddresses(nsqd.getLookupAddress());
+            config.setMinIdleConnectionForProducer(1);
+            config.setWarmUpParallelism(4);
+            ProducerImplV2 producer = new ProducerImplV2(config);
+            try {
+                String[] topics = new String[20];
+                for (int i = 0; i < topics.length; i++) {
+                    topics[i] = "testWarmUp" + i;
+                }
+                producer.start(topics);
+                WarmUpReport report = producer.getWarmUpReport();
+                Assert.assertNotNull(report);
+                Assert.assertTrue(report.isComplete(), report.toString());
+                Assert.assertEquals(report.getTopics(), 20);
+                //address of each topic partition is prepared
+                Assert.assertEquals(report.getAddresses(), 20);
+                Assert.assertEquals(report.getConnections(), 20);
+                Assert.assertTrue(report.getElapsedMillis() >= report.getLookupMillis() + report.getPrepareMillis() - 1);
+            } finally {
+                producer.close();
+            }
+        }
+    }
+
+    @Test
+    public void testWarmUpDeadline() throws Exception {
+        try (MockedNSQd nsqd = new MockedNSQd("testWarmUpDeadline")) {
+            NSQConfig config = new NSQConfig();
+            config.setLookupAddresses(nsqd.getLookupAddress());
+            config.setWarmUpTimeoutInMillisecond(0);
+            ProducerImplV2 producer = new ProducerImplV2(config);
+            try {
+                producer.start("testWarmUpDeadline0", "testWarmUpDeadline1");
+                WarmUpReport report = producer.getWarmUpReport();
+                Assert.assertTrue(report.isTimedOut(), report.toString());
+                Assert.assertFalse(report.isComplete());
+            } finally {
+                producer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.core.ImmediatePromise;
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.MessagesWrapper;
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.nsq.client.entity.Topic;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class PubAccumulatorTest extends AbstractMockedNSQdTestcase {
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService exec;
+
+    private static class RecordingProducer extends ProducerImplV2 {
+        private final List<Message> sent = new CopyOnWriteArrayList<>();
+
+        RecordingProducer(NSQConfig config) {
+            super(config);
+        }
+
+        @Override
+        Future<MessageReceipt> sendPUBAsync(Message message) {
+            sent.add(message);
+            Promise<MessageReceipt> promise = new ImmediatePromise<>();
+            MessageReceipt receipt = new MessageReceipt();
+            receipt.setTopicName(message.getTopic().getTopicText());
+            receipt.setNsqdAddr("127.0.0.1:4150");
+            promise.setSuccess(receipt);
+            return promise;
+        }
+    }
+
+    @BeforeMethod
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        exec = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        scheduler.shutdownNow();
+        exec.shutdownNow();
+    }
+
+    @Test
+    public void testBatchSentWhenFull() throws Exception {
+        NSQConfig config = new NSQConfig();
+        config.setPublishBatchLingerInMillisecond(60 * 1000);
+        config.setPublishBatchSize(3);
+        RecordingProducer producer = new RecordingProducer(config);
+        PubAccumulator accumulator = new PubAccumulator(producer, config, scheduler, exec);
+
+        Topic topic = new Topic("testBatchSentWhenFull");
+        List<Future<MessageReceipt>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(accumulator.append(Message.create(topic, "msg" + i), -1));
+        }
+        //another partition goes to another batch
+        Future<MessageReceipt> other = accumulator.append(Message.create(topic, "msg in 1"), 1);
+
+        Assert.assertEquals(producer.sent.size(), 1);
+        Assert.assertTrue(producer.sent.get(0) instanceof MessagesWrapper);
+        Assert.assertEquals(producer.sent.get(0).getMessageCount(), 3);
+        for (Future<MessageReceipt> future : futures) {
+            Assert.assertEquals(future.getNow().getTopicName(), "testBatchSentWhenFull");
+        }
+        Assert.assertFalse(other.isDone());
+
+        //single message left is sent in PUB
+        accumulator.close();
+        Assert.assertTrue(other.isSuccess());
+        Assert.assertEquals(producer.sent.size(), 2);
+        Assert.assertFalse(producer.sent.get(1) instanceof MessagesWrapper);
+    }
+
+    @Test
+    public void testBatchSentAfterLinger() throws Exception {
+        NSQConfig config = new NSQConfig();
+        config.setPublishBatchLingerInMillisecond(50);
+        config.setPublishBatchBytes(1024);
+        RecordingProducer producer = new RecordingProducer(config);
+        PubAccumulator accumulator = new PubAccumulator(producer, config, scheduler, exec);
+
+        Topic topic = new Topic("testBatchSentAfterLinger");
+        //2 messages exceeds batch bytes
+        Future<MessageReceipt> first = accumulator.append(Message.create(topic, new byte[600]), -1);
+        Future<MessageReceipt> second = accumulator.append(Message.create(topic, new byte[600]), -1);
+        Future<MessageReceipt> third = accumulator.append(Message.create(topic, new byte[100]), -1);
+        Assert.assertTrue(first.isSuccess());
+        Assert.assertFalse(second.isDone());
+
+        Assert.assertTrue(third.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(second.isSuccess());
+        Assert.assertEquals(producer.sent.size(), 2);
+        Assert.assertEquals(producer.sent.get(1).getMessageCount(), 2);
+        accumulator.close();
+    }
+
+    @Test
+    public void testCloseSendsBatches() throws Exception {
+        config.setPublishBatchLingerInMillisecond(60 * 1000);
+        config.setPublishBatchSize(100);
+        ProducerImplV2 producer = startProducer();
+        Topic topic = new Topic(nsqd.getTopic());
+        List<Future<MessageReceipt>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(producer.publishAsync(Message.create(topic, "msg" + i)));
+        }
+        Assert.assertEquals(nsqd.getPublished(), 0);
+        //messages lingering in batch are published before producer closes
+        producer.close();
+        for (Future<MessageReceipt> future : futures) {
+            Assert.assertTrue(future.isSuccess(), "publish fails: " + future.cause());
+        }
+        Assert.assertEquals(nsqd.getPublished(), 5);
+    }
+}
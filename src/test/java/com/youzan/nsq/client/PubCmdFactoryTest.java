@@ -0,0 +1,32 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.core.command.Pub;
+import com.youzan.nsq.client.core.command.PubTrace;
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.nsq.client.entity.Topic;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PubCmdFactoryTest {
+
+    @Test
+    public void testLocalTraceFlags() throws Exception {
+        NSQConfig config = new NSQConfig();
+        config.setLookupAddresses("127.0.0.1:4161");
+        config.getLocalTraceMap().put("testTraceOn", "1");
+        config.getLocalTraceMap().put("testTraceOff", "0");
+        config.getLocalTraceMap().put("testTraceInvalid", "on");
+        PubCmdFactory factory = PubCmdFactory.getInstance(false);
+
+        Message traced = Message.create(new Topic("testTraceOn"), "msg");
+        Assert.assertTrue(factory.isTracedMessage(config, traced));
+        Assert.assertTrue(traced.isTraced());
+        Assert.assertEquals(factory.create(Message.create(new Topic("testTraceOn"), "msg"), config).getClass(), PubTrace.class);
+
+        Assert.assertFalse(factory.isTracedMessage(config, Message.create(new Topic("testTraceOff"), "msg")));
+        Assert.assertFalse(factory.isTracedMessage(config, Message.create(new Topic("testTraceInvalid"), "msg")));
+        Assert.assertFalse(factory.isTracedMessage(config, Message.create(new Topic("testTraceAbsent"), "msg")));
+        Assert.assertEquals(factory.create(Message.create(new Topic("testTraceOff"), "msg"), config).getClass(), Pub.class);
+    }
+}
@@ -0,0 +1,115 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.nsq.client.entity.Topic;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+/**
+ * Tests of publish spill journal, against {@link MockedNSQd} which fails publish during outage.
+ */
+public class PubSpillJournalTest extends AbstractMockedNSQdTestcase {
+
+    private static NSQConfig spillConfig(final NSQConfig config, final File dir) {
+        config.setPublishSpillDirectory(dir.getAbsolutePath());
+        config.setProducerRetryIntervalBaseInMilliSeconds(10);
+        return config;
+    }
+
+    private void waitForPublished(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (nsqd.getPublished() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(nsqd.getPublished(), expected);
+    }
+
+    private static void deleteDir(final File dir) {
+        File[] files = dir.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testSpillAndReplay() throws Exception {
+        final File dir = Files.createTempDirectory("testSpillAndReplay").toFile();
+        try {
+            spillConfig(config, dir).setPublishSpillReplayIntervalInMillisecond(100);
+            ProducerImplV2 producer = startProducer();
+            Topic topic = new Topic(nsqd.getTopic());
+            nsqd.setFailPublish(true);
+            for (int i = 0; i < 10; i++) {
+                MessageReceipt receipt = producer.publishAndGetReceipt(Message.create(topic, "spilled message " + i));
+                Assert.assertTrue(receipt.isSpilled());
+                Assert.assertEquals(receipt.getTopicName(), nsqd.getTopic());
+            }
+            Assert.assertTrue(producer.publishAsync(Message.create(topic, "spilled async message")).get().isSpilled());
+            Assert.assertEquals(nsqd.getPublished(), 0);
+
+            nsqd.setFailPublish(false);
+            waitForPublished(11);
+            Assert.assertFalse(producer.publishAndGetReceipt(Message.create(topic, "message")).isSpilled());
+        } finally {
+            closeNSQd();
+            deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void testRecoverAndBound() throws Exception {
+        final File dir = Files.createTempDirectory("testRecoverAndBound").toFile();
+        try {
+            //producer replays journal opened by test, and it has no journal of its own
+            ProducerImplV2 producer = startProducer();
+            NSQConfig config = spillConfig(newConfig(nsqd), dir);
+            //8 segments of 1KB
+            config.setPublishSpillMaxBytes(8 * 1024);
+            config.setPublishSpillReplayIntervalInMillisecond(3600 * 1000);
+            config.setPublishSpillFsyncPolicy(NSQConfig.SpillFsyncPolicy.ALWAYS);
+            Topic topic = new Topic(nsqd.getTopic());
+            byte[] body = new byte[100];
+            PubSpillJournal journal = new PubSpillJournal(producer, config);
+            int appended = 0;
+            while (journal.append(Message.create(topic, body))) {
+                appended++;
+            }
+            //disk usage is bounded
+            Assert.assertTrue(appended > 50 && appended <= 8 * 1024 / 100, "appended: " + appended);
+            journal.close();
+            Assert.assertEquals(dir.list().length, 9);
+            //torn record at tail
+            File last = new File(dir, PubSpillJournal.SEGMENT_PREFIX + 7 + PubSpillJournal.SEGMENT_SUFFIX);
+            try (RandomAccessFile raf = new RandomAccessFile(last, "rw")) {
+                int pos = 0;
+                while (raf.readInt() > 0) {
+                    raf.seek(pos += 8 + 100 + 2 + nsqd.getTopic().length());
+                }
+                raf.seek(pos);
+                raf.writeInt(100);
+                raf.writeInt(12345);
+            }
+
+            journal = new PubSpillJournal(producer, config);
+            Assert.assertFalse(journal.isEmpty());
+            journal.replay();
+            Assert.assertEquals(nsqd.getPublished(), appended);
+            Assert.assertTrue(journal.isEmpty());
+            Assert.assertTrue(journal.append(Message.create(topic, body)));
+            journal.replay();
+            Assert.assertEquals(nsqd.getPublished(), appended + 1);
+            journal.close();
+            Assert.assertEquals(dir.list().length, 2);
+        } finally {
+            deleteDir(dir);
+        }
+    }
+}
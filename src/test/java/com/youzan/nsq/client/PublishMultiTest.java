@@ -0,0 +1,151 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.core.ImmediatePromise;
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.nsq.client.entity.Topic;
+import com.youzan.nsq.client.exception.NSQException;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tests of batch splitting and per message result of {@link ProducerImplV2#publishMultiAndGetResult(List, int)}.
+ */
+public class PublishMultiTest {
+
+    /**
+     * producer which routes message to partition of sharding ID mod 3, and fails batches with failing body.
+     */
+    private static class RecordingProducer extends ProducerImplV2 {
+        private final List<Message> sent = new CopyOnWriteArrayList<>();
+
+        RecordingProducer(NSQConfig config) {
+            super(config);
+        }
+
+        @Override
+        int shardingPartition(Message message) throws NSQException {
+            if (message.getTopicShardingId() == Message.NO_SHARDING) {
+                return -1;
+            }
+            return (int) ((Long) message.getTopicShardingId() % 3);
+        }
+
+        @Override
+        Future<MessageReceipt> sendPUBAsync(Message message) {
+            sent.add(message);
+            Promise<MessageReceipt> promise = new ImmediatePromise<>();
+            for (byte[] body : message.getMessageBodiesInByte()) {
+                if (body.length == 0 || body[0] == 'x') {
+                    promise.setFailure(new NSQException("mocked failure"));
+                    return promise;
+                }
+            }
+            MessageReceipt receipt = new MessageReceipt();
+            receipt.setTopicName(message.getTopic().getTopicText());
+            receipt.setNsqdAddr("127.0.0.1:4150");
+            promise.setSuccess(receipt);
+            return promise;
+        }
+    }
+
+    @Test
+    public void testSplitByBytesAndPartition() throws Exception {
+        try (MockedNSQd nsqd = new MockedNSQd("testPublishMulti")) {
+            NSQConfig config = new NSQConfig();
+            config.setLookupAddresses(nsqd.getLookupAddress());
+            //3 messages of 100 bytes in one MPUB
+            config.setPublishBatchBytes(4 + 3 * 104);
+            RecordingProducer producer = new RecordingProducer(config);
+            try {
+                producer.start();
+                Topic topic = new Topic(nsqd.getTopic());
+                List<Message> messages = new ArrayList<>();
+                for (int i = 0; i < 12; i++) {
+                    byte[] body = new byte[100];
+                    body[0] = (byte) (i == 7 ? 'x' : 'm');
+                    messages.add(Message.create(topic, body).setTopicShardingIDLong(i));
+                }
+                PublishMultiResult result = producer.publishMultiAndGetResult(messages, 100);
+                //4 messages in each partition, split into batches of 3 and 1
+                Assert.assertEquals(producer.sent.size(), 6);
+                for (Message sent : producer.sent) {
+                    long partition = (Long) sent.getTopicShardingId() % 3;
+                    Assert.assertTrue(sent.getMessageCount() <= 3);
+                    for (byte[] body : sent.getMessageBodiesInByte()) {
+                        Assert.assertEquals(messages.indexOf(findMessage(messages, body)) % 3, partition);
+                    }
+                }
+                //message 7 fails with messages in its batch, which are 1, 4, 7
+                Assert.assertEquals(result.size(), 12);
+                Assert.assertEquals(result.getFailedIndexes().toString(), "[1, 4, 7]");
+                Assert.assertFalse(result.isAllSuccess());
+                Assert.assertNotNull(result.getException(4));
+                Assert.assertEquals(result.getReceipt(10).getNsqdAddr(), "127.0.0.1:4150");
+
+                producer.sent.clear();
+                List<byte[]> bodies = new ArrayList<>();
+                for (int i = 0; i < 5; i++) {
+                    bodies.add(new byte[]{'m', (byte) i});
+                }
+                bodies.add(new byte[]{'x'});
+                List<byte[]> failed = producer.publishMulti(bodies, topic, 2);
+                Assert.assertEquals(producer.sent.size(), 3);
+                Assert.assertEquals(failed.size(), 2);
+                Assert.assertSame(failed.get(1), bodies.get(5));
+            } finally {
+                producer.close();
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidMessageFailsAlone() throws Exception {
+        try (MockedNSQd nsqd = new MockedNSQd("testPublishMultiInvalid")) {
+            NSQConfig config = new NSQConfig();
+            config.setLookupAddresses(nsqd.getLookupAddress());
+            RecordingProducer producer = new RecordingProducer(config);
+            try {
+                producer.start();
+                Topic topic = new Topic(nsqd.getTopic());
+                List<Message> messages = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    messages.add(Message.create(topic, i == 2 ? new byte[0] : new byte[]{'m', (byte) i}));
+                }
+                //blank message is reported in result, others are published
+                PublishMultiResult result = producer.publishMultiAndGetResult(messages, 10);
+                Assert.assertEquals(result.getFailedIndexes().toString(), "[2]");
+                Assert.assertEquals(producer.sent.size(), 1);
+                Assert.assertEquals(producer.sent.get(0).getMessageCount(), 3);
+
+                List<byte[]> bodies = new ArrayList<>();
+                bodies.add(new byte[]{'m'});
+                bodies.add(new byte[0]);
+                List<byte[]> failed = producer.publishMulti(bodies, topic, 10);
+                Assert.assertEquals(failed.size(), 1);
+                Assert.assertSame(failed.get(0), bodies.get(1));
+            } finally {
+                producer.close();
+            }
+            //messages published while producer is closed fail one by one
+            PublishMultiResult result = producer.publishMultiAndGetResult(Collections.singletonList(Message.create(new Topic(nsqd.getTopic()), "m")), 10);
+            Assert.assertEquals(result.getFailedIndexes().toString(), "[0]");
+        }
+    }
+
+    private static Message findMessage(List<Message> messages, byte[] body) {
+        for (Message message : messages) {
+            if (message.getMessageBodyInByte() == body) {
+                return message;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,69 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.NSQConfig;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests of adaptive rdy ceiling computed by {@link RdyController}.
+ */
+public class RdyControllerTest {
+
+    private static NSQConfig config() {
+        NSQConfig config = new NSQConfig();
+        config.setConsumerWorkerPoolSize(2);
+        config.setMsgTimeoutInMillisecond(1000);
+        config.setConsumerDispatchQueueSize(16);
+        return config;
+    }
+
+    @Test
+    public void testIncreaseWhenUnderUtilized() {
+        RdyController controller = new RdyController(config());
+        long now = 1000L;
+        int ceiling = controller.adjust(4, 1, 0L, now);
+        Assert.assertEquals(ceiling, 4);
+        //fast handler keeps workers idle, ceiling grows up to dispatch queue size
+        for (int i = 0; i < 20; i++) {
+            controller.record(TimeUnit.MILLISECONDS.toNanos(10), 10);
+            now += 1000L;
+            ceiling = controller.adjust(4, 1, 0L, now);
+        }
+        Assert.assertEquals(ceiling, 16);
+        Assert.assertEquals(controller.getLatencyInMillisecond(), 1d, 0.01d);
+        Assert.assertTrue(controller.getUtilization() < 0.1d);
+    }
+
+    @Test
+    public void testIdleNotIncreased() {
+        RdyController controller = new RdyController(config());
+        long now = 1000L;
+        //no message handled, ceiling stays at baseline
+        for (int i = 0; i < 20; i++) {
+            now += 1000L;
+            Assert.assertEquals(controller.adjust(4, 1, 0L, now), 4);
+        }
+        Assert.assertEquals(controller.getUtilization(), 0d, 0.01d);
+    }
+
+    @Test
+    public void testDecreaseBeforeTimeout() {
+        RdyController controller = new RdyController(config());
+        long now = 1000L;
+        controller.adjust(16, 1, 0L, now);
+        //100ms per message with 2 workers busy all the time
+        controller.record(TimeUnit.MILLISECONDS.toNanos(2000), 20);
+        now += 1000L;
+        //20 messages wait 1000ms for workers, which is msg timeout
+        Assert.assertEquals(controller.adjust(16, 1, 20L, now), 8);
+        Assert.assertEquals(controller.estimateWaitInMillisecond(20L), 1000L);
+        Assert.assertEquals(controller.getUtilization(), 1d, 0.01d);
+
+        //2 workers handle 10 messages in half of msg timeout, which is shared by 2 connections
+        controller.record(TimeUnit.MILLISECONDS.toNanos(2000), 20);
+        now += 1000L;
+        Assert.assertEquals(controller.adjust(16, 2, 4L, now), 5);
+    }
+}
@@ -0,0 +1,67 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.nsq.client.entity.Topic;
+import io.netty.util.concurrent.Future;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class RetryBackoffTest extends AbstractMockedNSQdTestcase {
+
+    @Test
+    public void testExponentialWithJitter() {
+        NSQConfig config = new NSQConfig();
+        config.setProducerRetryIntervalBaseInMilliSeconds(100);
+        config.setPublishRetryBudgetInMilliSeconds(100000);
+        RetryBackoff backoff = new RetryBackoff(config);
+        boolean jittered = false;
+        for (int i = 0; i < 100; i++) {
+            for (int retry = 1; retry <= 5; retry++) {
+                long exp = 100L << (retry - 1);
+                long delay = backoff.delay(retry, 0);
+                Assert.assertTrue(delay >= exp / 2 && delay <= exp, "delay of retry " + retry + ": " + delay);
+                jittered |= delay != exp;
+            }
+        }
+        Assert.assertTrue(jittered);
+    }
+
+    @Test
+    public void testRetryBudget() {
+        NSQConfig config = new NSQConfig();
+        config.setProducerRetryIntervalBaseInMilliSeconds(100);
+        config.setPublishRetryBudgetInMilliSeconds(250);
+        RetryBackoff backoff = new RetryBackoff(config);
+        long spent = backoff.delay(1, 0);
+        Assert.assertTrue(spent > 0);
+        //second retry takes 100~200 milliseconds, which may exceed budget
+        long delay = backoff.delay(2, spent);
+        Assert.assertTrue(delay < 0 || spent + delay <= 250);
+        //third retry takes at least 200 milliseconds
+        Assert.assertEquals(backoff.delay(3, 100), -1L);
+    }
+
+    @Test
+    public void testNoBackoff() {
+        NSQConfig config = new NSQConfig();
+        config.setProducerRetryIntervalBaseInMilliSeconds(0);
+        RetryBackoff backoff = new RetryBackoff(config);
+        Assert.assertEquals(backoff.delay(3, 0), 0L);
+    }
+
+    @Test
+    public void testPendingRetryFailsOnClose() throws Exception {
+        config.setProducerRetryIntervalBaseInMilliSeconds(10000);
+        config.setPublishRetryBudgetInMilliSeconds(100000);
+        nsqd.setFailPublish(true);
+        ProducerImplV2 producer = startProducer();
+        Future<MessageReceipt> future = producer.publishAsync(Message.create(new Topic(nsqd.getTopic()), "message to retry"));
+        //first attempt fails, and retry waits for seconds in scheduler
+        Thread.sleep(500L);
+        Assert.assertFalse(future.isDone());
+        producer.close();
+        Assert.assertTrue(future.isDone());
+        Assert.assertFalse(future.isSuccess());
+    }
+}
@@ -0,0 +1,153 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.nsq.client.entity.Topic;
+import com.youzan.nsq.client.exception.NSQSendBufferFullException;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.util.concurrent.Promise;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class SendBufferTest {
+    private final Topic topic = new Topic("testSendBuffer");
+
+    private SendBuffer newBuffer(NSQConfig.SendBufferPolicy policy, int maxMessages, long maxBytes) {
+        NSQConfig config = new NSQConfig();
+        config.setPublishSendBufferPolicy(policy);
+        config.setPublishSendBufferMaxMessages(maxMessages);
+        config.setPublishSendBufferMaxBytes(maxBytes);
+        config.setPublishSendBufferBlockTimeoutInMillisecond(100);
+        return new SendBuffer(config);
+    }
+
+    @Test
+    public void testFailFast() throws Exception {
+        SendBuffer buffer = newBuffer(NSQConfig.SendBufferPolicy.FAIL, 2, 0);
+        Promise<MessageReceipt> first = buffer.acquire(Message.create(topic, "msg1"));
+        buffer.acquire(Message.create(topic, "msg2"));
+        Assert.assertEquals(buffer.getCount(), 2);
+        Assert.assertEquals(buffer.getBytes(), 8L);
+        try {
+            buffer.acquire(Message.create(topic, "msg3"));
+            Assert.fail("send buffer should be full");
+        } catch (NSQSendBufferFullException e) {
+            //expected
+        }
+        first.trySuccess(new MessageReceipt());
+        Assert.assertEquals(buffer.getCount(), 1);
+        buffer.acquire(Message.create(topic, "msg3"));
+        Assert.assertEquals(buffer.getCount(), 2);
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        final SendBuffer buffer = newBuffer(NSQConfig.SendBufferPolicy.BLOCK, 0, 10);
+        final Promise<MessageReceipt> first = buffer.acquire(Message.create(topic, new byte[10]));
+        long start = System.currentTimeMillis();
+        try {
+            buffer.acquire(Message.create(topic, new byte[1]));
+            Assert.fail("send buffer should be full");
+        } catch (NSQSendBufferFullException e) {
+            Assert.assertTrue(System.currentTimeMillis() - start >= 100);
+        }
+        Thread completer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(30);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                first.trySuccess(new MessageReceipt());
+            }
+        });
+        completer.start();
+        buffer.acquire(Message.create(topic, new byte[5]));
+        completer.join();
+        Assert.assertEquals(buffer.getBytes(), 5L);
+        //message larger than buffer is accepted only when buffer is empty
+        try {
+            buffer.acquire(Message.create(topic, new byte[20]));
+            Assert.fail("send buffer should be full");
+        } catch (NSQSendBufferFullException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        SendBuffer buffer = newBuffer(NSQConfig.SendBufferPolicy.DROP_OLDEST, 2, 0);
+        Promise<MessageReceipt> first = buffer.acquire(Message.create(topic, "msg1"));
+        Promise<MessageReceipt> second = buffer.acquire(Message.create(topic, "msg2"));
+        Assert.assertTrue(SendBuffer.markSent(second));
+
+        Promise<MessageReceipt> third = buffer.acquire(Message.create(topic, "msg3"));
+        Assert.assertTrue(first.isDone());
+        Assert.assertTrue(first.cause() instanceof NSQSendBufferFullException);
+        Assert.assertFalse(SendBuffer.markSent(first));
+        Assert.assertEquals(buffer.getCount(), 2);
+
+        //message sent is not dropped
+        buffer.acquire(Message.create(topic, "msg4"));
+        Assert.assertFalse(second.isDone());
+        Assert.assertTrue(third.isDone());
+        Assert.assertEquals(buffer.getCount(), 2);
+    }
+
+    @Test(expectedExceptions = NSQSendBufferFullException.class)
+    public void testDropOldestAllSent() throws Exception {
+        SendBuffer buffer = newBuffer(NSQConfig.SendBufferPolicy.DROP_OLDEST, 1, 0);
+        Assert.assertTrue(SendBuffer.markSent(buffer.acquire(Message.create(topic, "msg1"))));
+        buffer.acquire(Message.create(topic, "msg2"));
+    }
+
+    @Test
+    public void testBlockFailsFastInEventLoop() throws Exception {
+        NSQConfig config = new NSQConfig();
+        config.setPublishSendBufferMaxMessages(1);
+        config.setPublishSendBufferBlockTimeoutInMillisecond(5000);
+        DefaultEventLoop eventLoop = new DefaultEventLoop();
+        try {
+            final SendBuffer buffer = new SendBuffer(config, eventLoop);
+            buffer.acquire(Message.create(topic, "msg1"));
+            long start = System.currentTimeMillis();
+            try {
+                eventLoop.submit(new Callable<Promise<MessageReceipt>>() {
+                    @Override
+                    public Promise<MessageReceipt> call() throws Exception {
+                        return buffer.acquire(Message.create(topic, "msg2"));
+                    }
+                }).get(10, TimeUnit.SECONDS);
+                Assert.fail("send buffer should be full");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof NSQSendBufferFullException);
+            }
+            Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        } finally {
+            eventLoop.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testDropOldestSkipsSent() throws Exception {
+        SendBuffer buffer = newBuffer(NSQConfig.SendBufferPolicy.DROP_OLDEST, 3, 0);
+        Promise<MessageReceipt> first = buffer.acquire(Message.create(topic, "msg1"));
+        Promise<MessageReceipt> second = buffer.acquire(Message.create(topic, "msg2"));
+        Promise<MessageReceipt> third = buffer.acquire(Message.create(topic, "msg3"));
+        Assert.assertTrue(SendBuffer.markSent(first));
+        first.trySuccess(new MessageReceipt());
+        Assert.assertTrue(SendBuffer.markSent(second));
+        buffer.acquire(Message.create(topic, "msg4"));
+        //oldest unsent one is dropped, sent and completed ones ahead of it are skipped
+        Promise<MessageReceipt> fifth = buffer.acquire(Message.create(topic, "msg5"));
+        Assert.assertFalse(second.isDone());
+        Assert.assertTrue(third.cause() instanceof NSQSendBufferFullException);
+        Assert.assertFalse(fifth.isDone());
+        Assert.assertEquals(buffer.getCount(), 3);
+    }
+}
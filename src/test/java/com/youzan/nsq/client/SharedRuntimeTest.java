@@ -0,0 +1,125 @@
+package com.youzan.nsq.client;
+
+import com.youzan.nsq.client.core.ClientRuntime;
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.nsq.client.entity.Topic;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests of producers running on shared {@link ClientRuntime}.
+ */
+public class SharedRuntimeTest {
+
+    private static Set<Thread> liveThreads() {
+        Set<Thread> threads = new HashSet<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive()) {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+
+    /**
+     * @return names of live threads which are not in passin snapshot, except those of mocked nsqd
+     */
+    private static List<String> threadsCreatedSince(final Set<Thread> before) {
+        List<String> created = new ArrayList<>();
+        for (Thread thread : liveThreads()) {
+            if (!before.contains(thread) && !thread.getName().startsWith(MockedNSQd.THREAD_NAME)) {
+                created.add(thread.getName());
+            }
+        }
+        return created;
+    }
+
+    private static void deleteDir(final File dir) {
+        File[] files = dir.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testReferenceCount() {
+        NSQConfig config = new NSQConfig();
+        ClientRuntime runtime = ClientRuntime.acquire(config);
+        Assert.assertSame(ClientRuntime.acquire(config), runtime);
+        Assert.assertEquals(runtime.getReferenceCount(), 2);
+        runtime.release();
+        Assert.assertFalse(runtime.isShutdown());
+        runtime.release();
+        Assert.assertTrue(runtime.isShutdown());
+        //released more than acquired
+        runtime.release();
+        Assert.assertEquals(runtime.getReferenceCount(), 0);
+
+        ClientRuntime another = ClientRuntime.acquire(config);
+        Assert.assertNotSame(another, runtime);
+        another.release();
+    }
+
+    @Test
+    public void testProducersShareRuntime() throws Exception {
+        final File dir = Files.createTempDirectory("testSharedRuntime").toFile();
+        try (MockedNSQd nsqd = new MockedNSQd("testSharedRuntime")) {
+            NSQConfig config = new NSQConfig();
+            config.setLookupAddresses(nsqd.getLookupAddress());
+            config.setUseSharedRuntime(true);
+            //connection ring, spill journal and warm up run on shared runtime too
+            config.setMaxInFlightCommandsPerConnection(16);
+            Topic topic = new Topic(nsqd.getTopic());
+            List<ProducerImplV2> producers = new ArrayList<>();
+            int cpu = Runtime.getRuntime().availableProcessors();
+            int maxThreads = config.getNettyPoolSize() + Math.max(2, cpu) + Math.max(cpu, config.getPublishWorkerPoolSize())
+                    + config.getConsumerWorkerPoolSize();
+            final Set<Thread> before = liveThreads();
+            try {
+                for (int i = 0; i < 8; i++) {
+                    //journal is read when producer starts, each producer spills in a directory of its own
+                    config.setPublishSpillDirectory(new File(dir, "producer" + i).getAbsolutePath());
+                    ProducerImplV2 producer = new ProducerImplV2(config);
+                    producers.add(producer);
+                    producer.start(nsqd.getTopic());
+                    producer.publishAsync(Message.create(topic, "shared runtime " + i)).get();
+                }
+                Assert.assertEquals(nsqd.getPublished(), 8);
+                //thread number is bounded by runtime, not by number of producers
+                List<String> created = threadsCreatedSince(before);
+                int shared = 0;
+                for (String name : created) {
+                    if (name.startsWith("nsq-shared-")) {
+                        shared++;
+                    }
+                }
+                Assert.assertTrue(shared <= maxThreads, "threads: " + created);
+                //besides shared runtime, only process wide threads, of lookup address updater, http keep alive and netty
+                Assert.assertTrue(created.size() - shared <= 3, "threads: " + created);
+            } finally {
+                for (ProducerImplV2 producer : producers) {
+                    producer.close();
+                }
+                deleteDir(dir);
+            }
+            ClientRuntime runtime = ClientRuntime.acquire(config);
+            try {
+                //runtime of closed producers is shut down, and a new one is created
+                Assert.assertEquals(runtime.getReferenceCount(), 1);
+            } finally {
+                runtime.release();
+            }
+        }
+    }
+}
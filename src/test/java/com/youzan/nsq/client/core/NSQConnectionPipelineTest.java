@@ -0,0 +1,81 @@
+package com.youzan.nsq.client.core;
+
+import com.youzan.nsq.client.core.command.Nop;
+import com.youzan.nsq.client.entity.Address;
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.nsq.client.exception.NSQNoConnectionException;
+import com.youzan.nsq.client.network.frame.NSQFrame;
+import com.youzan.nsq.client.network.frame.ResponseFrame;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.concurrent.Future;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Pipelined commands on {@link NSQConnectionImpl} are answered in write order.
+ */
+public class NSQConnectionPipelineTest {
+
+    private ResponseFrame responseFrame(String content) {
+        ResponseFrame frame = new ResponseFrame();
+        frame.setData(content.getBytes(NSQFrame.DEFAULT_CHARSET));
+        return frame;
+    }
+
+    @Test
+    public void testResponsesMatchedInWriteOrder() {
+        NSQConfig config = new NSQConfig();
+        config.setMaxInFlightCommandsPerConnection(3);
+        EmbeddedChannel channel = new EmbeddedChannel();
+        NSQConnectionImpl conn = new NSQConnectionImpl(1, new Address("127.0.0.1", 4150, "ha", "fakeTopic", 1, false), channel, config);
+
+        Future<NSQFrame> first = conn.commandAndGetResponseAsync(Nop.getInstance());
+        Future<NSQFrame> second = conn.commandAndGetResponseAsync(Nop.getInstance());
+        Future<NSQFrame> third = conn.commandAndGetResponseAsync(Nop.getInstance());
+        //window is full
+        Future<NSQFrame> fourth = conn.commandAndGetResponseAsync(Nop.getInstance());
+        Assert.assertTrue(fourth.isDone());
+        Assert.assertTrue(fourth.cause() instanceof TimeoutException);
+
+        conn.addResponseFrame(responseFrame("first"));
+        conn.addResponseFrame(responseFrame("second"));
+        Assert.assertEquals(first.getNow().getMessage(), "first");
+        Assert.assertEquals(second.getNow().getMessage(), "second");
+        Assert.assertFalse(third.isDone());
+
+        //window released by responses
+        Future<NSQFrame> fifth = conn.commandAndGetResponseAsync(Nop.getInstance());
+        Assert.assertFalse(fifth.isDone());
+        conn.addResponseFrame(responseFrame("third"));
+        Assert.assertEquals(third.getNow().getMessage(), "third");
+
+        conn.close();
+        Assert.assertTrue(fifth.isDone());
+        Assert.assertTrue(fifth.cause() instanceof NSQNoConnectionException);
+    }
+
+    @Test
+    public void testInFlightCommandTimesOut() throws InterruptedException {
+        NSQConfig config = new NSQConfig();
+        config.setMaxInFlightCommandsPerConnection(2);
+        config.setQueryTimeoutInMillisecond(50);
+        EmbeddedChannel channel = new EmbeddedChannel();
+        NSQConnectionImpl conn = new NSQConnectionImpl(1, new Address("127.0.0.1", 4150, "ha", "fakeTopic", 1, false), channel, config);
+
+        Future<NSQFrame> stalled = conn.commandAndGetResponseAsync(Nop.getInstance());
+        Thread.sleep(100L);
+        channel.runScheduledPendingTasks();
+        Assert.assertTrue(stalled.isDone());
+        Assert.assertTrue(stalled.cause() instanceof TimeoutException);
+
+        //late response is matched with timed out command, not with next one
+        Future<NSQFrame> next = conn.commandAndGetResponseAsync(Nop.getInstance());
+        conn.addResponseFrame(responseFrame("late"));
+        Assert.assertFalse(next.isDone());
+        conn.addResponseFrame(responseFrame("next"));
+        Assert.assertEquals(next.getNow().getMessage(), "next");
+        Assert.assertEquals(conn.getInFlightCount(), 0);
+    }
+}
@@ -0,0 +1,85 @@
+package com.youzan.nsq.client.core.codec;
+
+import com.youzan.nsq.client.PubCmdFactory;
+import com.youzan.nsq.client.core.command.Pub;
+import com.youzan.nsq.client.core.command.PubExt;
+import com.youzan.nsq.client.entity.Address;
+import com.youzan.nsq.client.entity.ExtVer;
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.NSQConfig;
+import com.youzan.nsq.client.entity.NSQMessage;
+import com.youzan.nsq.client.entity.Topic;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class PayloadCodecTest {
+
+    @DataProvider(name = "codecs")
+    public static Object[][] codecs() {
+        return new Object[][]{{Lz4PayloadCodec.NAME}, {GzipPayloadCodec.NAME}};
+    }
+
+    private byte[] jsonBody(int size) {
+        StringBuilder sb = new StringBuilder("[");
+        while (sb.length() < size) {
+            sb.append("{\"id\":").append(sb.length()).append(",\"name\":\"payload codec\"},");
+        }
+        return Arrays.copyOf(sb.toString().getBytes(), size);
+    }
+
+    @Test(dataProvider = "codecs")
+    public void testRoundTrip(String name) throws IOException {
+        PayloadCodec codec = PayloadCodecs.get(name);
+        Assert.assertNotNull(codec);
+        byte[] body = jsonBody(64 * 1024);
+        byte[] encoded = codec.encode(body);
+        Assert.assertTrue(encoded.length < body.length / 4, "encoded length: " + encoded.length);
+        Assert.assertEquals(codec.decode(encoded), body);
+        Assert.assertEquals(codec.decode(codec.encode(new byte[0])), new byte[0]);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testLz4DecodeCorrupted() throws IOException {
+        byte[] encoded = Lz4PayloadCodec.getInstance().encode(jsonBody(1024));
+        Lz4PayloadCodec.getInstance().decode(Arrays.copyOf(encoded, encoded.length / 2));
+    }
+
+    @Test(dataProvider = "codecs")
+    public void testPublishAndConsume(String name) throws Exception {
+        NSQConfig config = new NSQConfig();
+        config.setPayloadCodec("testPayloadCodec", name);
+        config.setPayloadEncodeThresholdInBytes(1024);
+        Topic topic = new Topic("testPayloadCodec");
+        PubCmdFactory factory = PubCmdFactory.getInstance(false);
+
+        //small body is published as it is
+        Pub small = factory.create(Message.create(topic, jsonBody(1023)), config);
+        Assert.assertEquals(small.getClass(), Pub.class);
+
+        byte[] body = jsonBody(20 * 1024);
+        Pub pub = factory.create(Message.create(topic, body), config);
+        Assert.assertTrue(pub instanceof PubExt);
+        //PUB_EXT topic\n, total length, json header length, json header and body
+        ByteBuffer buf = ByteBuffer.wrap(pub.getBytes());
+        buf.position(pub.getHeader().length());
+        int total = buf.getInt();
+        byte[] jsonHeader = new byte[buf.getShort()];
+        buf.get(jsonHeader);
+        byte[] encoded = new byte[total - 2 - jsonHeader.length];
+        buf.get(encoded);
+        Assert.assertTrue(new String(jsonHeader).contains("\"" + PubExt.CODEC_KEY + "\":\"" + name + "\""));
+        Assert.assertTrue(encoded.length < body.length / 4);
+
+        byte[] id = new byte[8];
+        NSQMessage msg = new NSQMessage(new byte[8], new byte[2], new byte[16], id, id, encoded,
+                new Address("127.0.0.1", 4150, "1.0.0", topic.getTopicText(), 0, true), 1L, 60, topic, true);
+        msg.parseExtContent(ExtVer.Ver0x4, jsonHeader);
+        Assert.assertEquals(msg.getMessageBody(), body);
+        Assert.assertEquals(msg.getExtByName(PubExt.CODEC_KEY), name);
+    }
+}
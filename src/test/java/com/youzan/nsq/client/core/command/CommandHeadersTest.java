@@ -0,0 +1,56 @@
+package com.youzan.nsq.client.core.command;
+
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.Topic;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+public class CommandHeadersTest {
+
+    private String ascii(byte[] bytes) {
+        return new String(bytes, NSQCommand.DEFAULT_CHARSET);
+    }
+
+    @Test
+    public void testHeaderCached() {
+        byte[] header = CommandHeaders.get("PUB", "testHeaderCached", 1);
+        Assert.assertEquals(ascii(header), "PUB testHeaderCached 1\n");
+        Assert.assertSame(CommandHeaders.get("PUB", "testHeaderCached", 1), header);
+
+        Assert.assertEquals(ascii(CommandHeaders.get("PUB", "testHeaderCached", -1)), "PUB testHeaderCached\n");
+        Assert.assertEquals(ascii(CommandHeaders.get("MPUB", "testHeaderCached", 1)), "MPUB testHeaderCached 1\n");
+        //partition added after a larger one
+        Assert.assertEquals(ascii(CommandHeaders.get("PUB", "testHeaderCached", 10)), "PUB testHeaderCached 10\n");
+        Assert.assertEquals(ascii(CommandHeaders.get("PUB", "testHeaderCached", 0)), "PUB testHeaderCached 0\n");
+        Assert.assertSame(CommandHeaders.get("PUB", "testHeaderCached", 1), header);
+
+        int outOfBound = CommandHeaders.MAX_CACHED_PARTITION;
+        Assert.assertEquals(ascii(CommandHeaders.get("PUB", "testHeaderCached", outOfBound)), "PUB testHeaderCached " + outOfBound + "\n");
+    }
+
+    @Test
+    public void testPubHeader() {
+        Topic topic = new Topic("testPubHeader");
+        Pub pub = new Pub(Message.create(topic, "msg"));
+        Assert.assertEquals(pub.getHeader(), "PUB testPubHeader\n");
+        pub.overrideDefaultPartition(3);
+        Assert.assertEquals(pub.getHeader(), "PUB testPubHeader 3\n");
+
+        Mpub mpub = new Mpub(topic, Arrays.asList("msg".getBytes()));
+        mpub.overrideDefaultPartition(3);
+        Assert.assertEquals(mpub.getHeader(), "MPUB testPubHeader 3\n");
+
+        Assert.assertEquals(new PubTrace(Message.create(topic, "msg")).getHeader(), "PUB_TRACE testPubHeader\n");
+    }
+
+    @Test
+    public void testRdyCached() {
+        Assert.assertSame(Rdy.valueOf(0), Rdy.BACK_OFF);
+        Assert.assertSame(Rdy.valueOf(100), Rdy.valueOf(100));
+        Assert.assertEquals(ascii(Rdy.valueOf(100).getBytes()), "RDY 100\n");
+        Assert.assertEquals(ascii(Rdy.valueOf(5000).getBytes()), "RDY 5000\n");
+        Assert.assertEquals(Rdy.valueOf(5000).getCount(), 5000);
+    }
+}
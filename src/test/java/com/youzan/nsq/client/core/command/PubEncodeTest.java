@@ -0,0 +1,85 @@
+package com.youzan.nsq.client.core.command;
+
+import com.youzan.nsq.client.entity.DesiredTag;
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.Topic;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class PubEncodeTest {
+
+    @DataProvider(name = "bodySizes")
+    public static Object[][] bodySizes() {
+        return new Object[][]{{1}, {Pub.WRAP_BODY_THRESHOLD - 1}, {Pub.WRAP_BODY_THRESHOLD}, {64 * 1024}};
+    }
+
+    private void assertEncodedAsBytes(NSQCommand cmd) {
+        ByteBuf buf = ((ByteBufEncodable) cmd).encode(PooledByteBufAllocator.DEFAULT);
+        try {
+            Assert.assertEquals(ByteBufUtil.getBytes(buf), cmd.getBytes());
+        } finally {
+            buf.release();
+        }
+    }
+
+    private byte[] body(int size) {
+        byte[] body = new byte[size];
+        Arrays.fill(body, (byte) 'a');
+        return body;
+    }
+
+    @Test(dataProvider = "bodySizes")
+    public void testPubEncode(int size) {
+        Message msg = Message.create(new Topic("testPubEncode"), body(size));
+        Pub pub = new Pub(msg);
+        pub.overrideDefaultPartition(1);
+        assertEncodedAsBytes(pub);
+
+        msg.setTraceID(123L);
+        assertEncodedAsBytes(new PubTrace(msg));
+
+        Map<String, String> ext = new HashMap<>();
+        ext.put("key", "val");
+        msg.setJsonHeaderExt(ext);
+        msg.setDesiredTag(new DesiredTag("tag"));
+        assertEncodedAsBytes(new PubExt(msg, true));
+    }
+
+    @Test
+    public void testMpubEncode() {
+        Mpub mpub = new Mpub(new Topic("testMpubEncode"), Arrays.asList(body(10), body(Pub.WRAP_BODY_THRESHOLD * 2), body(0)));
+        assertEncodedAsBytes(mpub);
+        //encoded again in publish retry
+        assertEncodedAsBytes(mpub);
+    }
+
+    @Test
+    public void testMpubEncodeSingleMessage() {
+        Mpub mpub = new Mpub(new Topic("testMpubEncode"), Arrays.asList(body(Pub.WRAP_BODY_THRESHOLD)));
+        assertEncodedAsBytes(mpub);
+    }
+
+    @Test
+    public void testPartitionOverrideReset() {
+        Topic topic = new Topic("testPartitionOverride");
+        Mpub mpub = new Mpub(topic, Arrays.asList(body(10), body(20)));
+        mpub.overrideDefaultPartition(2);
+        Assert.assertEquals(mpub.getHeader(), "MPUB testPartitionOverride 2\n");
+        assertEncodedAsBytes(mpub);
+
+        Pub pub = new Pub(Message.create(topic, body(10)));
+        pub.overrideDefaultPartition(2);
+        Assert.assertTrue(new String(pub.getBytes(), NSQCommand.DEFAULT_CHARSET).startsWith("PUB testPartitionOverride 2\n"));
+        pub.overrideDefaultPartition(-1);
+        Assert.assertTrue(new String(pub.getBytes(), NSQCommand.DEFAULT_CHARSET).startsWith("PUB testPartitionOverride\n"));
+        assertEncodedAsBytes(pub);
+    }
+}
@@ -0,0 +1,77 @@
+package com.youzan.nsq.client.core.command;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.youzan.nsq.client.entity.DesiredTag;
+import com.youzan.nsq.client.entity.Message;
+import com.youzan.nsq.client.entity.Topic;
+import com.youzan.util.SystemUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class PubExtHeaderTest {
+    private final Topic topic = new Topic("testPubExtHeader");
+
+    private static JsonNode header(final PubExt pub) throws Exception {
+        ByteBuffer buf = ByteBuffer.wrap(pub.getBytes());
+        buf.position(pub.getHeader().length() + 4);
+        byte[] json = new byte[buf.getShort()];
+        buf.get(json);
+        return SystemUtil.getObjectMapper().readTree(json);
+    }
+
+    @Test
+    public void testTagOnlyHeader() throws Exception {
+        Message msg = Message.create(topic, "msg");
+        msg.setDesiredTag(new DesiredTag("tagOnly"));
+        PubExt first = new PubExt(msg, false);
+        PubExt second = new PubExt(Message.create(topic, "another msg").setDesiredTag(new DesiredTag("tagOnly")), false);
+        JsonNode json = header(first);
+        Assert.assertEquals(json.size(), 1);
+        Assert.assertEquals(json.get(PubExt.CLIENT_TAG_KEY).asText(), "tagOnly");
+        Assert.assertEquals(header(second), json);
+    }
+
+    @Test
+    public void testMapHeaderMerged() throws Exception {
+        Map<String, Object> ext = new LinkedHashMap<>();
+        ext.put("key", "val");
+        ext.put("num", 12);
+        ext.put("list", Arrays.asList(1, 2));
+        ext.put(PubExt.CLIENT_TAG_KEY, "overridden");
+        Message msg = Message.create(topic, "msg");
+        msg.setTraceID(123L);
+        msg.setJsonHeaderExt(ext);
+        msg.setDesiredTag(new DesiredTag("tag"));
+
+        ObjectNode expected = SystemUtil.getObjectMapper().valueToTree(ext);
+        expected.put(PubExt.CLIENT_TAG_KEY, "tag");
+        expected.put(PubExt.TRACE_ID_KEY, msg.getTraceIDStr());
+        Assert.assertEquals(header(new PubExt(msg, true)), expected);
+        //user map is not changed
+        Assert.assertEquals(ext.size(), 4);
+        Assert.assertEquals(ext.get(PubExt.CLIENT_TAG_KEY), "overridden");
+    }
+
+    @Test
+    public void testTreeHeader() throws Exception {
+        ObjectNode ext = SystemUtil.getObjectMapper().createObjectNode();
+        ext.put("key", "val");
+        Message msg = Message.create(topic, "msg");
+        msg.setJsonHeaderExt(ext);
+        JsonNode json = header(new PubExt(msg, false));
+        Assert.assertEquals(json, ext);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testHeaderNotObject() {
+        Message msg = Message.create(topic, "msg");
+        msg.setJsonHeaderExt(Arrays.asList("a", "b"));
+        new PubExt(msg, false);
+    }
+}
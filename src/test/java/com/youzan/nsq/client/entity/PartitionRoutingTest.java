@@ -0,0 +1,81 @@
+package com.youzan.nsq.client.entity;
+
+import com.youzan.nsq.client.exception.NSQPartitionNotAvailableException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PartitionRoutingTest {
+
+    private Partitions createPartitions(String topic, int partitionNum, int... partitionIds) {
+        Map<Integer, SoftReference<Address>> id2Addr = new HashMap<>();
+        List<Address> dataNodes = new ArrayList<>();
+        for (int id : partitionIds) {
+            Address addr = new Address("127.0.0.1", 4150 + id, "1.0.0", topic, id, false);
+            id2Addr.put(id, new SoftReference<>(addr));
+            dataNodes.add(addr);
+        }
+        return new Partitions(topic).updatePartitionDataNode(id2Addr, dataNodes, partitionNum);
+    }
+
+    @Test
+    public void testRoute() throws NSQPartitionNotAvailableException {
+        Partitions partitions = createPartitions("testRoute", 2, 0, 1);
+        Topic topic = new Topic("testRoute");
+        PartitionRouting routing = partitions.getRouting();
+        Assert.assertSame(partitions.getRouting(), routing);
+
+        Address[] nodes = routing.route(topic, 1L);
+        Assert.assertEquals(nodes.length, 1);
+        Assert.assertEquals(nodes[0].getPartition(), 1);
+        Assert.assertSame(routing.route(topic, 1L), nodes);
+        Assert.assertEquals(routing.route(topic, 2L)[0].getPartition(), 0);
+
+        Assert.assertEquals(routing.route(topic, Message.NO_SHARDING).length, 2);
+        Assert.assertSame(routing.route(topic, Message.NO_SHARDING), partitions.getAllDataNodesArray());
+    }
+
+    @Test(expectedExceptions = {NSQPartitionNotAvailableException.class})
+    public void testRouteMissingPartition() throws NSQPartitionNotAvailableException {
+        Partitions partitions = createPartitions("testRouteMissingPartition", 2, 0);
+        partitions.getRouting().route(new Topic("testRouteMissingPartition"), 1L);
+    }
+
+    @Test
+    public void testRoutingRebuiltOnUpdate() throws NSQPartitionNotAvailableException {
+        Partitions partitions = createPartitions("testRoutingRebuiltOnUpdate", 2, 0, 1);
+        PartitionRouting routing = partitions.getRouting();
+        partitions.updatePartitionNum(4);
+        Assert.assertNotSame(partitions.getRouting(), routing);
+        Assert.assertEquals(partitions.getRouting().getPartitionNum(), 4);
+    }
+
+    @Test
+    public void testMurmur3() {
+        //murmur3 32 bits of 4 zero bytes with seed 0
+        Assert.assertEquals(Murmur3TopicSharding.hashInt(0), 0x2362F9DE);
+        Assert.assertEquals(Murmur3TopicSharding.hash(100L), Murmur3TopicSharding.hash(100));
+        Assert.assertEquals(Murmur3TopicSharding.hash("order-1"), Murmur3TopicSharding.hash(new StringBuilder("order-1")));
+
+        //sequential IDs spread evenly over partitions
+        final int partitionNum = 16;
+        final int ids = 16000;
+        int[] longHits = new int[partitionNum];
+        int[] stringHits = new int[partitionNum];
+        Topic topic = new Topic("testMurmur3").setTopicSharding(Murmur3TopicSharding.INSTANCE);
+        for (long id = 0; id < ids; id++) {
+            longHits[topic.calculatePartitionIndex(id, partitionNum)]++;
+            stringHits[topic.calculatePartitionIndex("2018" + id, partitionNum)]++;
+        }
+        for (int i = 0; i < partitionNum; i++) {
+            Assert.assertTrue(Math.abs(longHits[i] - ids / partitionNum) < ids / partitionNum / 5, "hits of partition " + i + ": " + longHits[i]);
+            Assert.assertTrue(Math.abs(stringHits[i] - ids / partitionNum) < ids / partitionNum / 5, "hits of partition " + i + ": " + stringHits[i]);
+        }
+        Assert.assertTrue(Murmur3TopicSharding.INSTANCE.toShardingCode(-1L) >= 0);
+    }
+}